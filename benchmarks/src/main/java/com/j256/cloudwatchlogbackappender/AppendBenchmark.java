@@ -0,0 +1,103 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Throughput and latency of {@link CloudWatchAppender#append} from 1 to 64 producer threads with the writer putting to a
+ * no-op client. Run with "-prof gc" to see the allocation rate per event.
+ * 
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendBenchmark {
+
+	@Param({ "true", "false" })
+	public boolean copyEvents;
+
+	/** the larger size is over the default maximum so gets truncated */
+	@Param({ "100", "300000" })
+	public int messageSize;
+
+	private CloudWatchAppender appender;
+	private LoggingEvent event;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		LoggerContext loggerContext = new LoggerContext();
+		appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(new NoopLogsClient());
+		appender.setCopyEvents(copyEvents);
+		appender.setTruncateEventMessages(true);
+		appender.setInternalQueueSize(100000);
+		appender.setMaxQueueWaitTimeMillis(100);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("[%thread] %level %logger{20} - %msg%n");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		StringBuilder sb = new StringBuilder(messageSize);
+		for (int i = 0; i < messageSize; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		event = new LoggingEvent();
+		event.setLoggerName(AppendBenchmark.class.getName());
+		event.setLevel(ch.qos.logback.classic.Level.INFO);
+		event.setThreadName("main");
+		event.setMessage(sb.toString());
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		appender.stop();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void append1Thread() {
+		appender.append(event);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public void append8Threads() {
+		appender.append(event);
+	}
+
+	@Benchmark
+	@Threads(64)
+	public void append64Threads() {
+		appender.append(event);
+	}
+}
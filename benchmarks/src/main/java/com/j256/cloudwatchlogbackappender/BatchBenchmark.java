@@ -0,0 +1,115 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * What the writer does with a full batch: sort it by timestamp and then build the request, either as SDK objects put
+ * to a no-op client or as a body written by the {@link PutLogEventsEncoder}.
+ * 
+ * @author graywatson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark {
+
+	private static final Comparator<ILoggingEvent> TIMESTAMP_COMPARATOR =
+			Comparator.comparingLong(ILoggingEvent::getTimeStamp);
+
+	@Param({ "100", "10000" })
+	public int batchSize;
+
+	private final NoopLogsClient logsClient = new NoopLogsClient();
+	private final LayoutBuffer layoutBuffer = new LayoutBuffer();
+	private final PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+	private Ec2PatternLayout layout;
+	private List<ILoggingEvent> queuedEvents;
+	private List<ILoggingEvent> events;
+
+	@Setup(Level.Trial)
+	public void setupTrial() {
+		LoggerContext loggerContext = new LoggerContext();
+		layout = new Ec2PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("[%thread] %level %logger{20} - %msg");
+		layout.start();
+		// events from multiple producer threads are queued mostly but not entirely in order
+		Random random = new Random(1);
+		long now = System.currentTimeMillis();
+		queuedEvents = new ArrayList<ILoggingEvent>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			LoggingEvent event = new LoggingEvent();
+			event.setLoggerName(BatchBenchmark.class.getName());
+			event.setLevel(ch.qos.logback.classic.Level.INFO);
+			event.setThreadName("producer-" + (i % 8));
+			event.setMessage("request " + i + " handled");
+			event.setTimeStamp(now + i - random.nextInt(5));
+			event.setMDCPropertyMap(Collections.emptyMap());
+			queuedEvents.add(event);
+		}
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		events = new ArrayList<ILoggingEvent>(queuedEvents);
+	}
+
+	@Benchmark
+	public List<ILoggingEvent> sortBatch() {
+		events.sort(TIMESTAMP_COMPARATOR);
+		return events;
+	}
+
+	@Benchmark
+	public long sdkRequest() {
+		List<InputLogEvent> logEvents = new ArrayList<InputLogEvent>(events.size());
+		for (ILoggingEvent event : events) {
+			String message = layoutBuffer.render(layout, event).toString();
+			logEvents.add(new InputLogEvent().withTimestamp(event.getTimeStamp()).withMessage(message));
+		}
+		logEvents.sort(Comparator.comparing(InputLogEvent::getTimestamp));
+		logsClient.putLogEvents(new PutLogEventsRequest("group", "stream", logEvents));
+		return logsClient.getEventCount();
+	}
+
+	@Benchmark
+	public int encodedRequest() {
+		events.sort(TIMESTAMP_COMPARATOR);
+		encoder.start("group", "stream");
+		for (ILoggingEvent event : events) {
+			layoutBuffer.render(layout, event);
+			layoutBuffer.encode();
+			encoder.addEvent(event.getTimeStamp(), layoutBuffer.getBytes(), layoutBuffer.getByteLength());
+		}
+		encoder.finish(null);
+		return encoder.getLength();
+	}
+}
@@ -0,0 +1,85 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Rendering an event with the {@link Ec2PatternLayout} and each of its converters: into a reused {@link LayoutBuffer},
+ * into the buffer and then encoded into a request body like the writer does for the direct client, and through the
+ * regular string returning layout. Run with "-prof gc" to see the allocation per event of each.
+ * 
+ * @author graywatson
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+	@Param({ "%msg", "%instance", "%instanceId", "%uuid", "%hostName", "%hostAddress", "%property{java.version}",
+			"%environ{PATH}", "%instance %instanceId %hostName [%thread] %level %logger - %msg" })
+	public String converterPattern;
+
+	private Ec2PatternLayout layout;
+	private final LayoutBuffer layoutBuffer = new LayoutBuffer();
+	private final PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+	private int encodedCount;
+	private LoggingEvent event;
+
+	@Setup
+	public void setup() {
+		CloudWatchAppender.setEc2InstanceName("benchmark-instance");
+		Ec2InstanceIdConverter.setInstanceId("i-0123456789abcdef0");
+		LoggerContext loggerContext = new LoggerContext();
+		layout = new Ec2PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern(converterPattern);
+		layout.start();
+		event = new LoggingEvent();
+		event.setLoggerName(LayoutBenchmark.class.getName());
+		event.setLevel(Level.INFO);
+		event.setThreadName("main");
+		event.setMessage("user 12345 logged in from 10.0.0.1");
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+	}
+
+	@Benchmark
+	public int renderIntoBuffer() {
+		return layoutBuffer.render(layout, event).length();
+	}
+
+	@Benchmark
+	public int renderIntoRequest() {
+		if (encodedCount++ % 1000 == 0) {
+			encoder.start("group", "stream");
+		}
+		layoutBuffer.render(layout, event);
+		layoutBuffer.encode();
+		encoder.addEvent(event.getTimeStamp(), layoutBuffer.getBytes(), layoutBuffer.getByteLength());
+		return encoder.getLength();
+	}
+
+	@Benchmark
+	public String doLayout() {
+		return layout.doLayout(event);
+	}
+}
@@ -0,0 +1,32 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import com.amazonaws.services.logs.AbstractAWSLogs;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+/**
+ * Logs client which accepts every put without doing anything so the benchmarks measure just the appender.
+ * 
+ * @author graywatson
+ */
+public class NoopLogsClient extends AbstractAWSLogs {
+
+	private final LongAdder eventCount = new LongAdder();
+
+	@Override
+	public PutLogEventsResult putLogEvents(PutLogEventsRequest request) {
+		eventCount.add(request.getLogEvents().size());
+		return new PutLogEventsResult();
+	}
+
+	@Override
+	public void shutdown() {
+		// nothing to release
+	}
+
+	public long getEventCount() {
+		return eventCount.sum();
+	}
+}
@@ -0,0 +1,103 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The check at the top of every append that stops the writer from logging into itself: the thread-local lookup that it
+ * used to be against the writer-thread identity check that it is now. Applications have other thread-locals, such as
+ * the MDC, so the producer threads are given some to probe past. See {@link AppendBenchmark} for the whole append.
+ *
+ * @author graywatson
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecursionGuardBenchmark {
+
+	@Param({ "0", "64" })
+	public int otherThreadLocals;
+
+	private final ThreadLocal<Boolean> stopMessagesThreadLocal = new ThreadLocal<Boolean>();
+	private volatile Thread[] writerThreads;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		writerThreads = new Thread[] { new Thread("writer") };
+	}
+
+	@State(Scope.Thread)
+	public static class ProducerState {
+		private final List<ThreadLocal<Object>> threadLocals = new ArrayList<ThreadLocal<Object>>();
+
+		@Setup(Level.Trial)
+		public void setup(RecursionGuardBenchmark benchmark) {
+			for (int i = 0; i < benchmark.otherThreadLocals; i++) {
+				ThreadLocal<Object> threadLocal = new ThreadLocal<Object>();
+				threadLocal.set(i);
+				threadLocals.add(threadLocal);
+			}
+		}
+	}
+
+	@Benchmark
+	public boolean threadLocal1Thread(ProducerState producer) {
+		return threadLocalGuard();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public boolean threadLocal8Threads(ProducerState producer) {
+		return threadLocalGuard();
+	}
+
+	@Benchmark
+	public boolean writerIdentity1Thread(ProducerState producer) {
+		return writerIdentityGuard();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public boolean writerIdentity8Threads(ProducerState producer) {
+		return writerIdentityGuard();
+	}
+
+	private boolean threadLocalGuard() {
+		Boolean stopped = stopMessagesThreadLocal.get();
+		return (stopped != null && stopped);
+	}
+
+	/**
+	 * Same as CloudWatchAppender.isWriterThread().
+	 */
+	private boolean writerIdentityGuard() {
+		Thread current = Thread.currentThread();
+		if (current instanceof SharedWriterScheduler.WriterThread) {
+			return true;
+		}
+		for (Thread thread : writerThreads) {
+			if (thread == current) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
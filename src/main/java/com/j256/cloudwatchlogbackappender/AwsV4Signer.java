@@ -0,0 +1,111 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Minimal AWS signature version 4 signer for our POST requests which have no query string and a precomputed payload
+ * hash. The derived signing key is cached for the day so each request only costs two HMACs and a hash.
+ *
+ * @author graywatson
+ */
+public class AwsV4Signer {
+
+	private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	private static final DateTimeFormatter AMZ_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'");
+
+	private final String region;
+	private final String service;
+
+	private String cachedDate;
+	private String cachedSecretKey;
+	private byte[] cachedSigningKey;
+
+	public AwsV4Signer(String region, String service) {
+		this.region = region;
+		this.service = service;
+	}
+
+	/**
+	 * Format the time in the x-amz-date header format.
+	 */
+	public static String formatAmzDate(ZonedDateTime time) {
+		return AMZ_DATE_FORMATTER.format(time.withZoneSameInstant(ZoneOffset.UTC));
+	}
+
+	/**
+	 * Return the Authorization header value for the request.
+	 *
+	 * @param headers
+	 *            Headers to sign which must include host and x-amz-date.
+	 */
+	public synchronized String sign(String method, String path, Map<String, String> headers, String payloadHash,
+			String amzDate, String accessKeyId, String secretKey) {
+		Map<String, String> sortedHeaders = new TreeMap<String, String>();
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			sortedHeaders.put(entry.getKey().toLowerCase(), entry.getValue().trim());
+		}
+		StringBuilder canonical = new StringBuilder(256);
+		canonical.append(method).append('\n').append(path).append('\n');
+		// no query string
+		canonical.append('\n');
+		StringBuilder signedHeaders = new StringBuilder();
+		for (Map.Entry<String, String> entry : sortedHeaders.entrySet()) {
+			canonical.append(entry.getKey()).append(':').append(entry.getValue()).append('\n');
+			if (signedHeaders.length() > 0) {
+				signedHeaders.append(';');
+			}
+			signedHeaders.append(entry.getKey());
+		}
+		canonical.append('\n').append(signedHeaders).append('\n').append(payloadHash);
+
+		String date = amzDate.substring(0, 8);
+		String scope = date + "/" + region + "/" + service + "/aws4_request";
+		String stringToSign =
+				ALGORITHM + "\n" + amzDate + "\n" + scope + "\n" + sha256Hex(canonical.toString());
+		String signature = PutLogEventsEncoder.toHex(hmac(signingKey(date, secretKey), stringToSign));
+		return ALGORITHM + " Credential=" + accessKeyId + "/" + scope + ", SignedHeaders=" + signedHeaders
+				+ ", Signature=" + signature;
+	}
+
+	private byte[] signingKey(String date, String secretKey) {
+		if (!date.equals(cachedDate) || !secretKey.equals(cachedSecretKey)) {
+			byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), date);
+			key = hmac(key, region);
+			key = hmac(key, service);
+			cachedSigningKey = hmac(key, "aws4_request");
+			cachedDate = date;
+			cachedSecretKey = secretKey;
+		}
+		return cachedSigningKey;
+	}
+
+	private static byte[] hmac(byte[] key, String data) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("HmacSHA256 should always be available", e);
+		}
+	}
+
+	private static String sha256Hex(String data) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			return PutLogEventsEncoder.toHex(digest.digest(data.getBytes(StandardCharsets.UTF_8)));
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("SHA-256 should always be available", e);
+		}
+	}
+}
@@ -0,0 +1,564 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.AWSLogsClientBuilder;
+import com.amazonaws.services.logs.model.CreateLogGroupRequest;
+import com.amazonaws.services.logs.model.CreateLogStreamRequest;
+import com.amazonaws.services.logs.model.DataAlreadyAcceptedException;
+import com.amazonaws.services.logs.model.InvalidSequenceTokenException;
+
+/**
+ * Command-line tool which uploads log files, typically written by the emergency appender after CloudWatch couldn't be
+ * reached, to a log-group and log-stream. The files are read a line at a time and each line that starts with a
+ * timestamp starts a new event with the lines that don't, such as stack traces, added to it. The log-group and
+ * log-stream are created if they don't exist. The batches follow the PutLogEvents limits, including not spanning more
+ * than 24 hours, and are put concurrently. If a checkpoint file is given then the lines of each file that have been
+ * uploaded, including batches that finished while one before them hadn't, are recorded there after each batch so an
+ * interrupted backfill can be run again without sending the finished batches twice.
+ *
+ * <pre>
+ * java -cp ... com.j256.cloudwatchlogbackappender.BackfillTool --region us-east-1 --group app --stream backfill \
+ *     --checkpoint backfill.checkpoint emergency.log emergency.log.1
+ * </pre>
+ *
+ * @author graywatson
+ */
+public class BackfillTool {
+
+	public static final String DEFAULT_TIMESTAMP_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS";
+	public static final int DEFAULT_THREAD_COUNT = 8;
+	public static final int DEFAULT_RETRY_COUNT = 3;
+	public static final boolean DEFAULT_CREATE_LOG_DESTS = true;
+
+	private String region;
+	private String logGroupName;
+	private String logStreamName;
+	private String endpoint;
+	private String accessKeyId;
+	private String secretKey;
+	private String timestampPattern = DEFAULT_TIMESTAMP_PATTERN;
+	private int threadCount = DEFAULT_THREAD_COUNT;
+	private int maxBatchSize = PutLogEventsBatch.MAX_BATCH_EVENTS;
+	private int retryCount = DEFAULT_RETRY_COUNT;
+	private boolean createLogDests = DEFAULT_CREATE_LOG_DESTS;
+	private int maxEventMessageSize = CloudWatchAppender.DEFAULT_MAX_EVENT_MESSAGE_SIZE;
+	private File checkpointFile;
+
+	private final AtomicLong eventsWrittenCount = new AtomicLong();
+	private final Map<String, Long> checkpoints = new HashMap<String, Long>();
+	/** end line of the batches finished past each file's checkpoint by their start line */
+	private final Map<String, TreeMap<Long, Long>> finishedRanges = new HashMap<String, TreeMap<Long, Long>>();
+
+	public static void main(String[] args) {
+		BackfillTool tool = new BackfillTool();
+		List<File> files = new ArrayList<File>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (!arg.startsWith("--")) {
+					files.add(new File(arg));
+					continue;
+				}
+				if (i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				String value = args[++i];
+				switch (arg) {
+					case "--region":
+						tool.setRegion(value);
+						break;
+					case "--group":
+						tool.setLogGroup(value);
+						break;
+					case "--stream":
+						tool.setLogStream(value);
+						break;
+					case "--endpoint":
+						tool.setEndpoint(value);
+						break;
+					case "--access-key-id":
+						tool.setAccessKeyId(value);
+						break;
+					case "--secret-key":
+						tool.setSecretKey(value);
+						break;
+					case "--timestamp-pattern":
+						tool.setTimestampPattern(value);
+						break;
+					case "--threads":
+						tool.setThreadCount(Integer.parseInt(value));
+						break;
+					case "--batch-size":
+						tool.setMaxBatchSize(Integer.parseInt(value));
+						break;
+					case "--retries":
+						tool.setRetryCount(Integer.parseInt(value));
+						break;
+					case "--checkpoint":
+						tool.setCheckpointFile(new File(value));
+						break;
+					case "--create":
+						tool.setCreateLogDests(Boolean.parseBoolean(value));
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown argument: " + arg);
+				}
+			}
+			if (files.isEmpty()) {
+				throw new IllegalArgumentException("No log files specified");
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage: BackfillTool --region region --group log-group --stream log-stream "
+					+ "[--endpoint url] [--access-key-id id --secret-key key] [--timestamp-pattern pattern] "
+					+ "[--threads count] [--batch-size count] [--retries count] [--checkpoint file] "
+					+ "[--create true|false] file...");
+			System.exit(2);
+			return;
+		}
+		try {
+			System.exit(tool.backfill(files) ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println("BackfillTool: " + e);
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Upload the files in order.
+	 *
+	 * @return true if all of the events were uploaded otherwise false, in which case running it again with the same
+	 *         checkpoint file picks up where it left off.
+	 */
+	public boolean backfill(List<File> files) throws IOException {
+		if (MiscUtils.isBlank(region) || MiscUtils.isBlank(logGroupName) || MiscUtils.isBlank(logStreamName)) {
+			throw new IllegalStateException("Region, log group, and log stream must be set");
+		}
+		if (createLogDests && !createLogDests()) {
+			return false;
+		}
+		loadCheckpoints();
+		// the client retries throttling and server errors itself so that is the one retry layer
+		DirectLogsClient client = new DirectLogsClient(endpoint, region, buildCredentialProvider(), retryCount);
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		ThreadLocal<PutLogEventsEncoder> encoders = ThreadLocal.withInitial(PutLogEventsEncoder::new);
+		// bound the batches waiting for a thread so we don't read the whole file into memory
+		Semaphore permits = new Semaphore(threadCount * 2);
+		AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		try {
+			for (File file : files) {
+				if (failure.get() != null) {
+					break;
+				}
+				FileProgress progress = new FileProgress(file.getAbsolutePath());
+				readFile(file, progress, batch -> {
+					try {
+						permits.acquire();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						failure.compareAndSet(null, e);
+						return false;
+					}
+					executor.execute(() -> {
+						try {
+							if (failure.get() == null) {
+								putBatch(client, encoders.get(), batch);
+								progress.batchDone(batch);
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						} finally {
+							permits.release();
+						}
+					});
+					return failure.get() == null;
+				});
+			}
+		} finally {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			client.shutdown();
+		}
+		Exception exception = failure.get();
+		if (exception == null) {
+			System.err.println("BackfillTool: uploaded " + eventsWrittenCount.get() + " events");
+			return true;
+		} else {
+			System.err.println("BackfillTool: stopped after uploading " + eventsWrittenCount.get() + " events: "
+					+ exception);
+			return false;
+		}
+	}
+
+	public long getEventsWrittenCount() {
+		return eventsWrittenCount.get();
+	}
+
+	// required
+	public void setRegion(String region) {
+		this.region = region;
+	}
+
+	// required
+	public void setLogGroup(String logGroupName) {
+		this.logGroupName = logGroupName;
+	}
+
+	// required
+	public void setLogStream(String logStreamName) {
+		this.logStreamName = logStreamName;
+	}
+
+	// not-required, default is the standard CloudWatch Logs endpoint for the region
+	public void setEndpoint(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	// not-required, default is to use the DefaultAWSCredentialsProviderChain
+	public void setAccessKeyId(String accessKeyId) {
+		this.accessKeyId = accessKeyId;
+	}
+
+	// not-required, default is to use the DefaultAWSCredentialsProviderChain
+	public void setSecretKey(String secretKey) {
+		this.secretKey = secretKey;
+	}
+
+	// not-required, default is DEFAULT_TIMESTAMP_PATTERN which must match the start of each event's first line
+	public void setTimestampPattern(String timestampPattern) {
+		this.timestampPattern = timestampPattern;
+	}
+
+	// not-required, default is DEFAULT_THREAD_COUNT
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	// not-required, default is the PutLogEvents maximum of 10000
+	public void setMaxBatchSize(int maxBatchSize) {
+		this.maxBatchSize = Math.min(maxBatchSize, PutLogEventsBatch.MAX_BATCH_EVENTS);
+	}
+
+	// not-required, default is DEFAULT_RETRY_COUNT
+	public void setRetryCount(int retryCount) {
+		this.retryCount = retryCount;
+	}
+
+	// not-required, default is DEFAULT_CREATE_LOG_DESTS
+	public void setCreateLogDests(boolean createLogDests) {
+		this.createLogDests = createLogDests;
+	}
+
+	// not-required, default is none which means we don't checkpoint
+	public void setCheckpointFile(File checkpointFile) {
+		this.checkpointFile = checkpointFile;
+	}
+
+	/**
+	 * Read the events from the file, after its checkpoint and skipping those in batches that have already finished, and
+	 * hand the batches to the consumer.
+	 */
+	private void readFile(File file, FileProgress progress, BatchConsumer consumer) throws IOException {
+		DateTimeFormatter formatter = DateTimeFormatter.ofPattern(timestampPattern);
+		int timestampLength = formatter.format(LocalDateTime.now()).length();
+		ZoneId zone = ZoneId.systemDefault();
+		long lineNumber = 0;
+		long skipLines = progress.checkpointLine;
+		Batch batch = new Batch(skipLines + 1, maxBatchSize);
+		long eventTimestamp = file.lastModified();
+		long eventLine = 0;
+		StringBuilder eventMessage = null;
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			while (true) {
+				String line = reader.readLine();
+				if (line == null) {
+					break;
+				}
+				lineNumber++;
+				if (lineNumber <= skipLines) {
+					continue;
+				}
+				Long timestamp = parseTimestamp(line, formatter, timestampLength, zone);
+				if (timestamp == null && eventMessage != null) {
+					// stack-trace or other continuation line
+					eventMessage.append('\n').append(line);
+					continue;
+				}
+				if (eventMessage != null && !progress.isFinished(eventLine)) {
+					batch = addEvent(batch, eventTimestamp, eventMessage, lineNumber - 1, consumer);
+					if (batch == null) {
+						return;
+					}
+				}
+				if (timestamp != null) {
+					eventTimestamp = timestamp;
+				}
+				eventLine = lineNumber;
+				eventMessage = new StringBuilder(line);
+			}
+		}
+		if (eventMessage != null && !progress.isFinished(eventLine)) {
+			batch = addEvent(batch, eventTimestamp, eventMessage, lineNumber, consumer);
+		}
+		if (batch != null && !batch.timestamps.isEmpty()) {
+			consumer.accept(batch);
+		}
+	}
+
+	/**
+	 * Add the event to the batch, handing the batch off first if the event wouldn't fit in it.
+	 *
+	 * @return The batch to add the next event to or null if we should stop.
+	 */
+	private Batch addEvent(Batch batch, long timestamp, StringBuilder messageBuilder, long lastLine,
+			BatchConsumer consumer) {
+		// cut on a code-point so it is within the limit once encoded
+		messageBuilder.setLength(MiscUtils.utf8PrefixLength(messageBuilder, maxEventMessageSize));
+		String message = messageBuilder.toString();
+		int messageBytes = MiscUtils.utf8Length(message);
+		if (!batch.limits.add(timestamp, messageBytes, 1)) {
+			if (!consumer.accept(batch)) {
+				return null;
+			}
+			batch = new Batch(batch.endLine + 1, maxBatchSize);
+			batch.limits.add(timestamp, messageBytes, 1);
+		}
+		batch.add(timestamp, message, lastLine);
+		return batch;
+	}
+
+	private static Long parseTimestamp(String line, DateTimeFormatter formatter, int timestampLength, ZoneId zone) {
+		if (line.length() < timestampLength) {
+			return null;
+		}
+		try {
+			return LocalDateTime.parse(line.substring(0, timestampLength), formatter)
+					.atZone(zone)
+					.toInstant()
+					.toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private void putBatch(DirectLogsClient client, PutLogEventsEncoder encoder, Batch batch) {
+		// events must be in sorted order according to AWS otherwise an exception is thrown
+		List<Integer> order = new ArrayList<Integer>(batch.timestamps.size());
+		for (int i = 0; i < batch.timestamps.size(); i++) {
+			order.add(i);
+		}
+		order.sort(Comparator.comparingLong(batch.timestamps::get));
+		encoder.start(logGroupName, logStreamName);
+		for (int index : order) {
+			encoder.addEvent(batch.timestamps.get(index), batch.messages.get(index));
+		}
+		String sequenceToken = null;
+		for (int attempt = 0;; attempt++) {
+			encoder.finish(sequenceToken);
+			try {
+				client.putLogEvents(encoder);
+				break;
+			} catch (DataAlreadyAcceptedException daae) {
+				// went through on an earlier attempt
+				break;
+			} catch (InvalidSequenceTokenException iste) {
+				// the client doesn't retry this one because the request has to change
+				if (attempt >= retryCount) {
+					throw iste;
+				}
+				sequenceToken = iste.getExpectedSequenceToken();
+			}
+		}
+		eventsWrittenCount.addAndGet(batch.timestamps.size());
+	}
+
+	/**
+	 * Create the log group and stream, if they don't already exist, the same way as the appender.
+	 *
+	 * @return false if they couldn't be created.
+	 */
+	private boolean createLogDests() {
+		AWSLogsClientBuilder builder = AWSLogsClientBuilder.standard().withCredentials(buildCredentialProvider());
+		if (MiscUtils.isBlank(endpoint)) {
+			builder.withRegion(region);
+		} else {
+			builder.withEndpointConfiguration(new EndpointConfiguration(endpoint, region));
+		}
+		AWSLogs client = builder.build();
+		try {
+			CloudWatchAppender.createLogDest(client, "createLogGroup", new CreateLogGroupRequest(logGroupName));
+			CloudWatchAppender.createLogDest(client, "createLogStream",
+					new CreateLogStreamRequest(logGroupName, logStreamName));
+			return true;
+		} catch (Exception e) {
+			System.err.println("BackfillTool: problems creating log group " + logGroupName + " and stream "
+					+ logStreamName + ": " + e);
+			return false;
+		} finally {
+			client.shutdown();
+		}
+	}
+
+	private AWSCredentialsProvider buildCredentialProvider() {
+		if (MiscUtils.isBlank(accessKeyId)) {
+			return DefaultAWSCredentialsProviderChain.getInstance();
+		} else {
+			return new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKeyId, secretKey));
+		}
+	}
+
+	/**
+	 * Each line of the checkpoint file is either "line\tpath", the line of the file that everything up to has been
+	 * uploaded, or "start-end\tpath", a range of lines past that which was uploaded in a batch that finished first.
+	 */
+	private void loadCheckpoints() throws IOException {
+		checkpoints.clear();
+		finishedRanges.clear();
+		if (checkpointFile == null || !checkpointFile.exists()) {
+			return;
+		}
+		for (String line : Files.readAllLines(checkpointFile.toPath(), StandardCharsets.UTF_8)) {
+			int index = line.indexOf('\t');
+			if (index <= 0) {
+				continue;
+			}
+			String path = line.substring(index + 1);
+			String lines = line.substring(0, index);
+			int dashIndex = lines.indexOf('-');
+			if (dashIndex < 0) {
+				checkpoints.put(path, Long.parseLong(lines));
+			} else {
+				finishedRanges.computeIfAbsent(path, p -> new TreeMap<Long, Long>())
+						.put(Long.parseLong(lines.substring(0, dashIndex)),
+								Long.parseLong(lines.substring(dashIndex + 1)));
+			}
+		}
+	}
+
+	private synchronized void writeCheckpoint(String path, long line, TreeMap<Long, Long> ranges) throws IOException {
+		checkpoints.put(path, line);
+		finishedRanges.put(path, new TreeMap<Long, Long>(ranges));
+		if (checkpointFile == null) {
+			return;
+		}
+		List<String> lines = new ArrayList<String>(checkpoints.size());
+		for (Map.Entry<String, Long> entry : checkpoints.entrySet()) {
+			lines.add(entry.getValue() + "\t" + entry.getKey());
+			TreeMap<Long, Long> pathRanges = finishedRanges.get(entry.getKey());
+			if (pathRanges != null) {
+				for (Map.Entry<Long, Long> range : pathRanges.entrySet()) {
+					lines.add(range.getKey() + "-" + range.getValue() + "\t" + entry.getKey());
+				}
+			}
+		}
+		Path checkpointPath = checkpointFile.toPath();
+		Path tempPath = checkpointPath.resolveSibling(checkpointPath.getFileName() + ".tmp");
+		Files.write(tempPath, lines, StandardCharsets.UTF_8);
+		Files.move(tempPath, checkpointPath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Events from a range of lines in a file.
+	 */
+	private static class Batch {
+		final long startLine;
+		long endLine;
+		final List<Long> timestamps = new ArrayList<Long>();
+		final List<String> messages = new ArrayList<String>();
+		final PutLogEventsBatch limits;
+
+		public Batch(long startLine, int maxBatchSize) {
+			this.startLine = startLine;
+			this.endLine = startLine - 1;
+			this.limits = new PutLogEventsBatch(maxBatchSize);
+		}
+
+		/**
+		 * Add the event which has already been counted in the limits.
+		 */
+		void add(long timestamp, String message, long lastLine) {
+			timestamps.add(timestamp);
+			messages.add(message);
+			endLine = lastLine;
+		}
+	}
+
+	/**
+	 * Tracks which batches of a file have been uploaded. The batches finish out of order so the checkpoint only moves
+	 * past a batch once all of the ones before it are done and the ones that finished early are recorded as ranges.
+	 */
+	private class FileProgress {
+		final String path;
+		long checkpointLine;
+		/** end line of the finished batches past the checkpoint by their start line */
+		final TreeMap<Long, Long> finishedBatches;
+
+		public FileProgress(String path) {
+			this.path = path;
+			Long line = checkpoints.get(path);
+			this.checkpointLine = (line == null ? 0 : line);
+			TreeMap<Long, Long> ranges = finishedRanges.get(path);
+			this.finishedBatches = (ranges == null ? new TreeMap<Long, Long>() : new TreeMap<Long, Long>(ranges));
+		}
+
+		/**
+		 * @return true if the event starting on the line was uploaded in a batch that finished in an earlier run.
+		 */
+		synchronized boolean isFinished(long line) {
+			Map.Entry<Long, Long> range = finishedBatches.floorEntry(line);
+			return (range != null && range.getValue() >= line);
+		}
+
+		synchronized void batchDone(Batch batch) throws IOException {
+			// a batch can start at the same line as a range from an earlier run if it skipped the events in it
+			finishedBatches.merge(batch.startLine, batch.endLine, Math::max);
+			while (!finishedBatches.isEmpty() && finishedBatches.firstKey() <= checkpointLine + 1) {
+				checkpointLine = Math.max(checkpointLine, finishedBatches.pollFirstEntry().getValue());
+			}
+			writeCheckpoint(path, checkpointLine, finishedBatches);
+		}
+	}
+
+	/**
+	 * Takes the batches as they fill up.
+	 */
+	private interface BatchConsumer {
+		/**
+		 * @return false if we should stop reading.
+		 */
+		boolean accept(Batch batch);
+	}
+}
@@ -1,20 +1,42 @@
 package com.j256.cloudwatchlogbackappender;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
 import com.amazonaws.AmazonServiceException;
 import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.ClientConfiguration;
 import com.amazonaws.SDKGlobalConfiguration;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
 import com.amazonaws.services.ec2.AmazonEC2;
 import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.DescribeTagsRequest;
@@ -36,6 +58,8 @@ import com.amazonaws.services.logs.model.LogGroup;
 import com.amazonaws.services.logs.model.LogStream;
 import com.amazonaws.services.logs.model.PutLogEventsRequest;
 import com.amazonaws.services.logs.model.PutLogEventsResult;
+import com.amazonaws.services.logs.model.ResourceAlreadyExistsException;
+import com.amazonaws.services.logs.model.ResourceNotFoundException;
 import com.amazonaws.util.EC2MetadataUtils;
 
 import ch.qos.logback.classic.Level;
@@ -47,6 +71,7 @@ import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.FilterReply;
 import org.slf4j.Marker;
 
 /**
@@ -65,21 +90,72 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 	private static final int DEFAULT_INTERNAL_QUEUE_SIZE = 8192;
 	/** create log destination group and stream when we startup */
 	private static final boolean DEFAULT_CREATE_LOG_DESTS = true;
+	/** create log destination group and stream without describing them first */
+	private static final boolean DEFAULT_OPTIMISTIC_LOG_DESTS = false;
 	/** max time to wait in millis before dropping a log event on the floor */
 	private static final long DEFAULT_MAX_QUEUE_WAIT_TIME_MILLIS = 100;
 	/** time to wait to initialize which helps when application is starting up */
 	private static final long DEFAULT_INITIAL_WAIT_TIME_MILLIS = 0;
+	/** max time to wait in millis for each of the client, log-group, and log-stream initialization steps */
+	private static final long DEFAULT_INIT_STEP_TIMEOUT_MILLIS = 10000;
+	/** max time to wait in millis for the EC2 instance-name lookup which can be slow when not on EC2 */
+	private static final long DEFAULT_INSTANCE_LOOKUP_TIMEOUT_MILLIS = 2000;
+	/** post the put-log-events requests ourselves instead of through the SDK client */
+	private static final boolean DEFAULT_DIRECT_PUT_LOG_EVENTS = false;
+	/** share the logs client with the other appenders that have the same region and credentials */
+	private static final boolean DEFAULT_SHARE_LOGS_CLIENT = true;
+	/** max number of http connections in the logs client pool */
+	private static final int DEFAULT_MAX_CLIENT_CONNECTIONS = ClientConfiguration.DEFAULT_MAX_CONNECTIONS;
+	/** write from the pool shared by all appenders instead of having our own writer thread */
+	private static final boolean DEFAULT_SHARED_WRITER = false;
+	/** run the writer and initialization on virtual threads if the JVM has them */
+	private static final boolean DEFAULT_VIRTUAL_THREADS = false;
+	/** render the log-stream name from each event instead of once at startup */
+	private static final boolean DEFAULT_DYNAMIC_LOG_STREAMS = false;
+	/** max number of dynamic log-streams that we keep batches and sequence-tokens for */
+	private static final int DEFAULT_MAX_ACTIVE_LOG_STREAMS = 1000;
+	/** time in millis after which a dynamic log-stream with no events is dropped */
+	private static final long DEFAULT_LOG_STREAM_IDLE_MILLIS = 5 * 60 * 1000;
+	/** max number of new dynamic log-streams that we create per minute, 0 for no limit */
+	private static final int DEFAULT_MAX_LOG_STREAM_CREATES_PER_MINUTE = 100;
+	/** re-render log-stream names with date tokens so they roll over */
+	private static final boolean DEFAULT_ROLL_LOG_STREAMS = false;
+	/** how far ahead in millis to look for the next log-stream name and pre-create it */
+	private static final long DEFAULT_LOG_STREAM_ROLL_LEAD_MILLIS = 60 * 1000;
+	/** max time in millis that stop waits for the queued events to be written */
+	private static final long DEFAULT_STOP_TIMEOUT_MILLIS = 1000;
 	/** how many times to retry a cloudwatch request */
 	private static final int PUT_REQUEST_RETRY_COUNT = 2;
+	/** split events that are too big into chunks instead of truncating them */
+	private static final boolean DEFAULT_CHUNK_EVENT_MESSAGES = false;
+	/** max number of chunks an event is split into, also limited to what fits in one request */
+	private static final int DEFAULT_MAX_EVENT_CHUNKS = 16;
+	/** the id, part, and count are filled into this at the start of each chunk */
+	private static final String CHUNK_HEADER_PREFIX = "[chunk ";
+	private static final int CHUNK_ID_LENGTH = 8;
+	/** number of repeats of the same logger, level, and message let through per window, 0 to not suppress any */
+	private static final int DEFAULT_MAX_REPEATS_PER_WINDOW = 0;
+	/** length in millis of the window that the repeats are counted in */
+	private static final long DEFAULT_REPEAT_WINDOW_MILLIS = 10000;
+	/** number of slots that the repeated templates are counted in */
+	private static final int REPEAT_TEMPLATE_SLOTS = 4096;
+	private static final Thread[] NO_THREADS = new Thread[0];
 	/** property looked for to find the aws access-key-id */
 	public static final String AWS_ACCESS_KEY_ID_PROPERTY = "cloudwatchappender.aws.accessKeyId";
 	/** property looked for to find the aws secret-key */
 	public static final String AWS_SECRET_KEY_PROPERTY = "cloudwatchappender.aws.secretKey";
-	public static final int DEFAULT_MAX_EVENT_MESSAGE_SIZE = 256 * 1024;
+	/** cloudwatch's limit on the UTF-8 bytes of an event less its overhead */
+	public static final int DEFAULT_MAX_EVENT_MESSAGE_SIZE = 256 * 1024 - PutLogEventsBatch.EVENT_OVERHEAD_BYTES;
 	public static final boolean DEFAULT_TRUNCATE_EVENT_MESSAGES = true;
+	public static final String DEFAULT_TRUNCATION_MARKER = "";
 	public static final boolean DEFAULT_COPY_EVENTS = true;
 	public static final boolean DEFAULT_PRINT_REJECTED_EVENTS = false;
 	public static final Pattern LOG_GROUP_PATTERN = Pattern.compile("[\\.\\-_/#A-Za-z0-9]+");
+	/** matches the Ec2PatternLayout tokens which need the instance lookup to have finished */
+	private static final Pattern INSTANCE_TOKEN_PATTERN =
+			Pattern.compile("%[-.0-9]*(in|instance|instanceName|iid|instanceId)(?![A-Za-z])");
+	/** matches the date tokens which make a log-stream name change over time */
+	private static final Pattern DATE_TOKEN_PATTERN = Pattern.compile("%[-.0-9]*(d|date)(?![A-Za-z])");
 
 	private String accessKeyId;
 	private String secretKey;
@@ -93,22 +169,60 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 	private long maxQueueWaitTimeMillis = DEFAULT_MAX_QUEUE_WAIT_TIME_MILLIS;
 	private int internalQueueSize = DEFAULT_INTERNAL_QUEUE_SIZE;
 	private boolean createLogDests = DEFAULT_CREATE_LOG_DESTS;
+	private boolean optimisticLogDests = DEFAULT_OPTIMISTIC_LOG_DESTS;
+	private String destinationCacheFile;
+	private boolean directPutLogEvents = DEFAULT_DIRECT_PUT_LOG_EVENTS;
+	private String endpoint;
+	private boolean shareLogsClient = DEFAULT_SHARE_LOGS_CLIENT;
+	private int maxClientConnections = DEFAULT_MAX_CLIENT_CONNECTIONS;
+	private boolean sharedWriter = DEFAULT_SHARED_WRITER;
+	private boolean virtualThreads = DEFAULT_VIRTUAL_THREADS;
+	private boolean dynamicLogStreams = DEFAULT_DYNAMIC_LOG_STREAMS;
+	private int maxActiveLogStreams = DEFAULT_MAX_ACTIVE_LOG_STREAMS;
+	private long logStreamIdleMillis = DEFAULT_LOG_STREAM_IDLE_MILLIS;
+	private int maxLogStreamCreatesPerMinute = DEFAULT_MAX_LOG_STREAM_CREATES_PER_MINUTE;
+	private boolean rollLogStreams = DEFAULT_ROLL_LOG_STREAMS;
+	private long logStreamRollLeadMillis = DEFAULT_LOG_STREAM_ROLL_LEAD_MILLIS;
+	private long stopTimeoutMillis = DEFAULT_STOP_TIMEOUT_MILLIS;
 	private long initialWaitTimeMillis = DEFAULT_INITIAL_WAIT_TIME_MILLIS;
+	private long initStepTimeoutMillis = DEFAULT_INIT_STEP_TIMEOUT_MILLIS;
+	private long instanceLookupTimeoutMillis = DEFAULT_INSTANCE_LOOKUP_TIMEOUT_MILLIS;
 	private int maxEventMessageSize = DEFAULT_MAX_EVENT_MESSAGE_SIZE;
 	private boolean truncateEventMessages = DEFAULT_TRUNCATE_EVENT_MESSAGES;
+	private String truncationMarker = DEFAULT_TRUNCATION_MARKER;
+	private boolean chunkEventMessages = DEFAULT_CHUNK_EVENT_MESSAGES;
+	private int maxEventChunks = DEFAULT_MAX_EVENT_CHUNKS;
+	private int maxRepeatsPerWindow = DEFAULT_MAX_REPEATS_PER_WINDOW;
+	private long repeatWindowMillis = DEFAULT_REPEAT_WINDOW_MILLIS;
 	private boolean copyEvents = DEFAULT_COPY_EVENTS;
 	private boolean printRejectedEvents = DEFAULT_PRINT_REJECTED_EVENTS;
+	private final List<LogRoute> routes = new ArrayList<LogRoute>();
+	private final List<LogLimit> limits = new ArrayList<LogLimit>();
 
 	private AWSLogs awsLogsClient;
+	/** set if we post the events ourselves instead of with the SDK client */
+	private DirectLogsClient directLogsClient;
+	private DestinationCache destinationCache;
+	private RepeatSuppressor repeatSuppressor;
+	private LogLimiter logLimiter;
+	/** fields of the events that we copy, set when started */
+	private EventFields copiedFields;
 	private AWSLogs testAwsLogsClient;
 	private AmazonEC2 testAmazonEc2Client;
-	private volatile long eventsWrittenCount;
+	private final AtomicLong eventsWrittenCount = new AtomicLong();
 
 	private BlockingQueue<ILoggingEvent> loggingEventQueue;
+	/** one for each event that can be queued, chunks of events take one slot in the queue but a permit per event */
+	private Semaphore queuePermits;
 	private Thread cloudWatchWriterThread;
-	private final ThreadLocal<Boolean> stopMessagesThreadLocal = new ThreadLocal<Boolean>();
+	private SharedWriterTask sharedWriterTask;
+	/** threads that write or initialize for us, any events that they log would go recursive */
+	private volatile Thread[] writerThreads = NO_THREADS;
 	private volatile boolean warningMessagePrinted;
-	private final InputLogEventComparator inputLogEventComparator = new InputLogEventComparator();
+	private volatile boolean virtualThreadsWarningPrinted;
+	private final AtomicInteger pendingFlushCount = new AtomicInteger();
+	private final Comparator<ILoggingEvent> eventTimestampComparator =
+			Comparator.comparingLong(ILoggingEvent::getTimeStamp);
 
 	public CloudWatchAppender() {
 		// for spring
@@ -142,13 +256,42 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		if (layout == null) {
 			throw new IllegalStateException("Layout was not set for appender");
 		}
+		for (LogRoute route : routes) {
+			if (!MiscUtils.isBlank(route.getLogGroup()) && !LOG_GROUP_PATTERN.matcher(route.getLogGroup()).matches()) {
+				throw new IllegalStateException("Route log group name does not match AWS acceptance pattern '"
+						+ LOG_GROUP_PATTERN + "': " + route.getLogGroup());
+			}
+		}
 
+		copiedFields = findCopiedFields();
 		loggingEventQueue = new ArrayBlockingQueue<ILoggingEvent>(internalQueueSize);
+		queuePermits = new Semaphore(internalQueueSize);
+		if (!limits.isEmpty()) {
+			logLimiter = new LogLimiter(limits);
+		}
+		if (maxRepeatsPerWindow > 0) {
+			repeatSuppressor = new RepeatSuppressor(maxRepeatsPerWindow, repeatWindowMillis, REPEAT_TEMPLATE_SLOTS);
+		}
+
+		if (!MiscUtils.isBlank(destinationCacheFile)) {
+			destinationCache = new DestinationCache(destinationCacheFile);
+			try {
+				destinationCache.load();
+			} catch (IOException e) {
+				addWarn("Could not load destination cache file, starting empty: " + destinationCacheFile, e);
+			}
+		}
 
-		// create our writer thread in the background
-		cloudWatchWriterThread = new Thread(new CloudWatchWriter(), getClass().getSimpleName());
-		cloudWatchWriterThread.setDaemon(true);
-		cloudWatchWriterThread.start();
+		if (sharedWriter) {
+			// our events are written by the pool shared with the other appenders
+			sharedWriterTask = new SharedWriterTask(new CloudWatchWriter(false), SharedWriterScheduler.acquire());
+			sharedWriterTask.start();
+		} else {
+			// create our writer thread in the background
+			cloudWatchWriterThread = newThread(new CloudWatchWriter(virtualThreads), getClass().getSimpleName());
+			writerThreads = new Thread[] { cloudWatchWriterThread };
+			cloudWatchWriterThread.start();
+		}
 
 		if (emergencyAppender != null && !emergencyAppender.isStarted()) {
 			emergencyAppender.start();
@@ -162,16 +305,37 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 			return;
 		}
 
-		cloudWatchWriterThread.interrupt();
-		try {
-			cloudWatchWriterThread.join(1000);
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
+		if (sharedWriterTask == null) {
+			long stopTimeMillis = System.currentTimeMillis() + stopTimeoutMillis;
+			try {
+				// flushing first lets an in-flight put finish instead of being interrupted
+				flush().get(stopTimeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException | TimeoutException e) {
+				// the writer will do what it can with the rest when interrupted
+			}
+			cloudWatchWriterThread.interrupt();
+			try {
+				cloudWatchWriterThread.join(Math.max(1, stopTimeMillis - System.currentTimeMillis()));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			sharedWriterTask.stop(stopTimeoutMillis);
+			sharedWriterTask = null;
 		}
 		if (awsLogsClient != null) {
-			awsLogsClient.shutdown();
+			releaseLogsClient(awsLogsClient);
 			awsLogsClient = null;
 		}
+		if (directLogsClient != null) {
+			directLogsClient.shutdown();
+			directLogsClient = null;
+		}
+		repeatSuppressor = null;
+		logLimiter = null;
+		copiedFields = null;
 
 		super.stop();
 	}
@@ -189,21 +353,36 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		}
 
 		// skip it if we just went recursive
-		Boolean stopped = stopMessagesThreadLocal.get();
-		if (stopped != null && stopped) {
+		if (isWriterThread()) {
+			return;
+		}
+
+		// limits are checked before we do any work on the event
+		LogLimiter limiter = logLimiter;
+		if (limiter != null && !limiter.allow(loggingEvent)) {
 			return;
 		}
 
+		RepeatSuppressor suppressor = repeatSuppressor;
+		if (suppressor != null) {
+			long suppressedCount = suppressor.check(loggingEvent);
+			if (suppressedCount == RepeatSuppressor.SUPPRESS) {
+				return;
+			} else if (suppressedCount > 0) {
+				queueEvent(RepeatSuppressor.summaryEvent(loggingEvent, suppressedCount));
+			}
+		}
+
 		String message = loggingEvent.getMessage();
 		boolean copied = false;
-		if (message != null && message.length() > maxEventMessageSize) {
-			if (!truncateEventMessages) {
+		if (message != null && message.length() > maxMessageChars()) {
+			if (!truncateEventMessages && !chunkEventMessages) {
 				// if the message us too big and we can't truncate it then just write it to the emergency appender
 				appendToEmergencyAppender(loggingEvent);
 				return;
 			}
 			// we copy all of the fields over but with the truncated message
-			loggingEvent = copyEvent(loggingEvent, message.substring(0, maxEventMessageSize));
+			loggingEvent = copyEvent(loggingEvent, truncateMessage(message));
 			copied = true;
 		}
 		/*
@@ -218,14 +397,7 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 			}
 		}
 
-		try {
-			if (!loggingEventQueue.offer(loggingEvent, maxQueueWaitTimeMillis, TimeUnit.MILLISECONDS)) {
-				appendToEmergencyAppender(loggingEvent);
-			}
-		} catch (InterruptedException e) {
-			Thread.currentThread().interrupt();
-			appendToEmergencyAppender(loggingEvent);
-		}
+		queueEvent(loggingEvent);
 	}
 
 	// not-required, default is to use the DefaultAWSCredentialsProviderChain
@@ -258,6 +430,107 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		this.layout = layout;
 	}
 
+	/**
+	 * Write all of the events that were appended before this call without waiting for the batch timeout.
+	 * 
+	 * @return Future that completes once the events have been written. It completes exceptionally if some of the
+	 *         events couldn't be written to CloudWatch and went to the emergency appender instead, if the appender is
+	 *         not started, or if the internal queue stayed full.
+	 */
+	public CompletableFuture<Void> flush() {
+		FlushMarker marker = new FlushMarker();
+		if (!started || loggingEventQueue == null) {
+			marker.future.completeExceptionally(new IllegalStateException("Appender is not started"));
+			return marker.future;
+		}
+		pendingFlushCount.incrementAndGet();
+		marker.future.whenComplete((result, th) -> pendingFlushCount.decrementAndGet());
+		try {
+			if (!loggingEventQueue.offer(marker, maxQueueWaitTimeMillis, TimeUnit.MILLISECONDS)) {
+				marker.future.completeExceptionally(new IllegalStateException("Internal queue is full"));
+				return marker.future;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			marker.future.completeExceptionally(e);
+			return marker.future;
+		}
+		SharedWriterTask task = sharedWriterTask;
+		if (task != null) {
+			task.writeSoon();
+		}
+		return marker.future;
+	}
+
+	/**
+	 * Append a collection of events in bulk, for example from a log bridge or a replay. The events go through the
+	 * appender's filters, limits, and repeat suppression and are put in the queue in chunks of up to maxBatchSize
+	 * which each take one slot in the internal queue but count each of their events against its size. Unlike the
+	 * regular append the events are not copied so they must not be changed after this call. Use
+	 * {@link PreRenderedEvent} for lines that have already been formatted.
+	 * 
+	 * @return The number of events that were queued. The rest went to the emergency appender.
+	 */
+	public int appendAll(Collection<? extends ILoggingEvent> events) {
+		if (!isStarted() || loggingEventQueue == null) {
+			return 0;
+		}
+		// skip them if we just went recursive
+		if (isWriterThread()) {
+			return 0;
+		}
+		LogLimiter limiter = logLimiter;
+		RepeatSuppressor suppressor = repeatSuppressor;
+		// a chunk can't hold more events than the queue
+		int chunkSize = Math.min(maxBatchSize, internalQueueSize);
+		int queuedCount = 0;
+		List<ILoggingEvent> chunk = new ArrayList<ILoggingEvent>(Math.min(events.size(), chunkSize));
+		for (ILoggingEvent event : events) {
+			if (getFilterChainDecision(event) == FilterReply.DENY) {
+				continue;
+			}
+			if (limiter != null && !limiter.allow(event)) {
+				continue;
+			}
+			if (suppressor != null) {
+				long suppressedCount = suppressor.check(event);
+				if (suppressedCount == RepeatSuppressor.SUPPRESS) {
+					continue;
+				} else if (suppressedCount > 0) {
+					queueEvent(RepeatSuppressor.summaryEvent(event, suppressedCount));
+				}
+			}
+			String message = event.getMessage();
+			boolean copied = false;
+			if (message != null && message.length() > maxMessageChars()) {
+				if (!truncateEventMessages && !chunkEventMessages) {
+					appendToEmergencyAppender(event);
+					continue;
+				}
+				if (event instanceof PreRenderedEvent) {
+					event = new PreRenderedEvent(event.getLoggerName(), event.getLevel(), event.getTimeStamp(),
+							truncateMessage(message));
+				} else {
+					event = copyEvent(event, truncateMessage(message));
+					copied = true;
+				}
+			}
+			if (!copied) {
+				// the thread-name and MDC have to be taken now and not later in the writer thread
+				event.prepareForDeferredProcessing();
+			}
+			chunk.add(event);
+			if (chunk.size() >= chunkSize) {
+				queuedCount += queueChunk(chunk);
+				chunk = new ArrayList<ILoggingEvent>(chunkSize);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			queuedCount += queueChunk(chunk);
+		}
+		return queuedCount;
+	}
+
 	// not-required, default is DEFAULT_MAX_BATCH_SIZE
 	public void setMaxBatchSize(int maxBatchSize) {
 		this.maxBatchSize = maxBatchSize;
@@ -283,11 +556,118 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		this.createLogDests = createLogDests;
 	}
 
+	// not-required, default is DEFAULT_OPTIMISTIC_LOG_DESTS
+	public void setOptimisticLogDests(boolean optimisticLogDests) {
+		this.optimisticLogDests = optimisticLogDests;
+	}
+
+	// not-required, default is none which means that we don't remember destinations across restarts
+	public void setDestinationCacheFile(String destinationCacheFile) {
+		this.destinationCacheFile = destinationCacheFile;
+	}
+
+	// not-required, default is DEFAULT_DIRECT_PUT_LOG_EVENTS
+	public void setDirectPutLogEvents(boolean directPutLogEvents) {
+		this.directPutLogEvents = directPutLogEvents;
+	}
+
+	// not-required, default is the standard CloudWatch Logs endpoint for the region
+	public void setEndpoint(String endpoint) {
+		this.endpoint = endpoint;
+	}
+
+	// not-required, default is DEFAULT_SHARE_LOGS_CLIENT
+	public void setShareLogsClient(boolean shareLogsClient) {
+		this.shareLogsClient = shareLogsClient;
+	}
+
+	// not-required, default is DEFAULT_MAX_CLIENT_CONNECTIONS
+	public void setMaxClientConnections(int maxClientConnections) {
+		this.maxClientConnections = maxClientConnections;
+	}
+
+	// not-required, default is DEFAULT_SHARED_WRITER
+	public void setSharedWriter(boolean sharedWriter) {
+		this.sharedWriter = sharedWriter;
+	}
+
+	// not-required, default is SharedWriterScheduler.DEFAULT_THREAD_COUNT and only the first appender to start counts
+	public void setSharedWriterThreads(int sharedWriterThreads) {
+		SharedWriterScheduler.setThreadCount(sharedWriterThreads);
+	}
+
+	// not-required, default is DEFAULT_VIRTUAL_THREADS
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	// not-required, default is DEFAULT_DYNAMIC_LOG_STREAMS
+	public void setDynamicLogStreams(boolean dynamicLogStreams) {
+		this.dynamicLogStreams = dynamicLogStreams;
+	}
+
+	// not-required, default is DEFAULT_MAX_ACTIVE_LOG_STREAMS
+	public void setMaxActiveLogStreams(int maxActiveLogStreams) {
+		this.maxActiveLogStreams = maxActiveLogStreams;
+	}
+
+	// not-required, default is DEFAULT_LOG_STREAM_IDLE_MILLIS
+	public void setLogStreamIdleMillis(long logStreamIdleMillis) {
+		this.logStreamIdleMillis = logStreamIdleMillis;
+	}
+
+	// not-required, default is DEFAULT_MAX_LOG_STREAM_CREATES_PER_MINUTE
+	public void setMaxLogStreamCreatesPerMinute(int maxLogStreamCreatesPerMinute) {
+		this.maxLogStreamCreatesPerMinute = maxLogStreamCreatesPerMinute;
+	}
+
+	// not-required, default is DEFAULT_ROLL_LOG_STREAMS
+	public void setRollLogStreams(boolean rollLogStreams) {
+		this.rollLogStreams = rollLogStreams;
+	}
+
+	// not-required, default is DEFAULT_LOG_STREAM_ROLL_LEAD_MILLIS
+	public void setLogStreamRollLeadMillis(long logStreamRollLeadMillis) {
+		this.logStreamRollLeadMillis = logStreamRollLeadMillis;
+	}
+
+	// not-required, default is DEFAULT_STOP_TIMEOUT_MILLIS
+	public void setStopTimeoutMillis(long stopTimeoutMillis) {
+		this.stopTimeoutMillis = stopTimeoutMillis;
+	}
+
 	// not-required, default is 0
 	public void setInitialWaitTimeMillis(long initialWaitTimeMillis) {
 		this.initialWaitTimeMillis = initialWaitTimeMillis;
 	}
 
+	// not-required, default is DEFAULT_INIT_STEP_TIMEOUT_MILLIS
+	public void setInitStepTimeoutMillis(long initStepTimeoutMillis) {
+		this.initStepTimeoutMillis = initStepTimeoutMillis;
+	}
+
+	// not-required, default is DEFAULT_INSTANCE_LOOKUP_TIMEOUT_MILLIS
+	public void setInstanceLookupTimeoutMillis(long instanceLookupTimeoutMillis) {
+		this.instanceLookupTimeoutMillis = instanceLookupTimeoutMillis;
+	}
+
+	// not-required, routes events to other log-groups or log-streams, may be called multiple times
+	public void addRoute(LogRoute route) {
+		routes.add(route);
+	}
+
+	// not-required, rate limits or samples the events of a logger, may be called multiple times
+	public void addLimit(LogLimit limit) {
+		limits.add(limit);
+	}
+
+	/**
+	 * Returns the limits that were added so their dropped counts can be monitored.
+	 */
+	public List<LogLimit> getLimits() {
+		return Collections.unmodifiableList(limits);
+	}
+
 	// not required, for testing purposes
 	void setAwsLogsClient(AWSLogs awsLogsClient) {
 		this.awsLogsClient = awsLogsClient;
@@ -303,6 +683,7 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		this.testAmazonEc2Client = testAmazonEc2Client;
 	}
 
+	// not required, default is DEFAULT_MAX_EVENT_MESSAGE_SIZE UTF-8 bytes of the laid out event
 	public void setMaxEventMessageSize(int maxEventMessageSize) {
 		this.maxEventMessageSize = maxEventMessageSize;
 	}
@@ -312,6 +693,31 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		this.truncateEventMessages = truncateEventMessages;
 	}
 
+	// not required, default is DEFAULT_TRUNCATION_MARKER
+	public void setTruncationMarker(String truncationMarker) {
+		this.truncationMarker = (truncationMarker == null ? "" : truncationMarker);
+	}
+
+	// not required, default is DEFAULT_CHUNK_EVENT_MESSAGES
+	public void setChunkEventMessages(boolean chunkEventMessages) {
+		this.chunkEventMessages = chunkEventMessages;
+	}
+
+	// not required, default is DEFAULT_MAX_EVENT_CHUNKS
+	public void setMaxEventChunks(int maxEventChunks) {
+		this.maxEventChunks = maxEventChunks;
+	}
+
+	// not required, default is DEFAULT_MAX_REPEATS_PER_WINDOW
+	public void setMaxRepeatsPerWindow(int maxRepeatsPerWindow) {
+		this.maxRepeatsPerWindow = maxRepeatsPerWindow;
+	}
+
+	// not required, default is DEFAULT_REPEAT_WINDOW_MILLIS
+	public void setRepeatWindowMillis(long repeatWindowMillis) {
+		this.repeatWindowMillis = repeatWindowMillis;
+	}
+
 	// not required, default is true
 	public void setCopyEvents(boolean copyEvents) {
 		this.copyEvents = copyEvents;
@@ -337,7 +743,7 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 
 	// for testing purposes
 	long getEventsWrittenCount() {
-		return eventsWrittenCount;
+		return eventsWrittenCount.get();
 	}
 
 	// for testing purposes
@@ -403,38 +809,184 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 	}
 
 	/**
-	 * Copy the event fields possible replacing the message if not null.
+	 * Returns true if we are running on one of the threads that write or initialize for us or on one of the shared
+	 * writer threads. Anything they log comes from our own calls so we drop it instead of going recursive. This is
+	 * checked on every append so it is an identity check instead of a thread-local lookup.
+	 */
+	private boolean isWriterThread() {
+		Thread current = Thread.currentThread();
+		if (current instanceof SharedWriterScheduler.WriterThread) {
+			return true;
+		}
+		for (Thread thread : writerThreads) {
+			if (thread == current) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private synchronized void addWriterThread(Thread thread) {
+		Thread[] threads = Arrays.copyOf(writerThreads, writerThreads.length + 1);
+		threads[writerThreads.length] = thread;
+		writerThreads = threads;
+	}
+
+	private synchronized void removeWriterThread(Thread thread) {
+		List<Thread> threads = new ArrayList<Thread>(Arrays.asList(writerThreads));
+		if (threads.remove(thread)) {
+			writerThreads = threads.toArray(NO_THREADS);
+		}
+	}
+
+	/**
+	 * Put the event in the queue or write it to the emergency appender if the queue stays full.
+	 */
+	private void queueEvent(ILoggingEvent loggingEvent) {
+		if (!offerToQueue(loggingEvent, 1)) {
+			appendToEmergencyAppender(loggingEvent);
+		} else if (sharedWriterTask != null) {
+			sharedWriterTask.eventQueued();
+		}
+	}
+
+	/**
+	 * Put an event or a chunk of events in the queue, waiting for a permit for each of the events.
+	 * 
+	 * @return True if it was queued or false if the queue stayed full.
+	 */
+	private boolean offerToQueue(ILoggingEvent queueEvent, int eventCount) {
+		try {
+			if (!queuePermits.tryAcquire(eventCount, maxQueueWaitTimeMillis, TimeUnit.MILLISECONDS)) {
+				return false;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		if (loggingEventQueue.offer(queueEvent)) {
+			return true;
+		}
+		// the rest of the slots are taken by flush markers
+		queuePermits.release(eventCount);
+		return false;
+	}
+
+	/**
+	 * Number of events in the queue not counting the flush markers.
+	 */
+	private int queuedEventCount() {
+		return internalQueueSize - queuePermits.availablePermits();
+	}
+
+	/**
+	 * Copy the event fields possible replacing the message if not null. Only the optional fields that can be read by
+	 * our layout, routes, log-stream names, or emergency appender are copied.
 	 */
 	private LoggingEvent copyEvent(ILoggingEvent loggingEvent, String message) {
+		EventFields fields = copiedFields;
 		LoggingEvent newEvent = new LoggingEvent();
-		newEvent.setArgumentArray(loggingEvent.getArgumentArray());
+		if (fields == null || fields.arguments) {
+			newEvent.setArgumentArray(loggingEvent.getArgumentArray());
+		}
 		newEvent.setLevel(loggingEvent.getLevel());
-		newEvent.setLoggerContextRemoteView(loggingEvent.getLoggerContextVO());
+		if (fields == null || fields.contextVO) {
+			newEvent.setLoggerContextRemoteView(loggingEvent.getLoggerContextVO());
+		}
 		newEvent.setLoggerName(loggingEvent.getLoggerName());
-		if (loggingEvent.getMarkerList() != null) {
+		if ((fields == null || fields.markers) && loggingEvent.getMarkerList() != null) {
 			// added this conditional because it's possible for the
 			// MarkerList to be null  - ndp 6/2024
 			for (Marker marker : loggingEvent.getMarkerList()) {
 				newEvent.addMarker(marker);
 			}
 		}
-		// Broke out this returned variable to help with debuggin - ndp 6/2024
-		Map<String, String> mdcMap = loggingEvent.getMDCPropertyMap();
-		newEvent.setMDCPropertyMap(mdcMap);
+		if (fields == null || fields.mdc) {
+			// Broke out this returned variable to help with debuggin - ndp 6/2024
+			Map<String, String> mdcMap = loggingEvent.getMDCPropertyMap();
+			newEvent.setMDCPropertyMap(mdcMap);
+		} else {
+			// otherwise the event would look at the MDC of the thread that reads it
+			newEvent.setMDCPropertyMap(Collections.emptyMap());
+		}
 		if (message == null) {
 			newEvent.setMessage(loggingEvent.getMessage());
 		} else {
 			newEvent.setMessage(message);
 		}
 		newEvent.setThreadName(loggingEvent.getThreadName());
-		IThrowableProxy ithrowableProxy = loggingEvent.getThrowableProxy();
-		if (ithrowableProxy instanceof ThrowableProxy) {
-			newEvent.setThrowableProxy((ThrowableProxy) ithrowableProxy);
+		if (fields == null || fields.throwable) {
+			IThrowableProxy ithrowableProxy = loggingEvent.getThrowableProxy();
+			if (ithrowableProxy instanceof ThrowableProxy) {
+				newEvent.setThrowableProxy((ThrowableProxy) ithrowableProxy);
+			}
 		}
 		newEvent.setTimeStamp(loggingEvent.getTimeStamp());
 		return newEvent;
 	}
 
+	/**
+	 * Work out which of the optional fields of the events can be read so we only copy those.
+	 */
+	private EventFields findCopiedFields() {
+		EventFields fields = new EventFields();
+		fields.addLayout(layout);
+		if (emergencyAppender != null) {
+			fields.addAppender(emergencyAppender);
+		}
+		for (LogRoute route : routes) {
+			fields.markers |= route.usesMarkers();
+			fields.mdc |= route.usesMdc();
+		}
+		if (dynamicLogStreams) {
+			// the log-stream names are rendered from each event
+			Ec2PatternLayout nameLayout = new Ec2PatternLayout();
+			nameLayout.setContext(context);
+			Map<String, String> converterMap = nameLayout.getEffectiveConverterMap();
+			fields.addPattern(logStreamName, converterMap);
+			for (LogRoute route : routes) {
+				fields.addPattern(route.getLogStream(), converterMap);
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Create an unstarted daemon thread which is a virtual thread if configured and available.
+	 */
+	private Thread newThread(Runnable runnable, String name) {
+		if (virtualThreads) {
+			Thread thread = VirtualThreads.newThread(name, runnable);
+			if (thread != null) {
+				return thread;
+			}
+			if (!virtualThreadsWarningPrinted) {
+				addWarn("Virtual threads are not available in this JVM, using platform threads");
+				virtualThreadsWarningPrinted = true;
+			}
+		}
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Put a chunk of events in the queue as one entry.
+	 * 
+	 * @return The number of events queued.
+	 */
+	private int queueChunk(List<ILoggingEvent> events) {
+		if (!offerToQueue(new ChunkEvent(events), events.size())) {
+			appendToEmergencyAppender(events);
+			return 0;
+		}
+		SharedWriterTask task = sharedWriterTask;
+		if (task != null) {
+			task.writeSoon();
+		}
+		return events.size();
+	}
+
 	private void appendToEmergencyAppender(ILoggingEvent event) {
 		if (emergencyAppender != null) {
 			try {
@@ -460,27 +1012,167 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 		}
 	}
 
+	/**
+	 * Cut a message that is longer than the max size in characters so we don't queue huge strings. The writer does the
+	 * exact cut once the event is laid out and encoded so we keep the marker on the end to mark it as truncated.
+	 */
+	private String truncateMessage(String message) {
+		int length = maxMessageChars();
+		if (length > 0 && Character.isHighSurrogate(message.charAt(length - 1))) {
+			// don't split a surrogate pair
+			length--;
+		}
+		return message.substring(0, length) + truncationMarker;
+	}
+
+	/**
+	 * Max characters of a message that we queue. This is an upper bound since each character is at least 1 byte.
+	 */
+	private int maxMessageChars() {
+		if (chunkEventMessages) {
+			return (int) Math.min(Integer.MAX_VALUE, (long) maxEventMessageSize * maxChunkCount());
+		} else {
+			return maxEventMessageSize;
+		}
+	}
+
+	/**
+	 * Release the client, shutting it down if it isn't shared or if we were the last appender using it.
+	 */
+	private static void releaseLogsClient(AWSLogs client) {
+		if (!LogsClientRegistry.release(client)) {
+			client.shutdown();
+		}
+	}
+
+	/**
+	 * Create a log group or stream with the createLogGroup or createLogStream method of the client. This is also used
+	 * by the {@link BackfillTool}.
+	 * 
+	 * This is a hack to work around the problems that were introduced when the appender was compiled with AWS SDK
+	 * version 1.9 or 1.10 but the user was running with version 1.11.
+	 * 
+	 * The problem was that the createLogStream() method added a return object somewhere between 1.10 and 1.11 which
+	 * broke backwards compatibility and the applications would throw NoSuchMethodError. Using reflection causes the
+	 * linkage to be weaker and seems to work.
+	 * 
+	 * @return true if the method ran or false if the destination it was creating already existed.
+	 */
+	static boolean createLogDest(AWSLogs client, String methodName, AmazonWebServiceRequest arg) throws Exception {
+		try {
+			Method method = client.getClass().getMethod(methodName, arg.getClass());
+			method.invoke(client, arg);
+			return true;
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof ResourceAlreadyExistsException) {
+				// someone else created it first which is just as good
+				return false;
+			} else if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			} else {
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Max chunks an event is split into. All of them have to fit in one request so they are written together.
+	 */
+	private int maxChunkCount() {
+		return Math.max(1, Math.min(maxEventChunks,
+				PutLogEventsBatch.MAX_BATCH_BYTES / (maxEventMessageSize + PutLogEventsBatch.EVENT_OVERHEAD_BYTES)));
+	}
+
 	/**
 	 * Background thread that writes the log events to cloudwatch.
 	 */
 	private class CloudWatchWriter implements Runnable {
 
-		private String sequenceToken;
-		private String logStreamName;
-		private boolean initialized;
+		private final LogDestination defaultDestination = newDestination(logGroupName, logStreamName);
+		/** destination for each of the routes, destinations are shared between routes with the same group and stream */
+		private final LogDestination[] routeDestinations = new LogDestination[routes.size()];
+		private final List<LogDestination> destinations = new ArrayList<LogDestination>();
+		private final List<ILoggingEvent> drainedEvents = new ArrayList<ILoggingEvent>();
+		private final List<ILoggingEvent> summaryEvents = new ArrayList<ILoggingEvent>();
+		private ExecutorService initExecutor;
+		/** writes the batches unless we are putting them concurrently */
+		private final BatchWriter batchWriter = new BatchWriter();
+		/** true if each destination's batches are put on their own thread */
+		private final boolean concurrentPuts;
+		/** batch writers for the put threads to reuse */
+		private final Queue<BatchWriter> idleBatchWriters = new ConcurrentLinkedQueue<BatchWriter>();
+		/** destinations that may have a put in flight */
+		private final List<LogDestination> putDestinations = new ArrayList<LogDestination>();
+		/** set if a write failed since the last flush */
+		private volatile Exception lastWriteException;
+
+		/**
+		 * @param concurrentPuts
+		 *            Put each destination's batches on their own thread, one at a time so they stay in order, instead
+		 *            of putting all of them from the writer.
+		 */
+		public CloudWatchWriter(boolean concurrentPuts) {
+			this.concurrentPuts = concurrentPuts;
+			destinations.add(defaultDestination);
+			Map<String, LogDestination> destinationMap = new HashMap<String, LogDestination>();
+			destinationMap.put(defaultDestination.logGroupName + ":" + defaultDestination.logStreamPattern,
+					defaultDestination);
+			for (int i = 0; i < routes.size(); i++) {
+				LogRoute route = routes.get(i);
+				String group = (MiscUtils.isBlank(route.getLogGroup()) ? logGroupName : route.getLogGroup());
+				String stream = (MiscUtils.isBlank(route.getLogStream()) ? logStreamName : route.getLogStream());
+				LogDestination destination = destinationMap.get(group + ":" + stream);
+				if (destination == null) {
+					destination = newDestination(group, stream);
+					destinationMap.put(group + ":" + stream, destination);
+					destinations.add(destination);
+				}
+				routeDestinations[i] = destination;
+			}
+		}
+
+		private LogDestination newDestination(String logGroupName, String logStreamPattern) {
+			LogDestination destination = new LogDestination(logGroupName, logStreamPattern);
+			if (dynamicLogStreams && logStreamPattern.indexOf('%') >= 0) {
+				destination.activeStreams = new LinkedHashMap<String, LogDestination>(16, 0.75F, true);
+				// remember more names than we keep active so evicted streams aren't verified again
+				final int maxKnown = maxActiveLogStreams * 10;
+				destination.knownStreams = Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+						return size() > maxKnown;
+					}
+				});
+			} else if (rollLogStreams && DATE_TOKEN_PATTERN.matcher(logStreamPattern).find()) {
+				destination.rolling = true;
+			}
+			return destination;
+		}
 
 		@Override
 		public void run() {
 
+			// initialization runs in the background while we wait so the initial-wait doesn't add to it
+			CompletableFuture<AWSLogs> initFuture = startInitialization();
 			try {
 				Thread.sleep(initialWaitTimeMillis);
 			} catch (InterruptedException e) {
-				Thread.currentThread().interrupt();
+				// we were stopped before we finished initializing
+				abandonQueuedEvents();
+				return;
+			}
+			if (!awaitInitialization(initFuture)) {
+				abandonQueuedEvents();
 				return;
 			}
 
-			List<ILoggingEvent> events = new ArrayList<ILoggingEvent>(maxBatchSize);
 			Thread thread = Thread.currentThread();
+			// ship whatever queued up while we were initializing without waiting for the batch timeout
+			while (!thread.isInterrupted() && writeQueuedBatch()) {
+				// keep going
+			}
 			while (!thread.isInterrupted()) {
 				long batchTimeout = System.currentTimeMillis() + maxBatchTimeMillis;
 				while (!thread.isInterrupted()) {
@@ -499,138 +1191,623 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 						// wait timed out
 						break;
 					}
-					events.add(loggingEvent);
-					if (events.size() >= maxBatchSize) {
-						// batch size exceeded
-						break;
-					}
-				}
-				if (!events.isEmpty()) {
-					writeEvents(events);
-					events.clear();
+					// a full batch is written right away, the others wait for the timeout
+					addEvent(loggingEvent);
 				}
+				writeAllBatches();
 			}
 
 			/*
 			 * We have been interrupted so write all of the rest of the events and then quit
 			 */
 
-			events.clear();
-			while (true) {
-				ILoggingEvent event = loggingEventQueue.poll();
-				if (event == null) {
-					// nothing else waiting
-					break;
-				}
-				events.add(event);
-				if (events.size() >= maxBatchSize) {
-					writeEvents(events);
-					events.clear();
-				}
-			}
-			if (!events.isEmpty()) {
-				writeEvents(events);
-				events.clear();
-			}
+			writeRemainingEvents();
 			// thread quits here
 		}
 
-		private void writeEvents(List<ILoggingEvent> events) {
-			String prolog = "CloudWatchWriter.writeEvents() - ";
-
-			if (!initialized) {
-				initialized = true;
-				Exception exception = null;
-				try {
-					stopMessagesThreadLocal.set(true);
-					if (awsLogsClient == null) {
-						createLogsClient();
-					} else {
-						// mostly here for testing
-						logStreamName = buildLogStreamName();
-					}
-				} catch (Exception e) {
-					exception = e;
-				} finally {
-					stopMessagesThreadLocal.set(false);
-				}
-				if (exception != null) {
-					// If we have an exception then we have to write a message
-					// to stderr because the log stack is not working.
-					String msg = prolog +
-							"ERROR: Problems initializing cloudwatch writer. " +
-							"Message: " + exception.getMessage();
-					System.err.println(msg);
-					StringWriter writer = new StringWriter();
-					exception.printStackTrace(new PrintWriter(writer));
-					System.err.println(prolog + "STACK TRACE \n" + writer);
-
-					// This I removed because this exception likely means that
-					// the log is not correctly configured/instantiated and
-					// trying to append to the log will cause a null pointer
-					// exception.
-					// appendEvent(Level.ERROR, msg, exception);
-				}
-			}
-
-			// If we didn't get an aws logs-client then just write to the
-			// emergency appender (if any)
-			if (awsLogsClient == null) {
-				appendToEmergencyAppender(events);
-				return;
+		/**
+		 * Write a batch of queued events if there are any.
+		 *
+		 * @return true if a batch was written.
+		 */
+		boolean writeQueuedBatch() {
+			if (loggingEventQueue.drainTo(drainedEvents, maxBatchSize) == 0) {
+				return false;
+			}
+			for (ILoggingEvent event : drainedEvents) {
+				addEvent(event);
 			}
+			drainedEvents.clear();
+			writeAllBatches();
+			return true;
+		}
 
-			// We need this in case our RPC calls create log output which we
-			// don't want to then log again
-			stopMessagesThreadLocal.set(true);
-			Exception exception = null;
-			try {
-				List<InputLogEvent> logEvents = new ArrayList<InputLogEvent>(events.size());
-				for (ILoggingEvent event : events) {
-					String message = layout.doLayout(event);
-					InputLogEvent logEvent =
-							new InputLogEvent().withTimestamp(event.getTimeStamp()).withMessage(message);
-					logEvents.add(logEvent);
+		/**
+		 * Add an entry from the queue, which could be a chunk of events or a flush marker, to the batches.
+		 */
+		private void addEvent(ILoggingEvent event) {
+			if (event instanceof ChunkEvent) {
+				for (ILoggingEvent chunkEvent : ((ChunkEvent) event).events) {
+					addEvent(chunkEvent);
+				}
+				return;
+			}
+			if (event instanceof FlushMarker) {
+				// everything before the marker has been added so write it all now
+				writeAllBatches();
+				awaitPuts();
+				Exception exception = lastWriteException;
+				lastWriteException = null;
+				if (exception == null) {
+					((FlushMarker) event).future.complete(null);
+				} else {
+					((FlushMarker) event).future.completeExceptionally(exception);
+				}
+				return;
+			}
+			// the event is out of the queue, chunked events are counted one at a time above
+			queuePermits.release();
+			batchEvent(event);
+		}
+
+		/**
+		 * Add the event to the batch of its destination, writing the batch if it is full.
+		 */
+		private void batchEvent(ILoggingEvent event) {
+			LogDestination destination = route(event);
+			if (destination.activeStreams != null) {
+				destination = resolveDynamicStream(destination, event);
+			} else if (destination.rolling) {
+				checkRollover(destination, event.getTimeStamp());
+			}
+			destination.batch.add(event);
+			if (destination.batch.size() >= maxBatchSize) {
+				writeBatch(destination);
+			}
+		}
+
+		/**
+		 * Write all of the destination batches that have events.
+		 */
+		private void writeAllBatches() {
+			removeFinishedPuts();
+			addRepeatSummaries(System.currentTimeMillis());
+			for (LogDestination destination : destinations) {
+				if (destination.activeStreams != null) {
+					writeDynamicBatches(destination);
+					continue;
+				}
+				if (!destination.batch.isEmpty()) {
+					writeBatch(destination);
+				}
+				if (destination.rolling) {
+					// so we look ahead even if the destination is quiet but we only cut over for an event at or after
+					// the roll time since older ones may still be in the queue
+					lookAheadIfDue(destination);
+				}
+			}
+		}
+
+		/**
+		 * Look ahead to see if the name of the stream is about to change and, if so, create the next stream ahead of
+		 * time. If the event is at or after the time the name changes then write the batch we have to the current
+		 * stream and cut over to the next one.
+		 */
+		private void checkRollover(LogDestination destination, long eventTimeMillis) {
+			if (!lookAheadIfDue(destination)) {
+				return;
+			}
+			if (destination.nextLogStreamName != null && eventTimeMillis >= destination.rollMillis) {
+				// cut over between batches so a batch never goes to the wrong stream
+				if (!destination.batch.isEmpty()) {
+					writeBatch(destination);
+				}
+				// and the put reads the name and sequence-token that we are about to change
+				awaitPut(destination);
+				destination.logStreamName = destination.nextLogStreamName;
+				destination.sequenceToken = destination.nextSequenceToken;
+				destination.nameTimeMillis = destination.rollMillis;
+				destination.nextLogStreamName = null;
+				destination.nextSequenceToken = null;
+				System.err.println("CloudWatchWriter.checkRollover() - CloudWatchAppender rolled over to logStream: "
+						+ destination.logGroupName + "/" + destination.logStreamName);
+			}
+		}
+
+		/**
+		 * Look ahead for the next stream if it is time to.
+		 * 
+		 * @return False if initialization didn't work and we can't roll over.
+		 */
+		private boolean lookAheadIfDue(LogDestination destination) {
+			if (awsLogsClient == null || destination.logStreamName == null) {
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if (destination.nextLogStreamName == null && now >= destination.rollCheckMillis) {
+				// looking ahead twice per lead time means we find the change at least half a lead ahead of it
+				destination.rollCheckMillis = now + Math.max(1, logStreamRollLeadMillis / 2);
+				lookAheadForRollover(destination, now);
+			}
+			return true;
+		}
+
+		private void lookAheadForRollover(LogDestination destination, long now) {
+			if (destination.streamNameLayout == null) {
+				destination.streamNameLayout = createStreamNameLayout(destination.logStreamPattern);
+			}
+			long aheadMillis = now + logStreamRollLeadMillis;
+			String currentName = destination.logStreamName;
+			if (renderLogStreamName(destination.streamNameLayout, aheadMillis).equals(currentName)) {
+				// names only move forward so it is the same all of the way there
+				destination.nameTimeMillis = aheadMillis;
+				return;
+			}
+			// binary search for the millisecond where the name changes
+			long low = destination.nameTimeMillis;
+			long high = aheadMillis;
+			while (high - low > 1) {
+				long mid = low + (high - low) / 2;
+				if (renderLogStreamName(destination.streamNameLayout, mid).equals(currentName)) {
+					low = mid;
+				} else {
+					high = mid;
+				}
+			}
+			// if we were quiet for a while the change may be in the past in which case we use the name for now
+			String nextName = renderLogStreamName(destination.streamNameLayout, Math.max(high, now));
+			LogDestination next = new LogDestination(destination.logGroupName, destination.logStreamPattern);
+			next.logStreamName = nextName;
+			verifyLogStreamExists(awsLogsClient, next);
+			destination.nextLogStreamName = nextName;
+			destination.nextSequenceToken = next.sequenceToken;
+			destination.rollMillis = high;
+		}
+
+		/**
+		 * Find the stream for the event, creating it the first time we see it. If we have created too many streams in
+		 * the last minute then the event goes to the stream named from the pattern without any of the event's MDC or
+		 * markers instead.
+		 */
+		private LogDestination resolveDynamicStream(LogDestination template, ILoggingEvent event) {
+			if (template.streamNameLayout == null) {
+				template.streamNameLayout = createStreamNameLayout(template.logStreamPattern);
+			}
+			// replace the only character that cloudwatch barfs on: Member must satisfy regex pattern: [^:*]*
+			String name = template.streamNameLayout.doLayout(event).replace(':', '_');
+			LogDestination destination = template.activeStreams.get(name);
+			if (destination == null) {
+				if (awsLogsClient != null && !template.knownStreams.contains(name) && !allowLogStreamCreate(template)) {
+					name = renderLogStreamName(template.streamNameLayout, event.getTimeStamp());
+					destination = template.activeStreams.get(name);
+				}
+				if (destination == null) {
+					destination = addDynamicStream(template, name);
+				}
+			}
+			destination.lastEventMillis = System.currentTimeMillis();
+			return destination;
+		}
+
+		/**
+		 * Add an active stream, creating it if we haven't seen it before. If we have too many active streams then the
+		 * least recently used one is written and dropped.
+		 */
+		private LogDestination addDynamicStream(LogDestination template, String name) {
+			for (LogDestination putDestination : putDestinations) {
+				// the stream may have been dropped while its last put was in flight which has to finish first
+				if (name.equals(putDestination.logStreamName)
+						&& template.logGroupName.equals(putDestination.logGroupName)) {
+					awaitPut(putDestination);
+				}
+			}
+			LogDestination destination = new LogDestination(template.logGroupName, template.logStreamPattern);
+			destination.logStreamName = name;
+			if (awsLogsClient != null && template.knownStreams.add(name)) {
+				verifyLogStreamExists(awsLogsClient, destination);
+			}
+			if (template.activeStreams.size() >= maxActiveLogStreams) {
+				Iterator<LogDestination> iterator = template.activeStreams.values().iterator();
+				LogDestination eldest = iterator.next();
+				iterator.remove();
+				if (!eldest.batch.isEmpty()) {
+					writeBatch(eldest);
+				}
+			}
+			template.activeStreams.put(name, destination);
+			return destination;
+		}
+
+		/**
+		 * Count a new stream against the creates per minute.
+		 * 
+		 * @return true if we can create it or false if we are over the limit.
+		 */
+		private boolean allowLogStreamCreate(LogDestination template) {
+			if (maxLogStreamCreatesPerMinute <= 0) {
+				return true;
+			}
+			long minute = System.currentTimeMillis() / 60000;
+			if (template.createMinute != minute) {
+				if (template.skippedCreateCount > 0) {
+					System.err.println("CloudWatchWriter.allowLogStreamCreate() - Wrote " + template.skippedCreateCount
+							+ " events for new log-streams to the default stream, over the limit of "
+							+ maxLogStreamCreatesPerMinute + " creates per minute");
+				}
+				template.createMinute = minute;
+				template.createCount = 0;
+				template.skippedCreateCount = 0;
+			}
+			if (template.createCount >= maxLogStreamCreatesPerMinute) {
+				template.skippedCreateCount++;
+				return false;
+			}
+			template.createCount++;
+			return true;
+		}
+
+		/**
+		 * Write the batches of the dynamic streams, dropping the ones that have been idle for too long.
+		 */
+		private void writeDynamicBatches(LogDestination template) {
+			long idleTimeMillis = System.currentTimeMillis() - logStreamIdleMillis;
+			for (Iterator<LogDestination> iterator = template.activeStreams.values().iterator(); iterator.hasNext();) {
+				LogDestination destination = iterator.next();
+				if (!destination.batch.isEmpty()) {
+					writeBatch(destination);
+				} else if (destination.lastEventMillis < idleTimeMillis && destination.putThread == null) {
+					iterator.remove();
 				}
-				// events must be in sorted order according to AWS otherwise an exception is thrown
-				Collections.sort(logEvents, inputLogEventComparator);
+			}
+		}
 
-				for (int i = 0; i < PUT_REQUEST_RETRY_COUNT; i++) {
+		private void writeBatch(LogDestination destination) {
+			if (concurrentPuts) {
+				startPut(destination);
+				return;
+			}
+			List<ILoggingEvent> events = destination.batch;
+			while (events != null) {
+				events = batchWriter.writeEvents(destination, events);
+			}
+			destination.batch.clear();
+		}
+
+		/**
+		 * Hand the destination's batch to a thread of its own to put. We wait for the destination's previous put
+		 * first so there is only one in flight per destination and its events go out in order, but the puts to
+		 * different destinations overlap.
+		 */
+		private void startPut(final LogDestination destination) {
+			awaitPut(destination);
+			final List<ILoggingEvent> events = new ArrayList<ILoggingEvent>(destination.batch);
+			destination.batch.clear();
+			Thread thread = newThread(new Runnable() {
+				@Override
+				public void run() {
+					BatchWriter writer = idleBatchWriters.poll();
+					if (writer == null) {
+						writer = new BatchWriter();
+					}
 					try {
-						PutLogEventsRequest request = new PutLogEventsRequest(logGroupName, logStreamName, logEvents);
-						if (sequenceToken != null) {
-							request.withSequenceToken(sequenceToken);
+						List<ILoggingEvent> rest = events;
+						while (rest != null) {
+							rest = writer.writeEvents(destination, rest);
 						}
-						PutLogEventsResult result = awsLogsClient.putLogEvents(request);
-						sequenceToken = result.getNextSequenceToken();
-						exception = null;
-						eventsWrittenCount += logEvents.size();
-						break;
-					} catch (InvalidSequenceTokenException iste) {
-						exception = iste;
-						sequenceToken = iste.getExpectedSequenceToken();
+					} finally {
+						idleBatchWriters.offer(writer);
+						removeWriterThread(Thread.currentThread());
 					}
 				}
-			} catch (DataAlreadyAcceptedException daac) {
-				exception = daac;
-				sequenceToken = daac.getExpectedSequenceToken();
-			} catch (Exception e) {
-				// catch everything else to make sure we don't quit the thread
-				exception = e;
-			} finally {
-				if (exception != null) {
-					// we do this because we don't want to go recursive
-					events.add(makeEvent(Level.ERROR,
-							"Exception thrown when creating logging " + events.size() + " events", exception));
-					appendToEmergencyAppender(events);
+			}, CloudWatchAppender.this.getClass().getSimpleName() + "-put");
+			// so anything logged by the put is dropped instead of going recursive
+			addWriterThread(thread);
+			destination.putThread = thread;
+			putDestinations.add(destination);
+			thread.start();
+		}
+
+		/**
+		 * Wait for the destination's put, if any, to finish. This doesn't stop for interrupts since the writer is
+		 * interrupted to write the last of the events when we are stopping.
+		 */
+		private void awaitPut(LogDestination destination) {
+			Thread thread = destination.putThread;
+			if (thread == null) {
+				return;
+			}
+			boolean interrupted = false;
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
 				}
-				stopMessagesThreadLocal.set(false);
 			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			destination.putThread = null;
 		}
 
-		private void createLogsClient() {
-			String prolog = "CloudWatchWriter.createLogsClient() - ";
-			AWSCredentialsProvider credentialProvider;
+		/**
+		 * Wait for all of the puts in flight to finish.
+		 */
+		private void awaitPuts() {
+			for (LogDestination destination : putDestinations) {
+				awaitPut(destination);
+			}
+			putDestinations.clear();
+		}
+
+		/**
+		 * Forget the destinations whose puts have finished.
+		 */
+		private void removeFinishedPuts() {
+			for (Iterator<LogDestination> iterator = putDestinations.iterator(); iterator.hasNext();) {
+				LogDestination destination = iterator.next();
+				if (destination.putThread == null || !destination.putThread.isAlive()) {
+					destination.putThread = null;
+					iterator.remove();
+				}
+			}
+		}
+
+		/**
+		 * Find the destination of the event from the first route that matches it.
+		 */
+		private LogDestination route(ILoggingEvent event) {
+			for (int i = 0; i < routeDestinations.length; i++) {
+				if (routes.get(i).matches(event)) {
+					return routeDestinations[i];
+				}
+			}
+			return defaultDestination;
+		}
+
+		/**
+		 * Hand the events left in the queue to the emergency appender and fail the flushes which is done when we are
+		 * stopped before we finished initializing.
+		 */
+		void abandonQueuedEvents() {
+			Exception exception = new IllegalStateException("Appender was stopped before it was initialized");
+			while (true) {
+				ILoggingEvent event = loggingEventQueue.poll();
+				if (event == null) {
+					break;
+				}
+				if (event instanceof FlushMarker) {
+					((FlushMarker) event).future.completeExceptionally(exception);
+				} else if (event instanceof ChunkEvent) {
+					appendToEmergencyAppender(((ChunkEvent) event).events);
+				} else {
+					appendToEmergencyAppender(event);
+				}
+			}
+		}
+
+		/**
+		 * Write all of the events left in the queue which is done when we are stopping.
+		 */
+		void writeRemainingEvents() {
+			while (true) {
+				ILoggingEvent event = loggingEventQueue.poll();
+				if (event == null) {
+					// nothing else waiting
+					break;
+				}
+				addEvent(event);
+			}
+			// the windows that are still open are reported as well
+			addRepeatSummaries(Long.MAX_VALUE);
+			writeAllBatches();
+			awaitPuts();
+		}
+
+		/**
+		 * Add the summaries of the repeats that were suppressed in windows which have closed.
+		 */
+		private void addRepeatSummaries(long nowMillis) {
+			RepeatSuppressor suppressor = repeatSuppressor;
+			if (suppressor == null) {
+				return;
+			}
+			suppressor.addSummaries(nowMillis, summaryEvents);
+			for (ILoggingEvent summaryEvent : summaryEvents) {
+				batchEvent(summaryEvent);
+			}
+			summaryEvents.clear();
+		}
+
+		/**
+		 * Returns the time that there are next repeat summaries to write or Long.MAX_VALUE if none.
+		 */
+		long nextRepeatSummaryMillis() {
+			RepeatSuppressor suppressor = repeatSuppressor;
+			if (suppressor == null) {
+				return Long.MAX_VALUE;
+			} else {
+				return suppressor.nextSummaryMillis();
+			}
+		}
+
+		/**
+		 * Start the client, log-group, log-stream, and instance-name initialization steps running concurrently in the
+		 * background, each with its own timeout. The instance-name lookup only gates the log-stream step if the
+		 * log-stream name actually uses one of the instance tokens.
+		 */
+		private CompletableFuture<AWSLogs> startInitialization() {
+			if (awsLogsClient != null) {
+				// mostly here for testing
+				for (LogDestination destination : destinations) {
+					if (destination.activeStreams == null) {
+						destination.nameTimeMillis = System.currentTimeMillis();
+						destination.logStreamName = buildLogStreamName(destination.logStreamPattern);
+					}
+				}
+				if (directPutLogEvents) {
+					createDirectLogsClient(buildCredentialProvider());
+				}
+				return CompletableFuture.completedFuture(awsLogsClient);
+			}
+			initExecutor = Executors.newCachedThreadPool(new InitThreadFactory());
+			try {
+				AWSCredentialsProvider credentialProvider = buildCredentialProvider();
+				if (directPutLogEvents) {
+					createDirectLogsClient(credentialProvider);
+				}
+				CompletableFuture<Void> instanceFuture = runStep(() -> {
+					try {
+						lookupInstanceName(credentialProvider);
+					} catch (Exception e) {
+						appendEvent(Level.ERROR, "Problems looking up instance-name", e);
+					}
+					return null;
+				}, instanceLookupTimeoutMillis);
+				CompletableFuture<Void> streamNameFuture;
+				if (usesInstanceTokens()) {
+					// we need the instance-name, or to have given up on it, before we can name the streams
+					streamNameFuture = instanceFuture.handleAsync((result, th) -> nameLogStreams(), initExecutor);
+				} else {
+					streamNameFuture = CompletableFuture.completedFuture(nameLogStreams());
+				}
+				// if the step finishes after it timed out then nobody is going to use the client it built
+				CompletableFuture<AWSLogs> clientFuture = runStep(() -> buildLogsClient(credentialProvider),
+						initStepTimeoutMillis, CloudWatchAppender::releaseLogsClient);
+				CompletableFuture<AWSLogs> groupFuture = thenStep(clientFuture, client -> {
+					Set<String> groupNames = new HashSet<String>();
+					for (LogDestination destination : destinations) {
+						if (groupNames.add(destination.logGroupName)) {
+							verifyLogGroupExists(client, destination.logGroupName);
+						}
+					}
+					return client;
+				});
+				CompletableFuture<AWSLogs> combinedFuture =
+						groupFuture.thenCombineAsync(streamNameFuture, (client, unused) -> client, initExecutor);
+				CompletableFuture<AWSLogs> streamFuture = thenStep(combinedFuture, client -> {
+							for (LogDestination destination : destinations) {
+								// dynamic streams are verified when we first see them
+								if (destination.activeStreams == null) {
+									verifyLogStreamExists(client, destination);
+								}
+							}
+							return client;
+						});
+				CompletableFuture<Void> releaseFuture = streamFuture.handleAsync((client, th) -> {
+					if (th != null && clientFuture.isDone() && !clientFuture.isCompletedExceptionally()) {
+						// a later step failed so the client that we built isn't going to be used
+						releaseLogsClient(clientFuture.join());
+					}
+					return null;
+				}, initExecutor);
+				// once nothing else is going to run in the init threads
+				CompletableFuture.allOf(releaseFuture, streamNameFuture)
+						.whenComplete((unused, th) -> initExecutor.shutdown());
+				return streamFuture;
+			} catch (RuntimeException e) {
+				initExecutor.shutdown();
+				CompletableFuture<AWSLogs> future = new CompletableFuture<AWSLogs>();
+				future.completeExceptionally(e);
+				return future;
+			}
+		}
+
+		/**
+		 * Wait for the initialization steps to finish. If they failed then we leave the client as null so events go
+		 * to the emergency appender.
+		 * 
+		 * @return False if we were interrupted before they finished.
+		 */
+		private boolean awaitInitialization(CompletableFuture<AWSLogs> initFuture) {
+			AWSLogs client = null;
+			Throwable exception = null;
+			try {
+				// each step has its own timeout so this won't wait forever
+				client = initFuture.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			} catch (ExecutionException e) {
+				exception = (e.getCause() == null ? e : e.getCause());
+			}
+			finishInitialization(client, exception);
+			return true;
+		}
+
+		/**
+		 * Record the results of the initialization, reporting the exception if it failed.
+		 */
+		void finishInitialization(AWSLogs client, Throwable exception) {
+			String prolog = "CloudWatchWriter.awaitInitialization() - ";
+			if (exception instanceof CompletionException && exception.getCause() != null) {
+				exception = exception.getCause();
+			}
+			if (exception == null) {
+				awsLogsClient = client;
+			} else {
+				// If we have an exception then we have to write a message
+				// to stderr because the log stack is not working.
+				String msg = prolog +
+						"ERROR: Problems initializing cloudwatch writer. " +
+						"Message: " + exception.getMessage();
+				System.err.println(msg);
+				StringWriter writer = new StringWriter();
+				exception.printStackTrace(new PrintWriter(writer));
+				System.err.println(prolog + "STACK TRACE \n" + writer);
+
+				// This I removed because this exception likely means that
+				// the log is not correctly configured/instantiated and
+				// trying to append to the log will cause a null pointer
+				// exception.
+				// appendEvent(Level.ERROR, msg, exception);
+			}
+		}
+
+		private <T> CompletableFuture<T> runStep(Supplier<T> step, long timeoutMillis) {
+			return runStep(step, timeoutMillis, null);
+		}
+
+		/**
+		 * Run an initialization step in our init threads, failing it with a TimeoutException and interrupting it if it
+		 * takes too long.
+		 * 
+		 * @param lateResultHandler
+		 *            Called with the result if the step finishes after it timed out or null if none.
+		 */
+		private <T> CompletableFuture<T> runStep(Supplier<T> step, long timeoutMillis, Consumer<T> lateResultHandler) {
+			CompletableFuture<T> future = new CompletableFuture<T>();
+			Future<?> task = initExecutor.submit(() -> {
+				T result;
+				try {
+					result = step.get();
+				} catch (Throwable th) {
+					future.completeExceptionally(th);
+					return;
+				}
+				if (!future.complete(result) && lateResultHandler != null) {
+					lateResultHandler.accept(result);
+				}
+			});
+			future.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS).whenComplete((result, th) -> {
+				if (th instanceof TimeoutException) {
+					task.cancel(true);
+				}
+			});
+			return future;
+		}
+
+		/**
+		 * Run an initialization step after a previous one has completed. The timeout starts when the step does.
+		 */
+		private <T, R> CompletableFuture<R> thenStep(CompletableFuture<T> previous, Function<T, R> step) {
+			return previous.thenComposeAsync(value -> runStep(() -> step.apply(value), initStepTimeoutMillis),
+					initExecutor);
+		}
+
+		private AWSCredentialsProvider buildCredentialProvider() {
+			String prolog = "CloudWatchWriter.buildCredentialProvider() - ";
 			if (MiscUtils.isBlank(accessKeyId)) {
 				// try to use our class properties
 				accessKeyId = System.getProperty(AWS_ACCESS_KEY_ID_PROPERTY);
@@ -640,120 +1817,261 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 				// When the host is assigned IAM roles that permit
 				// processes running on it to write to CloudWatch and
 				// query EC2, credentials can be omitted.
-				credentialProvider = null;
 				System.err.println(prolog + "No AWS credentials located. credentialProvider is null");
+				return null;
 			} else {
-				credentialProvider = new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKeyId, secretKey));
 				System.err.println(prolog + "AWS credentials located, using AWSStaticCredentialsProvider");
+				return new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKeyId, secretKey));
+			}
+		}
+
+		private void createDirectLogsClient(AWSCredentialsProvider credentialProvider) {
+			if (credentialProvider == null) {
+				credentialProvider = DefaultAWSCredentialsProviderChain.getInstance();
 			}
+			directLogsClient = new DirectLogsClient(endpoint, region, credentialProvider);
+			System.err.println("CloudWatchWriter.createDirectLogsClient() - Posting log events directly to endpoint");
+		}
+
+		private AWSLogs buildLogsClient(AWSCredentialsProvider credentialProvider) {
+			String prolog = "CloudWatchWriter.buildLogsClient() - ";
 			AWSLogs client;
 			if (testAwsLogsClient == null) {
-				if(MiscUtils.isBlank(accessKeyId)){
-					// If no creds are provided then there may be an IAM Role
-					// assigned to the instance that allows processes running
-					// on it to write to CloudWatch logs without additional
-					// authentication. In order to make use of this scenario
-					// we need to use the default client. - ndp 6/2024
-					client = AWSLogsClientBuilder.defaultClient();
-					System.err.println(prolog + "No AWS credentials located, using AWSLogsClientBuilder.defaultClient()");
-				}
-				else {
-					System.err.println(prolog + "AWS credentials located, using AWSLogsClientBuilder.standard()");
-					client = AWSLogsClientBuilder.standard().withCredentials(credentialProvider).withRegion(region).build();
+				if (shareLogsClient) {
+					// the max-connections of the first appender to create the client wins
+					String key = region + ":" + (endpoint == null ? "" : endpoint) + ":"
+							+ (credentialProvider == null ? "" : accessKeyId + ":" + secretKey);
+					client = LogsClientRegistry.acquire(key, () -> createLogsClient(credentialProvider));
+					System.err.println(prolog + "Using shared logs client for region " + region);
+				} else {
+					client = createLogsClient(credentialProvider);
 				}
 			}
 			else {
 				client = testAwsLogsClient;
 			}
 			System.err.println(prolog + "CloudWatchAppender is using "+ client.getClass().getName());
-			try {
-				lookupInstanceName(credentialProvider);
-			} catch (Exception e) {
-				appendEvent(Level.ERROR, "Problems looking up instance-name", e);
+			return client;
+		}
+
+		private AWSLogs createLogsClient(AWSCredentialsProvider credentialProvider) {
+			String prolog = "CloudWatchWriter.createLogsClient() - ";
+			ClientConfiguration clientConfig = new ClientConfiguration().withMaxConnections(maxClientConnections);
+			if (credentialProvider == null) {
+				// If no creds are provided then there may be an IAM Role
+				// assigned to the instance that allows processes running
+				// on it to write to CloudWatch logs without additional
+				// authentication. In order to make use of this scenario
+				// we need to use the default client settings. - ndp 6/2024
+				System.err.println(prolog + "No AWS credentials located, using AWSLogsClientBuilder defaults");
+				AWSLogsClientBuilder builder = AWSLogsClientBuilder.standard().withClientConfiguration(clientConfig);
+				if (!MiscUtils.isBlank(endpoint)) {
+					builder.withEndpointConfiguration(new EndpointConfiguration(endpoint, region));
+				}
+				return builder.build();
+			}
+			else {
+				System.err.println(prolog + "AWS credentials located, using AWSLogsClientBuilder.standard()");
+				AWSLogsClientBuilder builder = AWSLogsClientBuilder.standard()
+						.withCredentials(credentialProvider)
+						.withClientConfiguration(clientConfig);
+				if (MiscUtils.isBlank(endpoint)) {
+					builder.withRegion(region);
+				} else {
+					// a different endpoint such as a local stand-in for testing
+					builder.withEndpointConfiguration(new EndpointConfiguration(endpoint, region));
+				}
+				return builder.build();
 			}
-			logStreamName = buildLogStreamName();
-			System.err.println(prolog + "CloudWatchAppender is using logStream: "+ logStreamName);
-			verifyLogGroupExists(client);
-			verifyLogStreamExists(client);
-			awsLogsClient = client;
 		}
 
-		private void verifyLogGroupExists(AWSLogs client) {
+
+		private void verifyLogGroupExists(AWSLogs client, String logGroupName) {
+			if (destinationCache != null && destinationCache.containsGroup(region, logGroupName)) {
+				return;
+			}
+			if (optimisticLogDests) {
+				// just try to create it, treating already-exists as success, instead of describing the groups
+				if (createLogDests) {
+					if (callLogClientMethod(client, "createLogGroup", new CreateLogGroupRequest(logGroupName))) {
+						rememberLogGroup(logGroupName);
+					}
+				}
+				return;
+			}
 			DescribeLogGroupsRequest request = new DescribeLogGroupsRequest().withLogGroupNamePrefix(logGroupName);
 			DescribeLogGroupsResult result = client.describeLogGroups(request);
 			for (LogGroup group : result.getLogGroups()) {
 				if (logGroupName.equals(group.getLogGroupName())) {
+					rememberLogGroup(logGroupName);
 					return;
 				}
 			}
 			if (createLogDests) {
-				callLogClientMethod(client, "createLogGroup", new CreateLogGroupRequest(logGroupName));
+				if (callLogClientMethod(client, "createLogGroup", new CreateLogGroupRequest(logGroupName))) {
+					rememberLogGroup(logGroupName);
+				}
 			} else {
 				appendEvent(Level.WARN, "Log-group '" + logGroupName + "' doesn't exist and not created", null);
 			}
 		}
 
-		private void verifyLogStreamExists(AWSLogs client) {
+		private void verifyLogStreamExists(AWSLogs client, LogDestination destination) {
+			String logGroupName = destination.logGroupName;
+			String logStreamName = destination.logStreamName;
+			if (destinationCache != null && destinationCache.containsStream(region, logGroupName, logStreamName)) {
+				return;
+			}
+			if (optimisticLogDests) {
+				// just try to create it, treating already-exists as success, instead of describing the streams
+				if (createLogDests) {
+					if (callLogClientMethod(client, "createLogStream",
+							new CreateLogStreamRequest(logGroupName, logStreamName))) {
+						rememberLogStream(destination);
+					}
+				}
+				return;
+			}
 			DescribeLogStreamsRequest request = new DescribeLogStreamsRequest().withLogGroupName(logGroupName)
 					.withLogStreamNamePrefix(logStreamName);
 			DescribeLogStreamsResult result = client.describeLogStreams(request);
 			for (LogStream stream : result.getLogStreams()) {
 				if (logStreamName.equals(stream.getLogStreamName())) {
-					sequenceToken = stream.getUploadSequenceToken();
+					destination.sequenceToken = stream.getUploadSequenceToken();
+					rememberLogStream(destination);
 					return;
 				}
 			}
 			if (createLogDests) {
-				callLogClientMethod(client, "createLogStream", new CreateLogStreamRequest(logGroupName, logStreamName));
+				if (callLogClientMethod(client, "createLogStream",
+						new CreateLogStreamRequest(logGroupName, logStreamName))) {
+					rememberLogStream(destination);
+				}
 			} else {
 				appendEvent(Level.WARN, "Log-stream '" + logStreamName + "' doesn't exist and not created", null);
 			}
 		}
 
-		private String buildLogStreamName() {
-			String name = CloudWatchAppender.this.logStreamName;
+		/**
+		 * Called when a put says that our destination doesn't exist. Forget what we remembered about it and, if we
+		 * are creating destinations without describing them, create it again.
+		 * 
+		 * @return true if the put should be retried.
+		 */
+		private boolean reprovisionLogDests(LogDestination destination) {
+			if (destinationCache != null) {
+				try {
+					destinationCache.removeGroup(region, destination.logGroupName);
+				} catch (IOException e) {
+					appendEvent(Level.WARN, "Problems removing stale destination from cache", e);
+				}
+			} else if (!optimisticLogDests) {
+				return false;
+			}
+			if (!createLogDests) {
+				return false;
+			}
+			verifyLogGroupExists(awsLogsClient, destination.logGroupName);
+			verifyLogStreamExists(awsLogsClient, destination);
+			return true;
+		}
+
+		private void rememberLogGroup(String logGroupName) {
+			if (destinationCache != null) {
+				try {
+					destinationCache.addGroup(region, logGroupName);
+				} catch (IOException e) {
+					System.err.println("CloudWatchWriter.rememberLogGroup() - Problems writing destination cache: " + e);
+				}
+			}
+		}
+
+		private void rememberLogStream(LogDestination destination) {
+			if (destinationCache != null) {
+				try {
+					destinationCache.addStream(region, destination.logGroupName, destination.logStreamName);
+				} catch (IOException e) {
+					System.err.println(
+							"CloudWatchWriter.rememberLogStream() - Problems writing destination cache: " + e);
+				}
+			}
+		}
+
+		/**
+		 * Returns true if any of our log-stream names use the instance tokens.
+		 */
+		private boolean usesInstanceTokens() {
+			for (LogDestination destination : destinations) {
+				if (INSTANCE_TOKEN_PATTERN.matcher(destination.logStreamPattern).find()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private Void nameLogStreams() {
+			for (LogDestination destination : destinations) {
+				if (destination.activeStreams != null) {
+					System.err.println("CloudWatchWriter.startInitialization() - CloudWatchAppender is using logStreams: "
+							+ destination.logGroupName + "/" + destination.logStreamPattern);
+					continue;
+				}
+				destination.nameTimeMillis = System.currentTimeMillis();
+				destination.logStreamName = buildLogStreamName(destination.logStreamPattern);
+				System.err.println("CloudWatchWriter.startInitialization() - CloudWatchAppender is using logStream: "
+						+ destination.logGroupName + "/" + destination.logStreamName);
+			}
+			return null;
+		}
+
+		private String buildLogStreamName(String name) {
 			if (name.indexOf('%') < 0) {
 				return name;
 			}
-			/*
-			 * Little bit of a hack here. We use one of our layout instances to format the _name_ of the log-stream.
-			 * This allows us to support the same %token that are supported by the messages.
-			 */
+			return renderLogStreamName(createStreamNameLayout(name), System.currentTimeMillis());
+		}
+
+		/**
+		 * Little bit of a hack here. We use one of our layout instances to format the _name_ of the log-stream. This
+		 * allows us to support the same %token that are supported by the messages.
+		 */
+		private Ec2PatternLayout createStreamNameLayout(String pattern) {
 			Ec2PatternLayout nameLayout = new Ec2PatternLayout();
-			nameLayout.setPattern(name);
+			nameLayout.setPattern(pattern);
 			nameLayout.setContext(context);
 			nameLayout.start();
+			return nameLayout;
+		}
+
+		private String renderLogStreamName(Ec2PatternLayout nameLayout, long timeMillis) {
 			// somewhat random logging event although the time-stamp is important
 			LoggingEvent event = new LoggingEvent();
 			event.setLevel(Level.INFO);
 			event.setLoggerName("logStreamName");
 			event.setMessage("log stream name");
-			event.setTimeStamp(System.currentTimeMillis());
-			name = nameLayout.doLayout(event);
+			event.setTimeStamp(timeMillis);
+			event.setMDCPropertyMap(Collections.emptyMap());
+			String name = nameLayout.doLayout(event);
 			// replace the only character that cloudwatch barfs on: Member must satisfy regex pattern: [^:*]*
-			name = name.replace(':', '_');
-			return name;
+			return name.replace(':', '_');
 		}
 
 		/**
-		 * This is a hack to work around the problems that were introduced when the appender was compiled with AWS SDK
-		 * version 1.9 or 1.10 but the user was running with version 1.11.
-		 * 
-		 * The problem was that the createLogStream() method added a return object somewhere between 1.10 and 1.11 which
-		 * broke backwards compatibility and the applications would throw NoSuchMethodError. Using reflection causes the
-		 * linkage to be weaker and seems to work.
+		 * @return true if the method ran or if the destination it was creating already existed.
 		 */
-		private void callLogClientMethod(AWSLogs client, String methodName, AmazonWebServiceRequest arg) {
+		private boolean callLogClientMethod(AWSLogs client, String methodName, AmazonWebServiceRequest arg) {
 			try {
-				Method method = client.getClass().getMethod(methodName, arg.getClass());
-				method.invoke(client, arg);
-				appendEvent(Level.INFO, "Ran log client method " + methodName + ", arg " + arg, null);
+				if (createLogDest(client, methodName, arg)) {
+					appendEvent(Level.INFO, "Ran log client method " + methodName + ", arg " + arg, null);
+				}
+				return true;
 			} catch (Exception e) {
 				if (emergencyAppender != null) {
 					emergencyAppender.addError("Problems running log-client method: " + methodName + ", arg: " + arg,
 							e);
 				}
 				appendEvent(Level.ERROR, "Problems running log-client method: " + methodName + ", arg: " + arg, e);
+				return false;
 			}
 		}
 
@@ -824,27 +2142,418 @@ public class CloudWatchAppender extends UnsynchronizedAppenderBase<ILoggingEvent
 			}
 			return event;
 		}
+
+		/**
+		 * Buffers for laying out the events and building the requests. The writer has one and each put thread borrows
+		 * one from the idle ones so they don't share them.
+		 */
+		private class BatchWriter {
+
+			private final LayoutBuffer layoutBuffer = new LayoutBuffer();
+			/** end of each chunk in the layout buffer of the event being chunked */
+			private int[] chunkEnds;
+			private int chunkDigits;
+			private final StringBuilder chunkBuilder = new StringBuilder();
+			/** created the first time we write a batch with the direct client */
+			private PutLogEventsEncoder putLogEventsEncoder;
+			private final PutLogEventsBatch requestBatch = new PutLogEventsBatch(PutLogEventsBatch.MAX_BATCH_EVENTS);
+
+			/**
+			 * Write the events in one request. If they don't all fit in the request's limits then the ones that don't
+			 * are removed from the list and returned.
+			 * 
+			 * @return The events that still need to be written or null if none.
+			 */
+			private List<ILoggingEvent> writeEvents(LogDestination destination, List<ILoggingEvent> events) {
+				// If we didn't get an aws logs-client then just write to the
+				// emergency appender (if any)
+				if (awsLogsClient == null) {
+					lastWriteException = new IllegalStateException("CloudWatch client was not initialized");
+					appendToEmergencyAppender(events);
+					return null;
+				}
+
+				// any log output from our RPC calls is dropped by append() since we are a writer thread
+				Exception exception = null;
+				List<ILoggingEvent> remainingEvents = null;
+				try {
+					// events must be in sorted order according to AWS otherwise an exception is thrown
+					events.sort(eventTimestampComparator);
+					List<InputLogEvent> logEvents = null;
+					if (directLogsClient == null) {
+						logEvents = new ArrayList<InputLogEvent>(events.size());
+					} else {
+						if (putLogEventsEncoder == null) {
+							putLogEventsEncoder = new PutLogEventsEncoder();
+						}
+						putLogEventsEncoder.start(destination.logGroupName, destination.logStreamName);
+					}
+					requestBatch.reset();
+					for (int i = 0; i < events.size();) {
+						ILoggingEvent event = events.get(i);
+						StringBuilder message = layoutBuffer.render(layout, event);
+						int chunkCount = 1;
+						int eventBytes = messageBytes(logEvents);
+						if (eventBytes > maxEventMessageSize) {
+							chunkCount = (chunkEventMessages ? chunkMessage(message) : 0);
+							if (chunkCount > 0) {
+								eventBytes = messageBytes(logEvents) + chunkCount * chunkHeaderLength(chunkDigits);
+							} else if (truncateEventMessages || chunkEventMessages) {
+								chunkCount = 1;
+								layoutBuffer.truncate(maxEventMessageSize, truncationMarker);
+								eventBytes = messageBytes(logEvents);
+							} else {
+								events.remove(i);
+								appendToEmergencyAppender(event);
+								continue;
+							}
+						}
+						if (!requestBatch.add(event.getTimeStamp(), eventBytes, chunkCount)) {
+							// the rest go in the next request
+							List<ILoggingEvent> tail = events.subList(i, events.size());
+							remainingEvents = new ArrayList<ILoggingEvent>(tail);
+							tail.clear();
+							break;
+						}
+						if (chunkCount > 1) {
+							addChunks(logEvents, event.getTimeStamp(), message, chunkCount);
+						} else if (logEvents == null) {
+							// already encoded so it is just escaped into the body
+							putLogEventsEncoder.addEvent(event.getTimeStamp(), layoutBuffer.getBytes(),
+									layoutBuffer.getByteLength());
+						} else {
+							addLogEvent(logEvents, event.getTimeStamp(), message);
+						}
+						i++;
+					}
+					if (events.isEmpty()) {
+						// they were all too big
+						return remainingEvents;
+					}
+
+					for (int i = 0; i < PUT_REQUEST_RETRY_COUNT; i++) {
+						try {
+							if (directLogsClient == null) {
+								PutLogEventsRequest request = new PutLogEventsRequest(destination.logGroupName,
+										destination.logStreamName, logEvents);
+								if (destination.sequenceToken != null) {
+									request.withSequenceToken(destination.sequenceToken);
+								}
+								PutLogEventsResult result = awsLogsClient.putLogEvents(request);
+								destination.sequenceToken = result.getNextSequenceToken();
+							} else {
+								// only the ending of the body changes if we are retrying with a new token
+								putLogEventsEncoder.finish(destination.sequenceToken);
+								destination.sequenceToken = directLogsClient.putLogEvents(putLogEventsEncoder);
+							}
+							exception = null;
+							eventsWrittenCount.addAndGet(events.size());
+							break;
+						} catch (InvalidSequenceTokenException iste) {
+							exception = iste;
+							destination.sequenceToken = iste.getExpectedSequenceToken();
+						} catch (ResourceNotFoundException rnfe) {
+							// our remembered destination may be stale or someone deleted it out from under us
+							exception = rnfe;
+							if (!reprovisionLogDests(destination)) {
+								break;
+							}
+						}
+					}
+				} catch (DataAlreadyAcceptedException daac) {
+					exception = daac;
+					destination.sequenceToken = daac.getExpectedSequenceToken();
+				} catch (Exception e) {
+					// catch everything else to make sure we don't quit the thread
+					exception = e;
+				} finally {
+					if (exception != null) {
+						lastWriteException = exception;
+						// we do this because we don't want to go recursive
+						events.add(makeEvent(Level.ERROR,
+								"Exception thrown when creating logging " + events.size() + " events", exception));
+						appendToEmergencyAppender(events);
+					}
+				}
+				return remainingEvents;
+			}
+
+			/**
+			 * Returns the UTF-8 length of the message in the layout buffer. If we are writing the direct client's
+			 * request body, which the SDK request list is null for, then the message is encoded into the buffer's bytes
+			 * to get it.
+			 */
+			private int messageBytes(List<InputLogEvent> logEvents) {
+				if (logEvents == null) {
+					return layoutBuffer.encode();
+				} else {
+					return MiscUtils.utf8Length(layoutBuffer.getChars());
+				}
+			}
+
+			/**
+			 * Add an event to the SDK request or, if that is null, to the direct client's request body.
+			 */
+			private void addLogEvent(List<InputLogEvent> logEvents, long timestamp, CharSequence message) {
+				if (logEvents == null) {
+					putLogEventsEncoder.addEvent(timestamp, message);
+				} else {
+					logEvents.add(new InputLogEvent().withTimestamp(timestamp).withMessage(message.toString()));
+				}
+			}
+
+			/**
+			 * Work out where to split a message that is too big into chunks that each fit in the max size with their
+			 * header. If it needs more than the max number of chunks then the last one is truncated.
+			 * 
+			 * @return The number of chunks, whose ends are in chunkEnds, or 0 if the max size is too small to chunk.
+			 */
+			private int chunkMessage(StringBuilder message) {
+				int maxChunks = maxChunkCount();
+				if (chunkEnds == null || chunkEnds.length < maxChunks) {
+					chunkEnds = new int[maxChunks];
+				}
+				int digits = 1;
+				while (true) {
+					int chunkBytes = maxEventMessageSize - chunkHeaderLength(digits);
+					if (chunkBytes < 4) {
+						// can't fit a whole code-point after the header
+						return 0;
+					}
+					int count = 0;
+					int start = 0;
+					while (start < message.length() && count < maxChunks) {
+						start = MiscUtils.utf8PrefixLength(message, start, chunkBytes);
+						chunkEnds[count++] = start;
+					}
+					if (start < message.length()) {
+						// too many chunks so the last one is truncated
+						int lastStart = (count > 1 ? chunkEnds[count - 2] : 0);
+						String marker = truncationMarker;
+						if (MiscUtils.utf8Length(marker) > chunkBytes) {
+							marker = "";
+						}
+						int markerBytes = MiscUtils.utf8Length(marker);
+						message.setLength(MiscUtils.utf8PrefixLength(message, lastStart, chunkBytes - markerBytes));
+						message.append(marker);
+						chunkEnds[count - 1] = message.length();
+					}
+					int countDigits = Integer.toString(count).length();
+					if (countDigits <= digits) {
+						chunkDigits = digits;
+						return count;
+					}
+					// the headers are longer than we thought so do it again
+					digits = countDigits;
+				}
+			}
+
+			/**
+			 * Add the chunks of the message, each with a header of "[chunk id part/count] ", in order with the same
+			 * timestamp so they stay together.
+			 */
+			private void addChunks(List<InputLogEvent> logEvents, long timestamp, StringBuilder message,
+					int chunkCount) {
+				String chunkId = String.format("%0" + CHUNK_ID_LENGTH + "x", ThreadLocalRandom.current().nextInt());
+				int start = 0;
+				for (int i = 0; i < chunkCount; i++) {
+					chunkBuilder.setLength(0);
+					chunkBuilder.append(CHUNK_HEADER_PREFIX).append(chunkId).append(' ').append(i + 1).append('/');
+					chunkBuilder.append(chunkCount).append("] ").append(message, start, chunkEnds[i]);
+					start = chunkEnds[i];
+					addLogEvent(logEvents, timestamp, chunkBuilder);
+				}
+			}
+
+			/**
+			 * Max length of the header of a chunk whose part and count have this many digits.
+			 */
+			private int chunkHeaderLength(int digits) {
+				// "[chunk " + id + " " + part + "/" + count + "] "
+				return CHUNK_HEADER_PREFIX.length() + CHUNK_ID_LENGTH + 1 + digits + 1 + digits + 2;
+			}
+
+		}
+	}
+
+	/**
+	 * Put in the queue by {@link CloudWatchAppender#flush()} and completed by the writer when it gets to it.
+	 */
+	private static class FlushMarker extends LoggingEvent {
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+	}
+
+	/**
+	 * Chunk of events from {@link CloudWatchAppender#appendAll(Collection)} that takes one slot in the queue but holds
+	 * a queue permit for each of its events.
+	 */
+	private static class ChunkEvent extends LoggingEvent {
+		final List<ILoggingEvent> events;
+
+		public ChunkEvent(List<ILoggingEvent> events) {
+			this.events = events;
+		}
 	}
 
 	/**
-	 * Compares a log event by it's timestamp value.
+	 * A log-group and log-stream that we write to with its own batch of events and sequence-token.
 	 */
-	private static class InputLogEventComparator implements Comparator<InputLogEvent> {
+	private static class LogDestination {
+		final String logGroupName;
+		/** configured name of the stream which may have %tokens in it */
+		final String logStreamPattern;
+		/** only accessed by the writer after initialization */
+		String logStreamName;
+		String sequenceToken;
+		final List<ILoggingEvent> batch = new ArrayList<ILoggingEvent>();
+		/** the rest are for dynamic streams where the stream name comes from each event */
+		Ec2PatternLayout streamNameLayout;
+		/** active streams by name, in least recently used order, only set on the template destination */
+		LinkedHashMap<String, LogDestination> activeStreams;
+		/** names of streams that we have verified or created */
+		Set<String> knownStreams;
+		long lastEventMillis;
+		/** minute that the streams were counted in against the creates per minute */
+		long createMinute;
+		int createCount;
+		int skippedCreateCount;
+		/** the rest are for streams whose names roll over with the date */
+		boolean rolling;
+		/** a time that we know gives the current stream name */
+		long nameTimeMillis;
+		/** next time we look ahead for a name change */
+		long rollCheckMillis;
+		/** pre-created stream that we cut over to at the roll time or null if none yet */
+		String nextLogStreamName;
+		String nextSequenceToken;
+		long rollMillis;
+		/** thread putting the last batch if we are putting concurrently, only accessed by the writer */
+		Thread putThread;
+
+		public LogDestination(String logGroupName, String logStreamPattern) {
+			this.logGroupName = logGroupName;
+			this.logStreamPattern = logStreamPattern;
+		}
+	}
+
+	/**
+	 * Writes our events from the shared writer pool. Each run writes at most one batch so that a busy appender doesn't
+	 * starve the others sharing the pool.
+	 */
+	private class SharedWriterTask extends SharedWriterScheduler.Task {
+
+		private final CloudWatchWriter writer;
+		private final SharedWriterScheduler scheduler;
+		private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+		private volatile boolean initialized;
+		private volatile boolean stopping;
+
+		public SharedWriterTask(CloudWatchWriter writer, SharedWriterScheduler scheduler) {
+			this.writer = writer;
+			this.scheduler = scheduler;
+		}
+
+		public void start() {
+			// initialization runs in the background and doesn't tie up a pool thread
+			CompletableFuture<AWSLogs> initFuture = writer.startInitialization();
+			long readyTimeMillis = System.currentTimeMillis() + initialWaitTimeMillis;
+			initFuture.whenComplete((client, exception) -> {
+				writer.finishInitialization(client, exception);
+				initialized = true;
+				// ship whatever queued up while we were initializing without waiting for the batch timeout
+				scheduler.cancel(this);
+				scheduler.runAfter(this, readyTimeMillis - System.currentTimeMillis());
+			});
+		}
+
+		/**
+		 * Called after an event has been added to the queue.
+		 */
+		public void eventQueued() {
+			if (queuedEventCount() >= maxBatchSize) {
+				scheduler.runSoon(this);
+			} else {
+				scheduler.runAfter(this, maxBatchTimeMillis);
+			}
+		}
+
+		/**
+		 * Called after a flush marker or a chunk of events has been added to the queue.
+		 */
+		public void writeSoon() {
+			scheduler.runSoon(this);
+		}
+
+		/**
+		 * Write the rest of the events and wait for up to the timeout for them to finish.
+		 */
+		public void stop(long timeoutMillis) {
+			stopping = true;
+			scheduler.cancel(this);
+			scheduler.runSoon(this);
+			try {
+				stoppedLatch.await(timeoutMillis, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// the pool finishes our run if we timed out before it is shut down
+			scheduler.release();
+		}
+
 		@Override
-		public int compare(InputLogEvent o1, InputLogEvent o2) {
-			if (o1.getTimestamp() == null) {
-				if (o2.getTimestamp() == null) {
-					return 0;
+		protected void runOnce() {
+			if (stopping) {
+				if (initialized) {
+					writer.writeRemainingEvents();
 				} else {
-					// null - long
-					return -1;
+					writer.abandonQueuedEvents();
 				}
-			} else if (o2.getTimestamp() == null) {
-				// long - null
-				return 1;
-			} else {
-				return o1.getTimestamp().compareTo(o2.getTimestamp());
+				stoppedLatch.countDown();
+				return;
+			}
+			if (!initialized) {
+				return;
+			}
+			if (writer.writeQueuedBatch()) {
+				int queued = loggingEventQueue.size();
+				if (queuedEventCount() >= maxBatchSize || (queued > 0 && pendingFlushCount.get() > 0)) {
+					scheduler.runSoon(this);
+				} else if (queued > 0) {
+					scheduler.runAfter(this, maxBatchTimeMillis);
+				}
+			} else if (writer.nextRepeatSummaryMillis() <= System.currentTimeMillis()) {
+				// nothing was queued but a window with suppressed repeats has closed
+				writer.writeAllBatches();
 			}
+			long summaryMillis = writer.nextRepeatSummaryMillis();
+			if (summaryMillis != Long.MAX_VALUE) {
+				scheduler.runAfter(this, summaryMillis - System.currentTimeMillis());
+			}
+		}
+	}
+
+	/**
+	 * Creates the daemon threads that run the initialization steps. They are writer threads while they run so they
+	 * never log through us and we don't go recursive.
+	 */
+	private class InitThreadFactory implements ThreadFactory {
+
+		private int threadCount;
+
+		@Override
+		public synchronized Thread newThread(final Runnable runnable) {
+			final Thread thread = CloudWatchAppender.this.newThread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						runnable.run();
+					} finally {
+						removeWriterThread(Thread.currentThread());
+					}
+				}
+			}, CloudWatchAppender.this.getClass().getSimpleName() + "-init-" + (++threadCount));
+			addWriterThread(thread);
+			return thread;
 		}
 	}
 }
@@ -0,0 +1,11 @@
+package com.j256.cloudwatchlogbackappender;
+
+/**
+ * Marker for our converters whose output does not depend on the logging event. Their output only changes when the
+ * {@link EnvironmentValueCache} version changes so the {@link Ec2PatternLayout} can fold them, along with the literal
+ * text around them, into a precomputed string.
+ * 
+ * @author graywatson
+ */
+public interface ConstantConverter {
+}
@@ -0,0 +1,115 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Small local file which records the log-groups and log-streams that we know exist so that restarts don't have to
+ * make any CloudWatch control-plane calls. It is one entry per line and is only appended to unless an entry turns out
+ * to be stale.
+ *
+ * @author graywatson
+ */
+public class DestinationCache {
+
+	private static final String SEPARATOR = ":";
+
+	private final Path path;
+	private final Set<String> destinations = new HashSet<String>();
+
+	public DestinationCache(String path) {
+		this.path = Paths.get(path);
+	}
+
+	/**
+	 * Load the entries from the file if it exists.
+	 */
+	public synchronized void load() throws IOException {
+		destinations.clear();
+		if (!Files.exists(path)) {
+			return;
+		}
+		for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+			line = line.trim();
+			if (!line.isEmpty()) {
+				destinations.add(line);
+			}
+		}
+	}
+
+	public synchronized boolean containsGroup(String region, String logGroup) {
+		return destinations.contains(groupKey(region, logGroup));
+	}
+
+	public synchronized boolean containsStream(String region, String logGroup, String logStream) {
+		return destinations.contains(streamKey(region, logGroup, logStream));
+	}
+
+	/**
+	 * Record that the log-group exists.
+	 */
+	public void addGroup(String region, String logGroup) throws IOException {
+		add(groupKey(region, logGroup));
+	}
+
+	/**
+	 * Record that the log-stream exists.
+	 */
+	public void addStream(String region, String logGroup, String logStream) throws IOException {
+		add(streamKey(region, logGroup, logStream));
+	}
+
+	/**
+	 * Forget about the log-group and all of its streams because CloudWatch told us they don't exist anymore.
+	 */
+	public synchronized void removeGroup(String region, String logGroup) throws IOException {
+		String groupKey = groupKey(region, logGroup);
+		String streamPrefix = groupKey + SEPARATOR;
+		boolean removed = destinations.remove(groupKey);
+		removed |= destinations.removeIf(key -> key.startsWith(streamPrefix));
+		if (removed) {
+			rewrite();
+		}
+	}
+
+	private synchronized void add(String key) throws IOException {
+		if (!destinations.add(key)) {
+			return;
+		}
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) {
+			Files.createDirectories(parent);
+		}
+		// one write per line so multiple processes sharing the file don't interleave entries
+		try (Writer writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND)) {
+			writer.write(key + "\n");
+		}
+	}
+
+	private void rewrite() throws IOException {
+		List<String> lines = new ArrayList<String>(destinations);
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(tempPath, lines, StandardCharsets.UTF_8);
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static String groupKey(String region, String logGroup) {
+		// neither the log-group nor the log-stream (after our replacement) can contain the separator
+		return region + SEPARATOR + logGroup;
+	}
+
+	private static String streamKey(String region, String logGroup, String logStream) {
+		return groupKey(region, logGroup) + SEPARATOR + logStream;
+	}
+}
@@ -0,0 +1,306 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.auth.AWSCredentials;
+import com.amazonaws.auth.AWSCredentialsProvider;
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.regions.Region;
+import com.amazonaws.regions.RegionUtils;
+import com.amazonaws.services.logs.model.DataAlreadyAcceptedException;
+import com.amazonaws.services.logs.model.InvalidSequenceTokenException;
+import com.amazonaws.services.logs.model.ResourceNotFoundException;
+
+/**
+ * Posts PutLogEvents request bodies written by the {@link PutLogEventsEncoder} straight to the CloudWatch Logs
+ * endpoint, signing them ourselves and using the JDK's pooled HTTP client. Errors are thrown as the same AWS SDK
+ * exceptions that the SDK client would throw so the writer handles both the same way. Like the SDK client, throttling,
+ * server errors, and IO problems are retried a couple of times with exponential backoff. All of the clients share one
+ * JDK HTTP client, and its connections, which is shut down when the last of them is.
+ *
+ * @author graywatson
+ */
+public class DirectLogsClient {
+
+	private static final String SERVICE_NAME = "logs";
+	private static final String PUT_LOG_EVENTS_TARGET = "Logs_20140328.PutLogEvents";
+	private static final String CONTENT_TYPE = "application/x-amz-json-1.1";
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+	/** same as the SDK's default retry policy */
+	public static final int DEFAULT_MAX_RETRIES = 3;
+	private static final long BASE_BACKOFF_MILLIS = 100;
+	private static final long MAX_BACKOFF_MILLIS = 20000;
+
+	private final URI endpoint;
+	private final String host;
+	private final AWSCredentialsProvider credentialsProvider;
+	private final AwsV4Signer signer;
+	private final HttpClient httpClient;
+	private final int maxRetries;
+	private final AtomicBoolean shutdown = new AtomicBoolean();
+
+	/**
+	 * Call {@link #shutdown()} when done with the client.
+	 * 
+	 * @param endpoint
+	 *            Endpoint URL or null to use the standard one for the region, including the China and GovCloud
+	 *            partitions.
+	 */
+	public DirectLogsClient(String endpoint, String region, AWSCredentialsProvider credentialsProvider) {
+		this(endpoint, region, credentialsProvider, DEFAULT_MAX_RETRIES);
+	}
+
+	/**
+	 * Call {@link #shutdown()} when done with the client.
+	 * 
+	 * @param endpoint
+	 *            Endpoint URL or null to use the standard one for the region, including the China and GovCloud
+	 *            partitions.
+	 * @param maxRetries
+	 *            Number of times to retry a throttled or failed request.
+	 */
+	public DirectLogsClient(String endpoint, String region, AWSCredentialsProvider credentialsProvider,
+			int maxRetries) {
+		this.maxRetries = maxRetries;
+		if (MiscUtils.isBlank(endpoint)) {
+			endpoint = "https://" + regionEndpoint(region);
+		}
+		URI uri = URI.create(endpoint);
+		if (uri.getPath() == null || uri.getPath().isEmpty()) {
+			uri = uri.resolve("/");
+		}
+		this.endpoint = uri;
+		// this needs to match what the http-client sends
+		if (uri.getPort() < 0) {
+			this.host = uri.getHost();
+		} else {
+			this.host = uri.getHost() + ":" + uri.getPort();
+		}
+		this.credentialsProvider = credentialsProvider;
+		this.signer = new AwsV4Signer(region, SERVICE_NAME);
+		this.httpClient = LogsClientRegistry.acquireHttpClient(executor -> HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.connectTimeout(CONNECT_TIMEOUT)
+				.executor(executor)
+				.build());
+	}
+
+	/**
+	 * Release our hold on the shared HTTP client. The client can't be used after this.
+	 */
+	public void shutdown() {
+		if (shutdown.compareAndSet(false, true)) {
+			LogsClientRegistry.releaseHttpClient();
+		}
+	}
+
+	/**
+	 * Post the finished body from the encoder, retrying if we are throttled or get a server or IO error.
+	 *
+	 * @return The next sequence-token returned by CloudWatch which may be null.
+	 */
+	public String putLogEvents(PutLogEventsEncoder encoder) {
+		for (int attempt = 0;; attempt++) {
+			HttpResponse<String> response;
+			try {
+				response = httpClient.send(buildRequest(encoder),
+						HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				if (attempt >= maxRetries) {
+					throw new AmazonClientException("Problems posting log events to " + endpoint, e);
+				}
+				backoff(attempt);
+				continue;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new AmazonClientException("Interrupted posting log events to " + endpoint, e);
+			}
+			String body = response.body();
+			if (response.statusCode() == 200) {
+				return findJsonString(body, "nextSequenceToken");
+			}
+			AmazonServiceException exception = buildException(response.statusCode(), body);
+			if (attempt >= maxRetries || !isRetryable(exception)) {
+				throw exception;
+			}
+			backoff(attempt);
+		}
+	}
+
+	/**
+	 * Sign and build the request. This is done for each attempt so the date is current.
+	 */
+	private HttpRequest buildRequest(PutLogEventsEncoder encoder) {
+		AWSCredentials credentials = credentialsProvider.getCredentials();
+		String amzDate = AwsV4Signer.formatAmzDate(ZonedDateTime.now());
+		Map<String, String> headers = new HashMap<String, String>();
+		headers.put("content-type", CONTENT_TYPE);
+		headers.put("host", host);
+		headers.put("x-amz-date", amzDate);
+		headers.put("x-amz-target", PUT_LOG_EVENTS_TARGET);
+		if (credentials instanceof AWSSessionCredentials) {
+			headers.put("x-amz-security-token", ((AWSSessionCredentials) credentials).getSessionToken());
+		}
+		String authorization = signer.sign("POST", endpoint.getRawPath(), headers, encoder.getPayloadHash(), amzDate,
+				credentials.getAWSAccessKeyId(), credentials.getAWSSecretKey());
+
+		HttpRequest.Builder builder = HttpRequest.newBuilder(endpoint)
+				.timeout(REQUEST_TIMEOUT)
+				.POST(HttpRequest.BodyPublishers.ofByteArray(encoder.getBuffer(), 0, encoder.getLength()))
+				.header("Authorization", authorization);
+		for (Map.Entry<String, String> entry : headers.entrySet()) {
+			if (!"host".equals(entry.getKey())) {
+				// the http-client sets the host itself
+				builder.header(entry.getKey(), entry.getValue());
+			}
+		}
+		return builder.build();
+	}
+
+	private static boolean isRetryable(AmazonServiceException exception) {
+		int statusCode = exception.getStatusCode();
+		return (statusCode == 429 || statusCode >= 500 || "ThrottlingException".equals(exception.getErrorCode()));
+	}
+
+	/**
+	 * Sleep for a random time between half and all of the exponential backoff of the attempt.
+	 */
+	private void backoff(int attempt) {
+		long maxMillis = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << attempt);
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(maxMillis / 2, maxMillis + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new AmazonClientException("Interrupted retrying log events to " + endpoint, e);
+		}
+	}
+
+	/**
+	 * Host name of the logs endpoint in the region from the SDK's region metadata which knows about the partitions.
+	 */
+	static String regionEndpoint(String region) {
+		Region sdkRegion = RegionUtils.getRegion(region);
+		if (sdkRegion == null) {
+			throw new IllegalArgumentException("Unknown region '" + region + "', the endpoint must be set");
+		}
+		return sdkRegion.getServiceEndpoint(SERVICE_NAME);
+	}
+
+	/**
+	 * Turn an error response into the exception the SDK would have thrown.
+	 */
+	private static AmazonServiceException buildException(int statusCode, String body) {
+		String type = findJsonString(body, "__type");
+		if (type != null && type.indexOf('#') >= 0) {
+			type = type.substring(type.indexOf('#') + 1);
+		}
+		String message = findJsonString(body, "message");
+		if (message == null) {
+			message = findJsonString(body, "Message");
+		}
+		AmazonServiceException exception;
+		if ("InvalidSequenceTokenException".equals(type)) {
+			InvalidSequenceTokenException iste = new InvalidSequenceTokenException(message);
+			iste.setExpectedSequenceToken(findJsonString(body, "expectedSequenceToken"));
+			exception = iste;
+		} else if ("DataAlreadyAcceptedException".equals(type)) {
+			DataAlreadyAcceptedException daae = new DataAlreadyAcceptedException(message);
+			daae.setExpectedSequenceToken(findJsonString(body, "expectedSequenceToken"));
+			exception = daae;
+		} else if ("ResourceNotFoundException".equals(type)) {
+			exception = new ResourceNotFoundException(message);
+		} else {
+			exception = new AmazonServiceException(message == null ? body : message);
+		}
+		exception.setErrorCode(type);
+		exception.setStatusCode(statusCode);
+		exception.setServiceName("AWSLogs");
+		exception.setErrorType(statusCode >= 500 ? ErrorType.Service : ErrorType.Client);
+		return exception;
+	}
+
+	/**
+	 * Find the string value of a field in a JSON document. We only need a couple of top-level fields out of the small
+	 * responses so this doesn't need to be a real parser.
+	 */
+	static String findJsonString(String json, String field) {
+		if (json == null) {
+			return null;
+		}
+		String key = "\"" + field + "\"";
+		int index = json.indexOf(key);
+		if (index < 0) {
+			return null;
+		}
+		int pos = skipWhitespace(json, index + key.length());
+		if (pos >= json.length() || json.charAt(pos) != ':') {
+			return null;
+		}
+		pos = skipWhitespace(json, pos + 1);
+		if (pos >= json.length() || json.charAt(pos) != '"') {
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for (pos++; pos < json.length(); pos++) {
+			char ch = json.charAt(pos);
+			if (ch == '"') {
+				return sb.toString();
+			}
+			if (ch != '\\' || pos + 1 >= json.length()) {
+				sb.append(ch);
+				continue;
+			}
+			ch = json.charAt(++pos);
+			switch (ch) {
+				case 'n':
+					sb.append('\n');
+					break;
+				case 'r':
+					sb.append('\r');
+					break;
+				case 't':
+					sb.append('\t');
+					break;
+				case 'b':
+					sb.append('\b');
+					break;
+				case 'f':
+					sb.append('\f');
+					break;
+				case 'u':
+					if (pos + 4 < json.length()) {
+						sb.append((char) Integer.parseInt(json.substring(pos + 1, pos + 5), 16));
+						pos += 4;
+					}
+					break;
+				default:
+					sb.append(ch);
+					break;
+			}
+		}
+		// unterminated
+		return null;
+	}
+
+	private static int skipWhitespace(String json, int pos) {
+		while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+			pos++;
+		}
+		return pos;
+	}
+}
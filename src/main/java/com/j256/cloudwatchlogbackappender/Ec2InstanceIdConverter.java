@@ -8,7 +8,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
  * 
  * @author graywatson
  */
-public class Ec2InstanceIdConverter extends ClassicConverter {
+public class Ec2InstanceIdConverter extends ClassicConverter implements ConstantConverter {
 
 	private static final String DEFAULT_INSTANCE_ID = "unknown";
 
@@ -25,5 +25,6 @@ public class Ec2InstanceIdConverter extends ClassicConverter {
 		} else {
 			Ec2InstanceIdConverter.instanceId = instanceId;
 		}
+		EnvironmentValueCache.bumpVersion();
 	}
 }
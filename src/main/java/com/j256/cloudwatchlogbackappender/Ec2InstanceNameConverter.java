@@ -8,7 +8,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
  * 
  * @author graywatson
  */
-public class Ec2InstanceNameConverter extends ClassicConverter {
+public class Ec2InstanceNameConverter extends ClassicConverter implements ConstantConverter {
 
 	private static final String DEFAULT_INSTANCE_NAME = "unknown";
 
@@ -25,5 +25,6 @@ public class Ec2InstanceNameConverter extends ClassicConverter {
 		} else {
 			Ec2InstanceNameConverter.instanceName = instanceName;
 		}
+		EnvironmentValueCache.bumpVersion();
 	}
 }
@@ -1,10 +1,23 @@
 package com.j256.cloudwatchlogbackappender;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.CoreConstants;
+import ch.qos.logback.core.pattern.Converter;
+import ch.qos.logback.core.pattern.LiteralConverter;
+import ch.qos.logback.core.pattern.PostCompileProcessor;
 
 /**
  * Extension of the pattern layout which handles some replacements specific to EC2. It replaces "%instance",
  * "%instanceName", and "%in" with the instance name. It also replaces "%instanceId" and "%iid" with the instance-id.
+ * "%fingerprintThrowable" and "%fpThrowable" write repeats of the same stack-trace as a short reference, see
+ * {@link ThrowableFingerprintConverter}.
+ * 
+ * When started, runs of the {@link ConstantConverter} tokens and the literal text around them are folded into
+ * precomputed strings so each event only runs the converters whose output actually depends on it.
  * 
  * @author graywatson
  */
@@ -28,5 +41,108 @@ public class Ec2PatternLayout extends PatternLayout {
 		DEFAULT_CONVERTER_MAP.put("systemEnviron", SystemEnvironConverter.class.getName());
 		DEFAULT_CONVERTER_MAP.put("environ", SystemEnvironConverter.class.getName());
 		DEFAULT_CONVERTER_MAP.put("env", SystemEnvironConverter.class.getName());
+		DEFAULT_CONVERTER_MAP.put("fingerprintThrowable", ThrowableFingerprintConverter.class.getName());
+		DEFAULT_CONVERTER_MAP.put("fpThrowable", ThrowableFingerprintConverter.class.getName());
+	}
+
+	private Converter<ILoggingEvent> head;
+	private long throwableWindowMillis = ThrowableFingerprintConverter.DEFAULT_WINDOW_MILLIS;
+	private int throwableCacheSize = ThrowableFingerprintConverter.DEFAULT_MAX_CACHE_SIZE;
+	private List<Converter<ILoggingEvent>> foldedConverters;
+
+	public Ec2PatternLayout() {
+		// the chain head isn't visible to us so we grab it after the pattern is compiled
+		final PostCompileProcessor<ILoggingEvent> delegate = postCompileProcessor;
+		postCompileProcessor = (context, head) -> {
+			if (delegate != null) {
+				delegate.process(context, head);
+			}
+			Ec2PatternLayout.this.head = head;
+		};
+	}
+
+	@Override
+	public void start() {
+		head = null;
+		foldedConverters = null;
+		super.start();
+		for (Converter<ILoggingEvent> converter = head; converter != null; converter = converter.getNext()) {
+			if (converter instanceof ThrowableFingerprintConverter) {
+				ThrowableFingerprintConverter fingerprintConverter = (ThrowableFingerprintConverter) converter;
+				fingerprintConverter.setWindowMillis(throwableWindowMillis);
+				fingerprintConverter.setMaxCacheSize(throwableCacheSize);
+			}
+		}
+		if (isStarted()) {
+			// the converters have to be started before we can render them
+			foldedConverters = foldConverters(head);
+		}
+	}
+
+	@Override
+	public String doLayout(ILoggingEvent event) {
+		if (!isStarted()) {
+			return CoreConstants.EMPTY_STRING;
+		}
+		if (foldedConverters == null) {
+			return super.doLayout(event);
+		}
+		StringBuilder sb = new StringBuilder(256);
+		doLayout(event, sb);
+		return sb.toString();
+	}
+
+	// not required, default is ThrowableFingerprintConverter.DEFAULT_WINDOW_MILLIS
+	public void setThrowableWindowMillis(long throwableWindowMillis) {
+		this.throwableWindowMillis = throwableWindowMillis;
+	}
+
+	// not required, default is ThrowableFingerprintConverter.DEFAULT_MAX_CACHE_SIZE
+	public void setThrowableCacheSize(int throwableCacheSize) {
+		this.throwableCacheSize = throwableCacheSize;
+	}
+
+	/**
+	 * Append the layout of the event to a buffer that the caller can reuse from event to event.
+	 */
+	public void doLayout(ILoggingEvent event, StringBuilder sb) {
+		if (!isStarted()) {
+			return;
+		}
+		if (foldedConverters == null) {
+			sb.append(super.doLayout(event));
+			return;
+		}
+		for (Converter<ILoggingEvent> converter : foldedConverters) {
+			converter.write(sb, event);
+		}
+	}
+
+	/**
+	 * Walk the converter chain and replace each run of constant converters with a single folded converter.
+	 */
+	private static List<Converter<ILoggingEvent>> foldConverters(Converter<ILoggingEvent> head) {
+		List<Converter<ILoggingEvent>> result = new ArrayList<Converter<ILoggingEvent>>();
+		List<Converter<ILoggingEvent>> run = new ArrayList<Converter<ILoggingEvent>>();
+		for (Converter<ILoggingEvent> converter = head; converter != null; converter = converter.getNext()) {
+			if (converter instanceof ConstantConverter || converter instanceof LiteralConverter) {
+				run.add(converter);
+			} else {
+				addRun(result, run);
+				run = new ArrayList<Converter<ILoggingEvent>>();
+				result.add(converter);
+			}
+		}
+		addRun(result, run);
+		return result;
+	}
+
+	private static void addRun(List<Converter<ILoggingEvent>> result, List<Converter<ILoggingEvent>> run) {
+		if (run.size() == 1 && run.get(0) instanceof LiteralConverter) {
+			// nothing to gain by folding a lone literal
+			result.add(run.get(0));
+		} else if (!run.isEmpty()) {
+			result.add(new FoldedConverter(run));
+		}
 	}
 }
@@ -0,0 +1,171 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Shared cache of environment values such as the host-name or system-properties used by the layout converters. Each
+ * value is resolved once when a converter starts and then refreshed by a background thread so the logging threads
+ * never have to do a DNS lookup or the like. The thread runs while any converter that registered a value is started.
+ *
+ * @author graywatson
+ */
+public class EnvironmentValueCache {
+
+	/** how often to refresh the values in the background, 0 to never refresh */
+	public static final long DEFAULT_REFRESH_MILLIS = 60000;
+
+	private static final ConcurrentMap<String, CachedValue> values = new ConcurrentHashMap<String, CachedValue>();
+	private static long refreshMillis = DEFAULT_REFRESH_MILLIS;
+	private static ScheduledExecutorService refreshExecutor;
+	private static ScheduledFuture<?> refreshFuture;
+	private static int registeredCount;
+	private static volatile int version;
+
+	/**
+	 * Register a value under a key, resolving it now if it has not already been registered. The returned value can
+	 * be read by the logging threads without blocking. Each call should be matched by a call to {@link #release()}
+	 * when the converter stops.
+	 */
+	public static CachedValue register(String key, Supplier<String> resolver) {
+		CachedValue value = values.get(key);
+		if (value == null) {
+			// resolved outside of the map so a slow lookup doesn't block registering other keys
+			CachedValue newValue = new CachedValue(resolver);
+			value = values.putIfAbsent(key, newValue);
+			if (value == null) {
+				value = newValue;
+			}
+		}
+		addRegistration();
+		return value;
+	}
+
+	/**
+	 * Called when a converter that registered a value stops. The background thread is shut down once the last of them
+	 * has stopped and is started again by the next registration.
+	 */
+	public static synchronized void release() {
+		if (registeredCount > 0 && --registeredCount == 0) {
+			stopRefresh();
+		}
+	}
+
+	/**
+	 * Set how often the values are refreshed in the background. Set to 0 to never refresh them.
+	 */
+	public static synchronized void setRefreshMillis(long refreshMillis) {
+		EnvironmentValueCache.refreshMillis = refreshMillis;
+		if (refreshFuture != null) {
+			refreshFuture.cancel(false);
+			refreshFuture = null;
+		}
+		scheduleRefresh();
+	}
+
+	/**
+	 * Resolve all of the values again. This is what the background thread calls.
+	 */
+	public static void refreshAll() {
+		for (CachedValue value : values.values()) {
+			value.refresh();
+		}
+	}
+
+	/**
+	 * Returns a number that changes whenever one of the environment values, or the instance name or id, changes.
+	 */
+	public static int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Called when an environment value changes so anything that cached it will render it again.
+	 */
+	static synchronized void bumpVersion() {
+		version++;
+	}
+
+	/*
+	 * For testing purposes.
+	 */
+	static synchronized void clear() {
+		values.clear();
+		registeredCount = 0;
+		stopRefresh();
+	}
+
+	/*
+	 * For testing purposes.
+	 */
+	static synchronized boolean isRefreshRunning() {
+		return (refreshExecutor != null);
+	}
+
+	private static synchronized void addRegistration() {
+		registeredCount++;
+		scheduleRefresh();
+	}
+
+	private static synchronized void scheduleRefresh() {
+		if (refreshFuture != null || refreshMillis <= 0 || registeredCount == 0) {
+			return;
+		}
+		if (refreshExecutor == null) {
+			refreshExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, EnvironmentValueCache.class.getSimpleName());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		refreshFuture = refreshExecutor.scheduleWithFixedDelay(EnvironmentValueCache::refreshAll, refreshMillis,
+				refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	private static synchronized void stopRefresh() {
+		if (refreshFuture != null) {
+			refreshFuture.cancel(false);
+			refreshFuture = null;
+		}
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdownNow();
+			refreshExecutor = null;
+		}
+	}
+
+	/**
+	 * Value that was resolved at registration and is refreshed in the background.
+	 */
+	public static class CachedValue {
+
+		private final Supplier<String> resolver;
+		private volatile String value;
+
+		private CachedValue(Supplier<String> resolver) {
+			this.resolver = resolver;
+			this.value = resolver.get();
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		private void refresh() {
+			try {
+				String newValue = resolver.get();
+				if (!Objects.equals(value, newValue)) {
+					value = newValue;
+					bumpVersion();
+				}
+			} catch (RuntimeException e) {
+				// keep the old value which is better than nothing
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Map;
+
+import ch.qos.logback.classic.pattern.CallerDataConverter;
+import ch.qos.logback.classic.pattern.ClassOfCallerConverter;
+import ch.qos.logback.classic.pattern.ContextNameConverter;
+import ch.qos.logback.classic.pattern.DateConverter;
+import ch.qos.logback.classic.pattern.FileOfCallerConverter;
+import ch.qos.logback.classic.pattern.KeyValuePairConverter;
+import ch.qos.logback.classic.pattern.LevelConverter;
+import ch.qos.logback.classic.pattern.LineOfCallerConverter;
+import ch.qos.logback.classic.pattern.LineSeparatorConverter;
+import ch.qos.logback.classic.pattern.LocalSequenceNumberConverter;
+import ch.qos.logback.classic.pattern.LoggerConverter;
+import ch.qos.logback.classic.pattern.MDCConverter;
+import ch.qos.logback.classic.pattern.MarkerConverter;
+import ch.qos.logback.classic.pattern.MessageConverter;
+import ch.qos.logback.classic.pattern.MethodOfCallerConverter;
+import ch.qos.logback.classic.pattern.MicrosecondConverter;
+import ch.qos.logback.classic.pattern.NopThrowableInformationConverter;
+import ch.qos.logback.classic.pattern.PropertyConverter;
+import ch.qos.logback.classic.pattern.RelativeTimeConverter;
+import ch.qos.logback.classic.pattern.SequenceNumberConverter;
+import ch.qos.logback.classic.pattern.ThreadConverter;
+import ch.qos.logback.classic.pattern.ThrowableHandlingConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+import ch.qos.logback.core.pattern.CompositeConverter;
+import ch.qos.logback.core.pattern.PatternLayoutBase;
+import ch.qos.logback.core.pattern.parser.CompositeNode;
+import ch.qos.logback.core.pattern.parser.Node;
+import ch.qos.logback.core.pattern.parser.Parser;
+import ch.qos.logback.core.pattern.parser.SimpleKeywordNode;
+import ch.qos.logback.core.spi.ScanException;
+
+/**
+ * Which of the optional fields of an event can be read by the layouts, routes, and log-stream names of the appender.
+ * The level, logger, message, thread, and timestamp are always copied but the rest are only copied when the converters
+ * that read them are used. Layouts and converters that we don't know about are assumed to read everything.
+ *
+ * @author graywatson
+ */
+class EventFields {
+
+	/** converters that don't read any of the optional fields, composites have their children checked separately */
+	private static final Class<?>[] PLAIN_CONVERTERS = new Class<?>[] { ConstantConverter.class, DateConverter.class,
+			LevelConverter.class, LoggerConverter.class, ThreadConverter.class, LineSeparatorConverter.class,
+			MicrosecondConverter.class, SequenceNumberConverter.class, LocalSequenceNumberConverter.class,
+			KeyValuePairConverter.class, CallerDataConverter.class, ClassOfCallerConverter.class,
+			MethodOfCallerConverter.class, LineOfCallerConverter.class, FileOfCallerConverter.class,
+			CompositeConverter.class };
+
+	boolean arguments;
+	boolean markers;
+	boolean mdc;
+	boolean throwable;
+	boolean contextVO;
+
+	/**
+	 * Mark all of the fields as read.
+	 */
+	public void addAll() {
+		arguments = true;
+		markers = true;
+		mdc = true;
+		throwable = true;
+		contextVO = true;
+	}
+
+	/**
+	 * Add the fields read by a layout.
+	 */
+	public void addLayout(Layout<ILoggingEvent> layout) {
+		if (!(layout instanceof PatternLayoutBase)) {
+			addAll();
+			return;
+		}
+		PatternLayoutBase<ILoggingEvent> patternLayout = (PatternLayoutBase<ILoggingEvent>) layout;
+		if (!addPattern(patternLayout.getPattern(), patternLayout.getEffectiveConverterMap())) {
+			// the layout adds a throwable converter to the end if there isn't one
+			throwable = true;
+		}
+	}
+
+	/**
+	 * Add the fields read by the layout of the appender if it writes with one.
+	 */
+	public void addAppender(Appender<ILoggingEvent> appender) {
+		if (appender instanceof OutputStreamAppender) {
+			Encoder<ILoggingEvent> encoder = ((OutputStreamAppender<ILoggingEvent>) appender).getEncoder();
+			if (encoder instanceof LayoutWrappingEncoder) {
+				addLayout(((LayoutWrappingEncoder<ILoggingEvent>) encoder).getLayout());
+				return;
+			}
+		}
+		addAll();
+	}
+
+	/**
+	 * Add the fields read by the converters in a pattern.
+	 *
+	 * @return True if the pattern has a throwable converter.
+	 */
+	public boolean addPattern(String pattern, Map<String, String> converterMap) {
+		if (pattern == null) {
+			return false;
+		}
+		Node head;
+		try {
+			head = new Parser<ILoggingEvent>(pattern).parse();
+		} catch (ScanException e) {
+			addAll();
+			return true;
+		}
+		return addNodes(head, converterMap);
+	}
+
+	private boolean addNodes(Node node, Map<String, String> converterMap) {
+		boolean hasThrowable = false;
+		for (; node != null; node = node.getNext()) {
+			if (!(node instanceof SimpleKeywordNode)) {
+				// literal
+				continue;
+			}
+			if (node instanceof CompositeNode) {
+				hasThrowable |= addNodes(((CompositeNode) node).getChildNode(), converterMap);
+			}
+			Class<?> converterClass = converterClass(converterMap.get((String) node.getValue()));
+			if (converterClass == null) {
+				addAll();
+				hasThrowable = true;
+			} else if (ThrowableHandlingConverter.class.isAssignableFrom(converterClass)) {
+				// %nopex turns off the throwable being added at the end
+				throwable |= !NopThrowableInformationConverter.class.isAssignableFrom(converterClass);
+				hasThrowable = true;
+			} else if (MessageConverter.class.isAssignableFrom(converterClass)) {
+				arguments = true;
+			} else if (MDCConverter.class.isAssignableFrom(converterClass)) {
+				mdc = true;
+			} else if (MarkerConverter.class.isAssignableFrom(converterClass)) {
+				markers = true;
+			} else if (ContextNameConverter.class.isAssignableFrom(converterClass)
+					|| PropertyConverter.class.isAssignableFrom(converterClass)
+					|| RelativeTimeConverter.class.isAssignableFrom(converterClass)) {
+				contextVO = true;
+			} else if (!isPlainConverter(converterClass)) {
+				// some converter that we don't know about
+				addAll();
+			}
+		}
+		return hasThrowable;
+	}
+
+	private static Class<?> converterClass(String className) {
+		if (className == null) {
+			return null;
+		}
+		try {
+			return Class.forName(className, false, EventFields.class.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	private static boolean isPlainConverter(Class<?> converterClass) {
+		for (Class<?> plainClass : PLAIN_CONVERTERS) {
+			if (plainClass.isAssignableFrom(converterClass)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,60 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.List;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.pattern.Converter;
+
+/**
+ * Converter which replaces a run of constant converters and literals with their rendered output. It is only rendered
+ * again if the {@link EnvironmentValueCache} version changes, such as when the instance-name lookup finishes.
+ * 
+ * @author graywatson
+ */
+class FoldedConverter extends Converter<ILoggingEvent> {
+
+	/** constant converters don't look at the event but we don't want to pass them a null */
+	private static final ILoggingEvent EMPTY_EVENT = new LoggingEvent();
+
+	private final List<Converter<ILoggingEvent>> converters;
+	private volatile Rendered rendered;
+
+	public FoldedConverter(List<Converter<ILoggingEvent>> converters) {
+		this.converters = converters;
+	}
+
+	@Override
+	public String convert(ILoggingEvent event) {
+		Rendered current = rendered;
+		int version = EnvironmentValueCache.getVersion();
+		if (current == null || current.version != version) {
+			// get the version before we render so if it changes while rendering we will do it again next time
+			StringBuilder sb = new StringBuilder();
+			for (Converter<ILoggingEvent> converter : converters) {
+				converter.write(sb, EMPTY_EVENT);
+			}
+			current = new Rendered(sb.toString(), version);
+			rendered = current;
+		}
+		return current.text;
+	}
+
+	@Override
+	public void write(StringBuilder buf, ILoggingEvent event) {
+		buf.append(convert(event));
+	}
+
+	/**
+	 * Rendered text and the version it was rendered with so they can be swapped together.
+	 */
+	private static class Rendered {
+		final String text;
+		final int version;
+
+		public Rendered(String text, int version) {
+			this.text = text;
+			this.version = version;
+		}
+	}
+}
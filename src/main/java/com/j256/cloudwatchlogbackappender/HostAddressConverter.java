@@ -3,18 +3,49 @@ package com.j256.cloudwatchlogbackappender;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import com.j256.cloudwatchlogbackappender.EnvironmentValueCache.CachedValue;
+
 import ch.qos.logback.classic.pattern.ClassicConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
 /**
- * Get the local host ip-address returned by InetAddress.getLocalHost().
+ * Get the local host ip-address returned by InetAddress.getLocalHost(). The value is cached and refreshed in the
+ * background by the {@link EnvironmentValueCache} so we don't go to DNS on every log line.
  * 
  * @author graywatson
  */
-public class HostAddressConverter extends ClassicConverter {
+public class HostAddressConverter extends ClassicConverter implements ConstantConverter {
+
+	private CachedValue hostAddress;
+
+	@Override
+	public void start() {
+		super.start();
+		hostAddress = EnvironmentValueCache.register("hostAddress", HostAddressConverter::lookupHostAddress);
+		if (getContext() != null) {
+			getContext().register(this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (isStarted() && hostAddress != null) {
+			EnvironmentValueCache.release();
+		}
+		super.stop();
+	}
 
 	@Override
 	public String convert(ILoggingEvent event) {
+		if (hostAddress == null) {
+			// not started
+			return lookupHostAddress();
+		} else {
+			return hostAddress.getValue();
+		}
+	}
+
+	private static String lookupHostAddress() {
 		try {
 			return InetAddress.getLocalHost().getHostAddress();
 		} catch (UnknownHostException e) {
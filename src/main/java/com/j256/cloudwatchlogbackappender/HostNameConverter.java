@@ -3,18 +3,50 @@ package com.j256.cloudwatchlogbackappender;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 
+import com.j256.cloudwatchlogbackappender.EnvironmentValueCache.CachedValue;
+
 import ch.qos.logback.classic.pattern.ClassicConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
 /**
- * Get the local hostname returned by InetAddress.getLocalHost().
+ * Get the local hostname returned by InetAddress.getLocalHost(). The value is cached and refreshed in the background
+ * by the {@link EnvironmentValueCache} so we don't go to DNS on every log line.
  * 
  * @author graywatson
  */
-public class HostNameConverter extends ClassicConverter {
+public class HostNameConverter extends ClassicConverter implements ConstantConverter {
+
+	private CachedValue hostName;
+
+	@Override
+	public void start() {
+		super.start();
+		hostName = EnvironmentValueCache.register("hostName", HostNameConverter::lookupHostName);
+		if (getContext() != null) {
+			// so the context stops us, and releases the value, when it is reset or stopped
+			getContext().register(this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (isStarted() && hostName != null) {
+			EnvironmentValueCache.release();
+		}
+		super.stop();
+	}
 
 	@Override
 	public String convert(ILoggingEvent event) {
+		if (hostName == null) {
+			// not started
+			return lookupHostName();
+		} else {
+			return hostName.getValue();
+		}
+	}
+
+	private static String lookupHostName() {
 		try {
 			return InetAddress.getLocalHost().getHostName();
 		} catch (UnknownHostException e) {
@@ -0,0 +1,130 @@
+package com.j256.cloudwatchlogbackappender;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Layout;
+
+/**
+ * Reusable character and byte buffers for rendering events. The writer thread lays each event out into the same
+ * character buffer and, when it is posting the events itself, encodes it into the same UTF-8 byte buffer which gives
+ * the size for the batch limits and is copied into the {@link PutLogEventsEncoder} request body. Steady-state
+ * rendering doesn't allocate. This is not thread-safe and should be owned by a single thread.
+ * 
+ * @author graywatson
+ */
+public class LayoutBuffer {
+
+	private static final int INITIAL_SIZE = 256;
+	/** buffers that grow bigger than this for a large event are dropped so we don't hold onto them forever */
+	private static final int MAX_RETAINED_SIZE = 64 * 1024;
+
+	private StringBuilder chars = new StringBuilder(INITIAL_SIZE);
+	private byte[] bytes = new byte[INITIAL_SIZE];
+	private int byteLength;
+
+	/**
+	 * Clear the buffers and return the empty character buffer.
+	 */
+	public StringBuilder reset() {
+		if (chars.capacity() > MAX_RETAINED_SIZE) {
+			chars = new StringBuilder(INITIAL_SIZE);
+		} else {
+			chars.setLength(0);
+		}
+		if (bytes.length > MAX_RETAINED_SIZE) {
+			bytes = new byte[INITIAL_SIZE];
+		}
+		byteLength = 0;
+		return chars;
+	}
+
+	/**
+	 * Lay out the event into the character buffer. An {@link Ec2PatternLayout} appends directly into it, other layouts
+	 * go through their own string. A {@link PreRenderedEvent} is already laid out so its line is used as-is.
+	 */
+	public StringBuilder render(Layout<ILoggingEvent> layout, ILoggingEvent event) {
+		StringBuilder sb = reset();
+		if (event instanceof PreRenderedEvent) {
+			sb.append(event.getMessage());
+		} else if (layout instanceof Ec2PatternLayout) {
+			((Ec2PatternLayout) layout).doLayout(event, sb);
+		} else {
+			sb.append(layout.doLayout(event));
+		}
+		return sb;
+	}
+
+	/**
+	 * Cut the character buffer so it is at most maxBytes when encoded as UTF-8, ending it with the marker. The cut is
+	 * made on a code-point boundary. The marker is left off if it doesn't fit by itself.
+	 * 
+	 * @return True if the buffer was truncated otherwise false if it already fit.
+	 */
+	public boolean truncate(int maxBytes, String marker) {
+		int fitLength = MiscUtils.utf8PrefixLength(chars, maxBytes);
+		if (fitLength == chars.length()) {
+			return false;
+		}
+		int markerBytes = MiscUtils.utf8Length(marker);
+		if (markerBytes > maxBytes) {
+			chars.setLength(fitLength);
+		} else {
+			chars.setLength(MiscUtils.utf8PrefixLength(chars, maxBytes - markerBytes));
+			chars.append(marker);
+		}
+		return true;
+	}
+
+	/**
+	 * Encode the character buffer as UTF-8 into the byte buffer, growing it if necessary. Unpaired surrogates are
+	 * encoded as '?' the same as String.getBytes() does, so the length matches {@link MiscUtils#utf8Length}.
+	 * 
+	 * @return The number of bytes encoded.
+	 */
+	public int encode() {
+		int length = chars.length();
+		// worst case is 3 bytes per char, a surrogate pair is 2 chars for 4 bytes
+		if (bytes.length < length * 3) {
+			bytes = new byte[length * 3];
+		}
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			char ch = chars.charAt(i);
+			if (ch < 0x80) {
+				bytes[pos++] = (byte) ch;
+			} else if (ch < 0x800) {
+				bytes[pos++] = (byte) (0xC0 | (ch >> 6));
+				bytes[pos++] = (byte) (0x80 | (ch & 0x3F));
+			} else if (Character.isHighSurrogate(ch) && i + 1 < length
+					&& Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(ch, chars.charAt(++i));
+				bytes[pos++] = (byte) (0xF0 | (codePoint >> 18));
+				bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+				bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+				bytes[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+			} else if (Character.isSurrogate(ch)) {
+				bytes[pos++] = '?';
+			} else {
+				bytes[pos++] = (byte) (0xE0 | (ch >> 12));
+				bytes[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				bytes[pos++] = (byte) (0x80 | (ch & 0x3F));
+			}
+		}
+		byteLength = pos;
+		return pos;
+	}
+
+	public StringBuilder getChars() {
+		return chars;
+	}
+
+	/**
+	 * Returns the byte buffer which is only valid up to {@link #getByteLength()} and until the next reset.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public int getByteLength() {
+		return byteLength;
+	}
+}
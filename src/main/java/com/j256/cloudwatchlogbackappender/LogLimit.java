@@ -0,0 +1,153 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Rule that rate limits and/or samples the events of a logger and its children. Added to the appender with a
+ * &lt;limit&gt; element. Like the logback logger levels, the rule for the closest logger in the hierarchy applies. If
+ * more than one rule has the same logger then the first one whose level matches wins. Events that match no rule are
+ * all written.
+ *
+ * The rate limit is a token bucket which is refilled lazily when events arrive. It is stored as the time at which the
+ * bucket will next be full so taking a token is one CAS.
+ *
+ * @author graywatson
+ */
+public class LogLimit {
+
+	private String name;
+	private String loggerName = "";
+	private Level maxLevel;
+	private double eventsPerSecond;
+	private int burstSize;
+	private double sampleRate = 1.0;
+
+	private long nanosPerEvent;
+	private long burstNanos;
+	/** time in nanos when the bucket will be full, it is empty at this minus the burst */
+	private final AtomicLong fullNanos = new AtomicLong(Long.MIN_VALUE);
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	public LogLimit() {
+		// for logback
+	}
+
+	/**
+	 * Called by the appender when it starts.
+	 */
+	void start() {
+		if (eventsPerSecond > 0) {
+			nanosPerEvent = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / eventsPerSecond));
+			int burst = (burstSize > 0 ? burstSize : (int) Math.max(1, Math.ceil(eventsPerSecond)));
+			burstNanos = nanosPerEvent * burst;
+		}
+		fullNanos.set(Long.MIN_VALUE);
+	}
+
+	/**
+	 * Returns true if the rule is for the logger or one of its parents.
+	 */
+	boolean matchesLogger(String eventLoggerName) {
+		if (loggerName.isEmpty()) {
+			return true;
+		}
+		if (eventLoggerName == null || !eventLoggerName.startsWith(loggerName)) {
+			return false;
+		}
+		return (eventLoggerName.length() == loggerName.length() || eventLoggerName.charAt(loggerName.length()) == '.'
+				|| eventLoggerName.charAt(loggerName.length()) == '$');
+	}
+
+	/**
+	 * Returns true if the rule is for the level of the event.
+	 */
+	boolean matchesLevel(ILoggingEvent event) {
+		return (maxLevel == null || maxLevel.isGreaterOrEqual(event.getLevel()));
+	}
+
+	/**
+	 * Returns true if the event should be written or false if it is dropped, in which case it is counted.
+	 */
+	boolean allow() {
+		if (sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		if (nanosPerEvent > 0 && !takeToken(System.nanoTime())) {
+			droppedCount.incrementAndGet();
+			return false;
+		}
+		return true;
+	}
+
+	private boolean takeToken(long now) {
+		while (true) {
+			long full = fullNanos.get();
+			// a bucket that has been full for a while is just full
+			long start = (full == Long.MIN_VALUE || full - now < 0 ? now : full);
+			long next = start + nanosPerEvent;
+			if (next - now > burstNanos) {
+				return false;
+			}
+			if (fullNanos.compareAndSet(full, next)) {
+				return true;
+			}
+		}
+	}
+
+	// not-required, used to identify the rule, default is the logger
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	// not-required, default is the root logger so it applies to all events
+	public void setLogger(String loggerName) {
+		this.loggerName = (loggerName == null ? "" : loggerName);
+	}
+
+	// not-required, applies to events at this level or below, default is all levels
+	public void setMaxLevel(String maxLevel) {
+		this.maxLevel = Level.toLevel(maxLevel, null);
+		if (this.maxLevel == null) {
+			throw new IllegalArgumentException("Unknown limit level: " + maxLevel);
+		}
+	}
+
+	// not-required, average number of events written per second, default is no limit
+	public void setEventsPerSecond(double eventsPerSecond) {
+		this.eventsPerSecond = eventsPerSecond;
+	}
+
+	// not-required, number of events that can be written at once before the rate applies, default is a second's worth
+	public void setBurstSize(int burstSize) {
+		this.burstSize = burstSize;
+	}
+
+	// not-required, fraction of the events which are written, default is 1.0 for all of them
+	public void setSampleRate(double sampleRate) {
+		if (sampleRate < 0 || sampleRate > 1) {
+			throw new IllegalArgumentException("Sample rate should be between 0 and 1: " + sampleRate);
+		}
+		this.sampleRate = sampleRate;
+	}
+
+	public String getName() {
+		return (name == null ? (loggerName.isEmpty() ? "ROOT" : loggerName) : name);
+	}
+
+	public String getLogger() {
+		return loggerName;
+	}
+
+	/**
+	 * Number of events that the rule has dropped.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+}
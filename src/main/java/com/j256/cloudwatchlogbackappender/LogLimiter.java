@@ -0,0 +1,69 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Finds the {@link LogLimit} rules for the logger of an event and applies them. The rules for each logger name, closest
+ * in the hierarchy first, are looked up once and cached so the check on each append is a map lookup and a CAS.
+ *
+ * @author graywatson
+ */
+class LogLimiter {
+
+	/** if there are more logger names than this then the cache is cleared */
+	private static final int MAX_CACHED_LOGGERS = 10000;
+	private static final LogLimit[] NO_LIMITS = new LogLimit[0];
+
+	private final List<LogLimit> limits;
+	private final ConcurrentHashMap<String, LogLimit[]> loggerLimits = new ConcurrentHashMap<String, LogLimit[]>();
+
+	public LogLimiter(List<LogLimit> limits) {
+		this.limits = limits;
+		for (LogLimit limit : limits) {
+			limit.start();
+		}
+	}
+
+	/**
+	 * Returns true if the event should be written or false if a limit dropped it.
+	 */
+	public boolean allow(ILoggingEvent event) {
+		String loggerName = event.getLoggerName();
+		LogLimit[] candidates = (loggerName == null ? findLimits(null) : loggerLimits.get(loggerName));
+		if (candidates == null) {
+			if (loggerLimits.size() >= MAX_CACHED_LOGGERS) {
+				loggerLimits.clear();
+			}
+			candidates = findLimits(loggerName);
+			loggerLimits.put(loggerName, candidates);
+		}
+		for (LogLimit limit : candidates) {
+			if (limit.matchesLevel(event)) {
+				return limit.allow();
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Find the rules for the logger with the closest in the hierarchy first.
+	 */
+	private LogLimit[] findLimits(String loggerName) {
+		List<LogLimit> matches = new ArrayList<LogLimit>();
+		for (LogLimit limit : limits) {
+			if (limit.matchesLogger(loggerName)) {
+				matches.add(limit);
+			}
+		}
+		if (matches.isEmpty()) {
+			return NO_LIMITS;
+		}
+		// stable so the configuration order is kept for rules with the same logger
+		matches.sort((limit1, limit2) -> Integer.compare(limit2.getLogger().length(), limit1.getLogger().length()));
+		return matches.toArray(new LogLimit[matches.size()]);
+	}
+}
@@ -0,0 +1,128 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Rule that sends the matching events to their own log-group and/or log-stream. Added to the appender with a
+ * &lt;route&gt; element. All of the conditions that are set must match and a route with no conditions matches
+ * everything. The routes are checked in order and the first match wins. Events that match no route go to the
+ * appender's own log-group and log-stream.
+ *
+ * @author graywatson
+ */
+public class LogRoute {
+
+	private String loggerPrefix;
+	private Level level;
+	private String marker;
+	private String mdcKey;
+	private String mdcValue;
+	private String logGroupName;
+	private String logStreamName;
+
+	public LogRoute() {
+		// for logback
+	}
+
+	/**
+	 * Returns true if the event should go to our destination.
+	 */
+	public boolean matches(ILoggingEvent event) {
+		if (loggerPrefix != null && (event.getLoggerName() == null || !event.getLoggerName().startsWith(loggerPrefix))) {
+			return false;
+		}
+		if (level != null && !event.getLevel().isGreaterOrEqual(level)) {
+			return false;
+		}
+		if (marker != null && !hasMarker(event)) {
+			return false;
+		}
+		if (mdcKey != null) {
+			Map<String, String> mdc = event.getMDCPropertyMap();
+			String value = (mdc == null ? null : mdc.get(mdcKey));
+			if (value == null || (mdcValue != null && !mdcValue.equals(value))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// not-required, matches loggers whose name starts with this
+	public void setLoggerPrefix(String loggerPrefix) {
+		this.loggerPrefix = loggerPrefix;
+	}
+
+	// not-required, matches events at this level or above
+	public void setLevel(String level) {
+		this.level = Level.toLevel(level, null);
+		if (this.level == null) {
+			throw new IllegalArgumentException("Unknown route level: " + level);
+		}
+	}
+
+	// not-required, matches events with this marker or a marker that references it
+	public void setMarker(String marker) {
+		this.marker = marker;
+	}
+
+	// not-required, matches events with this MDC key
+	public void setMdcKey(String mdcKey) {
+		this.mdcKey = mdcKey;
+	}
+
+	// not-required, if set with the mdcKey then the MDC value must also be equal to this
+	public void setMdcValue(String mdcValue) {
+		this.mdcValue = mdcValue;
+	}
+
+	// not-required, default is the appender's log-group
+	public void setLogGroup(String logGroupName) {
+		this.logGroupName = logGroupName;
+	}
+
+	// not-required, default is the appender's log-stream
+	public void setLogStream(String logStreamName) {
+		this.logStreamName = logStreamName;
+	}
+
+	public String getLogGroup() {
+		return logGroupName;
+	}
+
+	public String getLogStream() {
+		return logStreamName;
+	}
+
+	/**
+	 * Returns true if matching reads the markers of the event.
+	 */
+	boolean usesMarkers() {
+		return (marker != null);
+	}
+
+	/**
+	 * Returns true if matching reads the MDC of the event.
+	 */
+	boolean usesMdc() {
+		return (mdcKey != null);
+	}
+
+	private boolean hasMarker(ILoggingEvent event) {
+		List<Marker> markers = event.getMarkerList();
+		if (markers == null) {
+			return false;
+		}
+		for (Marker eventMarker : markers) {
+			if (eventMarker.contains(marker)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,148 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.net.http.HttpClient;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.amazonaws.services.logs.AWSLogs;
+
+/**
+ * Registry of CloudWatch Logs clients shared between appenders in the same JVM. Appenders with the same region and
+ * credentials get the same client, and so the same connection pool and credential refreshing, and the client is only
+ * shut down when the last appender using it releases it. The JDK HTTP client used by the {@link DirectLogsClient}s is
+ * shared the same way.
+ *
+ * @author graywatson
+ */
+public class LogsClientRegistry {
+
+	private static final Map<String, SharedClient> clientsByKey = new HashMap<String, SharedClient>();
+	private static final Map<AWSLogs, SharedClient> clientsByInstance = new IdentityHashMap<AWSLogs, SharedClient>();
+	private static HttpClient httpClient;
+	private static ExecutorService httpExecutor;
+	private static int httpClientRefCount;
+
+	/**
+	 * Get the client for the key, creating it with the factory if there isn't one already. Every acquire must be
+	 * matched with a {@link #release(AWSLogs)}.
+	 */
+	public static synchronized AWSLogs acquire(String key, Supplier<AWSLogs> factory) {
+		SharedClient shared = clientsByKey.get(key);
+		if (shared == null) {
+			shared = new SharedClient(key, factory.get());
+			clientsByKey.put(key, shared);
+			clientsByInstance.put(shared.client, shared);
+		}
+		shared.refCount++;
+		return shared.client;
+	}
+
+	/**
+	 * Release a client that was acquired from us, shutting it down if nobody else is using it.
+	 *
+	 * @return true if the client came from the registry otherwise false in which case the caller still owns it.
+	 */
+	public static boolean release(AWSLogs client) {
+		SharedClient shared;
+		synchronized (LogsClientRegistry.class) {
+			shared = clientsByInstance.get(client);
+			if (shared == null) {
+				return false;
+			}
+			shared.refCount--;
+			if (shared.refCount > 0) {
+				return true;
+			}
+			clientsByKey.remove(shared.key);
+			clientsByInstance.remove(client);
+		}
+		// shutdown outside of the lock because it can take a bit
+		client.shutdown();
+		return true;
+	}
+
+	/**
+	 * Get the HTTP client, creating it with the factory and our own executor if there isn't one already. Every acquire
+	 * must be matched with a {@link #releaseHttpClient()}.
+	 */
+	static synchronized HttpClient acquireHttpClient(Function<Executor, HttpClient> factory) {
+		if (httpClient == null) {
+			AtomicInteger threadCount = new AtomicInteger();
+			httpExecutor = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "CloudWatchAppender-http-" + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+			httpClient = factory.apply(httpExecutor);
+		}
+		httpClientRefCount++;
+		return httpClient;
+	}
+
+	/**
+	 * Release the HTTP client, shutting down its executor and connections if nobody else is using it.
+	 */
+	static void releaseHttpClient() {
+		HttpClient client;
+		ExecutorService executor;
+		synchronized (LogsClientRegistry.class) {
+			httpClientRefCount--;
+			if (httpClientRefCount > 0) {
+				return;
+			}
+			client = httpClient;
+			executor = httpExecutor;
+			httpClient = null;
+			httpExecutor = null;
+		}
+		executor.shutdown();
+		// the http-client can only be closed on java 21+, before that its selector thread exits once it is unused
+		if (client instanceof AutoCloseable) {
+			try {
+				((AutoCloseable) client).close();
+			} catch (Exception e) {
+				// ignored
+			}
+		}
+	}
+
+	/*
+	 * For testing purposes.
+	 */
+	static synchronized int getHttpClientRefCount() {
+		return httpClientRefCount;
+	}
+
+	/*
+	 * For testing purposes.
+	 */
+	static synchronized int getRefCount(AWSLogs client) {
+		SharedClient shared = clientsByInstance.get(client);
+		if (shared == null) {
+			return 0;
+		} else {
+			return shared.refCount;
+		}
+	}
+
+	/**
+	 * A client and the number of appenders using it.
+	 */
+	private static class SharedClient {
+		final String key;
+		final AWSLogs client;
+		int refCount;
+
+		public SharedClient(String key, AWSLogs client) {
+			this.key = key;
+			this.client = client;
+		}
+	}
+}
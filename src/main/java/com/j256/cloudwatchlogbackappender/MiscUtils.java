@@ -21,4 +21,70 @@ public class MiscUtils {
 		}
 		return true;
 	}
+
+	/**
+	 * Return the number of bytes the characters take when encoded as UTF-8 without encoding or allocating anything.
+	 * Unpaired surrogates count as the one byte '?' they are encoded as.
+	 */
+	public static int utf8Length(CharSequence cs) {
+		int length = cs.length();
+		int bytes = 0;
+		for (int i = 0; i < length; i++) {
+			char ch = cs.charAt(i);
+			if (ch < 0x80) {
+				bytes++;
+			} else if (ch < 0x800) {
+				bytes += 2;
+			} else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+				bytes += 4;
+				i++;
+			} else if (Character.isSurrogate(ch)) {
+				bytes++;
+			} else {
+				bytes += 3;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Return the number of leading characters that fit in maxBytes when encoded as UTF-8. This never splits a surrogate
+	 * pair so cutting the characters at the returned index leaves whole code-points.
+	 */
+	public static int utf8PrefixLength(CharSequence cs, int maxBytes) {
+		return utf8PrefixLength(cs, 0, maxBytes);
+	}
+
+	/**
+	 * Same as {@link #utf8PrefixLength(CharSequence, int)} but starting at an index.
+	 * 
+	 * @return The index after the last character that fits.
+	 */
+	public static int utf8PrefixLength(CharSequence cs, int start, int maxBytes) {
+		int length = cs.length();
+		int bytes = 0;
+		for (int i = start; i < length; i++) {
+			char ch = cs.charAt(i);
+			int charBytes;
+			int charCount = 1;
+			if (ch < 0x80) {
+				charBytes = 1;
+			} else if (ch < 0x800) {
+				charBytes = 2;
+			} else if (Character.isHighSurrogate(ch) && i + 1 < length && Character.isLowSurrogate(cs.charAt(i + 1))) {
+				charBytes = 4;
+				charCount = 2;
+			} else if (Character.isSurrogate(ch)) {
+				charBytes = 1;
+			} else {
+				charBytes = 3;
+			}
+			if (bytes + charBytes > maxBytes) {
+				return i;
+			}
+			bytes += charBytes;
+			i += charCount - 1;
+		}
+		return length;
+	}
 }
@@ -0,0 +1,33 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Collections;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Log line that has already been formatted, for example by a sidecar or in a replay file, and is written to CloudWatch
+ * as-is without going through the appender's layout. Pass these to {@link CloudWatchAppender#appendAll}.
+ *
+ * @author graywatson
+ */
+public class PreRenderedEvent extends LoggingEvent {
+
+	public PreRenderedEvent(long timestamp, String line) {
+		this(PreRenderedEvent.class.getName(), Level.INFO, timestamp, line);
+	}
+
+	/**
+	 * @param loggerName
+	 *            Logger name used for routing.
+	 * @param level
+	 *            Level used for routing.
+	 */
+	public PreRenderedEvent(String loggerName, Level level, long timestamp, String line) {
+		setLoggerName(loggerName);
+		setLevel(level);
+		setTimeStamp(timestamp);
+		setMessage(line);
+		setMDCPropertyMap(Collections.emptyMap());
+	}
+}
@@ -0,0 +1,74 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the events going into a PutLogEvents request against the service's limits: the number of events, the bytes of
+ * their messages with an overhead for each, and the time between the first and last of them. The writer and the
+ * {@link BackfillTool} both use it to decide where one request ends and the next one starts.
+ *
+ * @author graywatson
+ */
+class PutLogEventsBatch {
+
+	/** max number of events in a put-log-events request */
+	public static final int MAX_BATCH_EVENTS = 10000;
+	/** max bytes of the messages in a put-log-events request, each of which is counted with the overhead below */
+	public static final int MAX_BATCH_BYTES = 1024 * 1024;
+	/** bytes that cloudwatch adds to the size of each event */
+	public static final int EVENT_OVERHEAD_BYTES = 26;
+	/** max time in millis between the first and last events in a put-log-events request */
+	public static final long MAX_BATCH_SPAN_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+	private final int maxEvents;
+	private int eventCount;
+	private int byteCount;
+	private long minTimestamp;
+	private long maxTimestamp;
+
+	/**
+	 * @param maxEvents
+	 *            Max number of events in a request which is limited to {@link #MAX_BATCH_EVENTS}.
+	 */
+	public PutLogEventsBatch(int maxEvents) {
+		this.maxEvents = Math.min(maxEvents, MAX_BATCH_EVENTS);
+	}
+
+	/**
+	 * Count an event in the request if it fits. An empty request takes any event.
+	 *
+	 * @param messageBytes
+	 *            UTF-8 bytes of the event's messages not counting the overhead.
+	 * @param count
+	 *            Number of events that the message is written as which is more than 1 if it is chunked.
+	 * @return false if the event doesn't fit in which case it wasn't counted and goes in the next request.
+	 */
+	public boolean add(long timestamp, int messageBytes, int count) {
+		int eventBytes = messageBytes + count * EVENT_OVERHEAD_BYTES;
+		if (eventCount == 0) {
+			minTimestamp = timestamp;
+			maxTimestamp = timestamp;
+		} else if (eventCount + count > maxEvents || byteCount + eventBytes > MAX_BATCH_BYTES
+				|| Math.max(maxTimestamp, timestamp) - Math.min(minTimestamp, timestamp) > MAX_BATCH_SPAN_MILLIS) {
+			return false;
+		} else {
+			minTimestamp = Math.min(minTimestamp, timestamp);
+			maxTimestamp = Math.max(maxTimestamp, timestamp);
+		}
+		eventCount += count;
+		byteCount += eventBytes;
+		return true;
+	}
+
+	/**
+	 * Start counting the next request.
+	 */
+	public void reset() {
+		eventCount = 0;
+		byteCount = 0;
+	}
+
+	public boolean isEmpty() {
+		return (eventCount == 0);
+	}
+}
@@ -0,0 +1,309 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Writes the JSON body of a PutLogEvents request straight into a reusable byte buffer, escaping the messages the same
+ * way the AWS SDK does, and computes the SHA-256 payload hash for signing as it goes. This avoids building the SDK
+ * request objects and having the SDK marshal them.
+ *
+ * Call {@link #start(String, String)}, then {@link #addEvent(long, CharSequence)} or
+ * {@link #addEvent(long, byte[], int)} for each event in timestamp order, and then {@link #finish(String)}. If the put
+ * has to be retried with a different sequence token then {@link #finish(String)} can be called again without
+ * re-encoding the events. This is not thread-safe.
+ *
+ * @author graywatson
+ */
+public class PutLogEventsEncoder {
+
+	private static final int INITIAL_SIZE = 64 * 1024;
+	private static final char[] HEX_CHARS = "0123456789ABCDEF".toCharArray();
+
+	private final MessageDigest digest;
+	private byte[] buf = new byte[INITIAL_SIZE];
+	private int length;
+	private int eventCount;
+	/** position after the last event or -1 if we haven't finished */
+	private int eventsEnd = -1;
+	/** how much of the buffer has been fed to the digest */
+	private int digestedLength;
+	private String payloadHash;
+
+	public PutLogEventsEncoder() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 should always be available", e);
+		}
+	}
+
+	/**
+	 * Start a new request body.
+	 */
+	public void start(String logGroupName, String logStreamName) {
+		length = 0;
+		eventCount = 0;
+		eventsEnd = -1;
+		digestedLength = 0;
+		payloadHash = null;
+		digest.reset();
+		appendAscii("{\"logGroupName\":");
+		appendString(logGroupName);
+		appendAscii(",\"logStreamName\":");
+		appendString(logStreamName);
+		appendAscii(",\"logEvents\":[");
+	}
+
+	/**
+	 * Add an event to the body. Events must be added in timestamp order.
+	 */
+	public void addEvent(long timestamp, CharSequence message) {
+		startEvent(timestamp);
+		appendString(message);
+		endEvent();
+	}
+
+	/**
+	 * Add an event whose message has already been encoded as UTF-8, such as by the {@link LayoutBuffer}, so it is
+	 * copied into the body with only the escaping. Events must be added in timestamp order.
+	 */
+	public void addEvent(long timestamp, byte[] utf8, int utf8Length) {
+		startEvent(timestamp);
+		appendUtf8String(utf8, utf8Length);
+		endEvent();
+	}
+
+	/**
+	 * Finish the body with the sequence-token, which may be null. This can be called again to change the token.
+	 */
+	public void finish(String sequenceToken) {
+		if (eventsEnd < 0) {
+			digest.update(buf, digestedLength, length - digestedLength);
+			digestedLength = length;
+			eventsEnd = length;
+		} else {
+			// drop the previous ending
+			length = eventsEnd;
+		}
+		appendByte(']');
+		if (sequenceToken != null) {
+			appendAscii(",\"sequenceToken\":");
+			appendString(sequenceToken);
+		}
+		appendByte('}');
+		MessageDigest tailDigest;
+		try {
+			tailDigest = (MessageDigest) digest.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException("SHA-256 digest should be cloneable", e);
+		}
+		tailDigest.update(buf, eventsEnd, length - eventsEnd);
+		payloadHash = toHex(tailDigest.digest());
+	}
+
+	public int getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Returns the body buffer which is only valid up to {@link #getLength()}.
+	 */
+	public byte[] getBuffer() {
+		return buf;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the lower-case hex SHA-256 of the body once it has been finished.
+	 */
+	public String getPayloadHash() {
+		return payloadHash;
+	}
+
+	static String toHex(byte[] bytes) {
+		char[] chars = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			chars[i * 2 + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(chars);
+	}
+
+	private void startEvent(long timestamp) {
+		if (eventsEnd >= 0) {
+			throw new IllegalStateException("Cannot add events after the body is finished");
+		}
+		if (eventCount > 0) {
+			appendByte(',');
+		}
+		appendAscii("{\"timestamp\":");
+		appendLong(timestamp);
+		appendAscii(",\"message\":");
+	}
+
+	private void endEvent() {
+		appendByte('}');
+		eventCount++;
+		// hash as we go so the finish doesn't have to go over the whole body
+		digest.update(buf, digestedLength, length - digestedLength);
+		digestedLength = length;
+	}
+
+	private void appendString(CharSequence str) {
+		int strLength = str.length();
+		// worst case is the 6 byte unicode escape for each char plus the quotes
+		ensureCapacity(strLength * 6 + 2);
+		byte[] buf = this.buf;
+		int pos = length;
+		buf[pos++] = '"';
+		for (int i = 0; i < strLength; i++) {
+			char ch = str.charAt(i);
+			if (ch < 0x80) {
+				if (ch >= 0x20 && ch != '"' && ch != '\\') {
+					buf[pos++] = (byte) ch;
+				} else {
+					pos = writeAsciiEscape(buf, pos, ch);
+				}
+			} else if (ch < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (ch >> 6));
+				buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+			} else if (Character.isSurrogate(ch)) {
+				// the SDK escapes both halves of surrogate pairs
+				buf[pos++] = '\\';
+				pos = writeUnicodeEscape(buf, pos, ch);
+			} else {
+				buf[pos++] = (byte) (0xE0 | (ch >> 12));
+				buf[pos++] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (ch & 0x3F));
+			}
+		}
+		buf[pos++] = '"';
+		length = pos;
+	}
+
+	/**
+	 * Same as {@link #appendString(CharSequence)} but from valid UTF-8 so everything other than the escapes is copied
+	 * as-is.
+	 */
+	private void appendUtf8String(byte[] utf8, int utf8Length) {
+		// worst case is the 6 byte unicode escape for each ascii byte plus the quotes
+		ensureCapacity(utf8Length * 6 + 2);
+		byte[] buf = this.buf;
+		int pos = length;
+		buf[pos++] = '"';
+		for (int i = 0; i < utf8Length;) {
+			int b = utf8[i] & 0xFF;
+			if (b < 0x80) {
+				if (b >= 0x20 && b != '"' && b != '\\') {
+					buf[pos++] = (byte) b;
+				} else {
+					pos = writeAsciiEscape(buf, pos, (char) b);
+				}
+				i++;
+			} else if (b >= 0xF0) {
+				// a code-point outside of the basic plane which the SDK writes as an escaped surrogate pair
+				int codePoint = ((b & 0x07) << 18) | ((utf8[i + 1] & 0x3F) << 12) | ((utf8[i + 2] & 0x3F) << 6)
+						| (utf8[i + 3] & 0x3F);
+				buf[pos++] = '\\';
+				pos = writeUnicodeEscape(buf, pos, Character.highSurrogate(codePoint));
+				buf[pos++] = '\\';
+				pos = writeUnicodeEscape(buf, pos, Character.lowSurrogate(codePoint));
+				i += 4;
+			} else {
+				buf[pos++] = (byte) b;
+				i++;
+			}
+		}
+		buf[pos++] = '"';
+		length = pos;
+	}
+
+	/**
+	 * Write the escape of a quote, backslash, or control character.
+	 */
+	private static int writeAsciiEscape(byte[] buf, int pos, char ch) {
+		buf[pos++] = '\\';
+		switch (ch) {
+			case '"':
+				buf[pos++] = '"';
+				break;
+			case '\\':
+				buf[pos++] = '\\';
+				break;
+			case '\n':
+				buf[pos++] = 'n';
+				break;
+			case '\r':
+				buf[pos++] = 'r';
+				break;
+			case '\t':
+				buf[pos++] = 't';
+				break;
+			case '\b':
+				buf[pos++] = 'b';
+				break;
+			case '\f':
+				buf[pos++] = 'f';
+				break;
+			default:
+				pos = writeUnicodeEscape(buf, pos, ch);
+				break;
+		}
+		return pos;
+	}
+
+	/**
+	 * Write the uXXXX part of the escape, the backslash has already been written.
+	 */
+	private static int writeUnicodeEscape(byte[] buf, int pos, char ch) {
+		buf[pos++] = 'u';
+		buf[pos++] = (byte) HEX_CHARS[(ch >> 12) & 0xF];
+		buf[pos++] = (byte) HEX_CHARS[(ch >> 8) & 0xF];
+		buf[pos++] = (byte) HEX_CHARS[(ch >> 4) & 0xF];
+		buf[pos++] = (byte) HEX_CHARS[ch & 0xF];
+		return pos;
+	}
+
+	private void appendAscii(String str) {
+		int strLength = str.length();
+		ensureCapacity(strLength);
+		for (int i = 0; i < strLength; i++) {
+			buf[length++] = (byte) str.charAt(i);
+		}
+	}
+
+	private void appendLong(long value) {
+		if (value < 0) {
+			// not going to happen with timestamps but we'll be correct
+			appendAscii(Long.toString(value));
+			return;
+		}
+		ensureCapacity(20);
+		int digits = 1;
+		for (long rest = value / 10; rest > 0; rest /= 10) {
+			digits++;
+		}
+		int pos = length + digits;
+		do {
+			buf[--pos] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value > 0);
+		length += digits;
+	}
+
+	private void appendByte(char ch) {
+		ensureCapacity(1);
+		buf[length++] = (byte) ch;
+	}
+
+	private void ensureCapacity(int extra) {
+		if (length + extra > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+		}
+	}
+}
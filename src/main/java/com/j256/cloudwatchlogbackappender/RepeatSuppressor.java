@@ -0,0 +1,235 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Counts repeats of the same logger, level, and message template in fixed time windows so that runaway loops don't
+ * fill the queue. Each template is counted in one of two slots picked by its hash and the slot holds the template
+ * itself so templates that collide never share a count. A check is a couple of atomic updates without any locking and
+ * only allocates when a template starts a new window. The suppressed counts are reported when the template repeats in a
+ * later window or, if it doesn't, by the writer once the window has closed.
+ *
+ * @author graywatson
+ */
+class RepeatSuppressor {
+
+	/** returned by {@link #check(ILoggingEvent)} if the event should be dropped */
+	public static final long SUPPRESS = -1;
+
+	private final int maxRepeats;
+	private final long windowMillis;
+	private final int mask;
+	private final AtomicReferenceArray<Template> slots;
+	/** templates pushed out of their slot by another template while they still had suppressed counts */
+	private final Queue<Template> evictedTemplates = new ConcurrentLinkedQueue<Template>();
+	/** latest window that anything was suppressed in */
+	private final AtomicLong suppressedWindow = new AtomicLong(-1);
+	/** windows before this have been looked through for summaries, only accessed by the writer */
+	private long reportedWindow;
+
+	/**
+	 * @param maxRepeats
+	 *            Number of repeats let through in each window.
+	 * @param windowMillis
+	 *            Length of the window.
+	 * @param size
+	 *            Number of slots, rounded up to a power of two.
+	 */
+	public RepeatSuppressor(int maxRepeats, long windowMillis, int size) {
+		this.maxRepeats = maxRepeats;
+		this.windowMillis = Math.max(1, windowMillis);
+		int powerSize = (size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1);
+		this.mask = powerSize - 1;
+		this.slots = new AtomicReferenceArray<Template>(powerSize);
+	}
+
+	/**
+	 * Count the event in its window.
+	 *
+	 * @return {@link #SUPPRESS} if the event is over the max repeats in its window. Otherwise the number of repeats of
+	 *         the event that were suppressed in its previous window, which is 0 if none were and which the caller
+	 *         should report.
+	 */
+	public long check(ILoggingEvent event) {
+		long hash = hash(event);
+		long window = event.getTimeStamp() / windowMillis;
+		int index1 = (int) hash & mask;
+		int index2 = (int) (hash >>> 32) & mask;
+		while (true) {
+			int index = index1;
+			Template template = slots.get(index1);
+			if (!matches(template, event)) {
+				Template template2 = slots.get(index2);
+				if (matches(template2, event)) {
+					index = index2;
+					template = template2;
+				} else {
+					// new template so it takes the slot that is empty, older, or less busy
+					if (template2 == null || (template != null && (template2.window < template.window
+							|| (template2.window == template.window && template2.count.get() < template.count.get())))) {
+						index = index2;
+						template = template2;
+					}
+					if (!slots.compareAndSet(index, template, new Template(event, window))) {
+						continue;
+					}
+					if (template != null && template.suppressedCount.get() > 0) {
+						evictedTemplates.add(template);
+					}
+					return 0;
+				}
+			}
+			if (template.window < window) {
+				// start the window over and we report the suppressed events of the last one
+				if (!slots.compareAndSet(index, template, new Template(event, window))) {
+					continue;
+				}
+				return template.suppressedCount.getAndSet(0);
+			}
+			// events from an earlier window that show up late are counted in the current one
+			if (template.count.get() < maxRepeats && template.count.incrementAndGet() <= maxRepeats) {
+				return 0;
+			}
+			template.suppressedCount.incrementAndGet();
+			long latest = suppressedWindow.get();
+			while (latest < template.window && !suppressedWindow.compareAndSet(latest, template.window)) {
+				latest = suppressedWindow.get();
+			}
+			return SUPPRESS;
+		}
+	}
+
+	/**
+	 * Add the summary events of the templates that had events suppressed in windows that have closed and which haven't
+	 * been reported yet. This is called by the writer.
+	 *
+	 * @param nowMillis
+	 *            Current time, windows before it are closed. Use Long.MAX_VALUE to report all windows.
+	 */
+	public void addSummaries(long nowMillis, List<ILoggingEvent> summaries) {
+		long window = nowMillis / windowMillis;
+		Template template;
+		while ((template = evictedTemplates.poll()) != null) {
+			addSummary(template, summaries);
+		}
+		if (window <= reportedWindow || suppressedWindow.get() < reportedWindow) {
+			// nothing suppressed since we last looked
+			return;
+		}
+		for (int i = 0; i < slots.length(); i++) {
+			template = slots.get(i);
+			if (template != null && template.window < window) {
+				addSummary(template, summaries);
+			}
+		}
+		reportedWindow = window;
+	}
+
+	/**
+	 * Returns the time that {@link #addSummaries(long, List)} next has summaries to add or Long.MAX_VALUE if none.
+	 */
+	public long nextSummaryMillis() {
+		if (!evictedTemplates.isEmpty()) {
+			return 0;
+		}
+		long window = suppressedWindow.get();
+		if (window < reportedWindow) {
+			return Long.MAX_VALUE;
+		} else {
+			return (window + 1) * windowMillis;
+		}
+	}
+
+	/**
+	 * Create the event which says how many repeats of an event were suppressed in its last window.
+	 */
+	public static LoggingEvent summaryEvent(ILoggingEvent loggingEvent, long suppressedCount) {
+		return summaryEvent(loggingEvent.getLoggerName(), loggingEvent.getLevel(), loggingEvent.getMessage(),
+				loggingEvent.getThreadName(), loggingEvent.getLoggerContextVO(), loggingEvent.getTimeStamp(),
+				suppressedCount);
+	}
+
+	private void addSummary(Template template, List<ILoggingEvent> summaries) {
+		long suppressedCount = template.suppressedCount.getAndSet(0);
+		if (suppressedCount > 0) {
+			// stamped at the end of its window
+			summaries.add(summaryEvent(template.loggerName, template.level, template.message, template.threadName,
+					template.contextVO, (template.window + 1) * windowMillis - 1, suppressedCount));
+		}
+	}
+
+	private static LoggingEvent summaryEvent(String loggerName, Level level, String message, String threadName,
+			LoggerContextVO contextVO, long timestamp, long suppressedCount) {
+		LoggingEvent newEvent = new LoggingEvent();
+		newEvent.setLevel(level);
+		newEvent.setLoggerContextRemoteView(contextVO);
+		newEvent.setLoggerName(loggerName);
+		newEvent.setMDCPropertyMap(Collections.emptyMap());
+		newEvent.setMessage("Suppressed " + suppressedCount + " repeats of: " + message);
+		newEvent.setThreadName(threadName);
+		newEvent.setTimeStamp(timestamp);
+		return newEvent;
+	}
+
+	private static boolean matches(Template template, ILoggingEvent event) {
+		// the strings are usually the same instances so the equals are quick
+		return (template != null && template.level == event.getLevel()
+				&& Objects.equals(template.message, event.getMessage())
+				&& Objects.equals(template.loggerName, event.getLoggerName()));
+	}
+
+	private static long hash(ILoggingEvent event) {
+		// the string hashes are cached so this is constant time after the first event with a template
+		long hash = 1125899906842597L;
+		hash = 31 * hash + hashCode(event.getLoggerName());
+		Level level = event.getLevel();
+		hash = 31 * hash + (level == null ? 0 : level.toInt());
+		hash = 31 * hash + hashCode(event.getMessage());
+		// murmur3 finalizer to spread the bits out
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static int hashCode(String str) {
+		return (str == null ? 0 : str.hashCode());
+	}
+
+	/**
+	 * Counts of a logger, level, and message template in one window.
+	 */
+	private static class Template {
+		final String loggerName;
+		final Level level;
+		final String message;
+		final String threadName;
+		final LoggerContextVO contextVO;
+		final long window;
+		final AtomicInteger count = new AtomicInteger(1);
+		final AtomicLong suppressedCount = new AtomicLong();
+
+		public Template(ILoggingEvent event, long window) {
+			this.loggerName = event.getLoggerName();
+			this.level = event.getLevel();
+			this.message = event.getMessage();
+			this.threadName = event.getThreadName();
+			this.contextVO = event.getLoggerContextVO();
+			this.window = window;
+		}
+	}
+}
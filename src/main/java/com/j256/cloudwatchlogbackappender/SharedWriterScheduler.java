@@ -0,0 +1,185 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small fixed pool of writer threads shared by all of the appenders in the JVM that are configured with
+ * sharedWriter=true, instead of each appender having its own writer thread. Appenders signal their task when a batch
+ * fills up and the batch linger deadlines are kept in a {@link TimerWheel} so a quiet appender costs nothing but a
+ * wheel entry. The pool and the wheel are started by the first appender that acquires the scheduler and are shut down
+ * when the last one releases it.
+ *
+ * @author graywatson
+ */
+public class SharedWriterScheduler {
+
+	/** number of threads in the pool if not set */
+	public static final int DEFAULT_THREAD_COUNT = 2;
+	/** resolution of the batch linger deadlines */
+	private static final long TICK_MILLIS = 10;
+	private static final int WHEEL_SIZE = 512;
+
+	private static int threadCount = DEFAULT_THREAD_COUNT;
+	private static SharedWriterScheduler instance;
+	private static int refCount;
+
+	private final ExecutorService pool;
+	private final TimerWheel timerWheel;
+
+	private SharedWriterScheduler(int threadCount) {
+		this.pool = Executors.newFixedThreadPool(threadCount, new WriterThreadFactory());
+		this.timerWheel = new TimerWheel(getClass().getSimpleName() + "-timer", TICK_MILLIS, WHEEL_SIZE);
+	}
+
+	/**
+	 * Set the number of threads in the pool. This only has an effect when no shared appenders are running.
+	 */
+	public static synchronized void setThreadCount(int threadCount) {
+		if (threadCount > 0) {
+			SharedWriterScheduler.threadCount = threadCount;
+		}
+	}
+
+	/**
+	 * Returns the scheduler, starting it if nobody else is using it. Every acquire must be matched with a
+	 * {@link #release()}.
+	 */
+	public static synchronized SharedWriterScheduler acquire() {
+		if (instance == null) {
+			instance = new SharedWriterScheduler(threadCount);
+		}
+		refCount++;
+		return instance;
+	}
+
+	/**
+	 * Release the scheduler, stopping its threads if nobody else is using it. Work already handed to the pool is
+	 * finished first.
+	 */
+	public void release() {
+		synchronized (SharedWriterScheduler.class) {
+			if (instance != this) {
+				return;
+			}
+			refCount--;
+			if (refCount > 0) {
+				return;
+			}
+			instance = null;
+		}
+		timerWheel.stop();
+		pool.shutdown();
+	}
+
+	/**
+	 * Run the task on the pool as soon as a thread is free. If the task is already running then it will be run again
+	 * once it finishes. A task never runs on two threads at once.
+	 */
+	public void runSoon(Task task) {
+		task.scheduler = this;
+		task.pending.set(true);
+		if (task.running.compareAndSet(false, true)) {
+			execute(task);
+		}
+	}
+
+	/**
+	 * Run the task after the delay unless it already has a deadline pending.
+	 */
+	public void runAfter(Task task, long delayMillis) {
+		if (task.deadlineArmed.compareAndSet(false, true)) {
+			task.timeout = timerWheel.schedule(() -> {
+				task.deadlineArmed.set(false);
+				runSoon(task);
+			}, delayMillis);
+		}
+	}
+
+	/**
+	 * Cancel any pending deadline for the task.
+	 */
+	public void cancel(Task task) {
+		TimerWheel.Timeout timeout = task.timeout;
+		if (timeout != null) {
+			timeout.cancel();
+		}
+		task.deadlineArmed.set(false);
+	}
+
+	private void execute(Task task) {
+		try {
+			pool.execute(task);
+		} catch (RejectedExecutionException e) {
+			// we have been released so the task's appender has stopped
+			task.running.set(false);
+		}
+	}
+
+	/*
+	 * For testing purposes.
+	 */
+	static synchronized int getRefCount() {
+		return refCount;
+	}
+
+	/**
+	 * Work that is run by the shared pool.
+	 */
+	public static abstract class Task implements Runnable {
+
+		private final AtomicBoolean pending = new AtomicBoolean();
+		private final AtomicBoolean running = new AtomicBoolean();
+		private final AtomicBoolean deadlineArmed = new AtomicBoolean();
+		private volatile TimerWheel.Timeout timeout;
+		private volatile SharedWriterScheduler scheduler;
+
+		/**
+		 * Do one round of work. This is never called by two threads at the same time and should write at most one
+		 * batch so that other appenders get a turn.
+		 */
+		protected abstract void runOnce();
+
+		@Override
+		public final void run() {
+			pending.set(false);
+			try {
+				runOnce();
+			} finally {
+				running.set(false);
+			}
+			// we were signaled while running so go to the back of the line to run again
+			if (pending.get() && running.compareAndSet(false, true)) {
+				scheduler.execute(this);
+			}
+		}
+	}
+
+	/**
+	 * Writer threads are daemons so they don't hold up the JVM exiting.
+	 */
+	private static class WriterThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new WriterThread(runnable,
+					SharedWriterScheduler.class.getSimpleName() + "-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Thread in the pool. The appenders drop anything logged from these since it comes from their own writes.
+	 */
+	static class WriterThread extends Thread {
+		public WriterThread(Runnable runnable, String name) {
+			super(runnable, name);
+		}
+	}
+}
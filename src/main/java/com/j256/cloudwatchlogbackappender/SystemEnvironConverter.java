@@ -1,33 +1,50 @@
 package com.j256.cloudwatchlogbackappender;
 
+import com.j256.cloudwatchlogbackappender.EnvironmentValueCache.CachedValue;
+
 import ch.qos.logback.classic.pattern.ClassicConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
 /**
- * Get the value of a system property, the name of which is the {option}.
+ * Get the value of a system property, the name of which is the {option}. The value is cached and refreshed in the
+ * background by the {@link EnvironmentValueCache}.
  * 
  * @author graywatson
  */
-public class SystemEnvironConverter extends ClassicConverter {
+public class SystemEnvironConverter extends ClassicConverter implements ConstantConverter {
 
-	private String variableName;
+	private CachedValue value;
 
 	@Override
 	public void start() {
 		super.start();
-		variableName = getFirstOption();
+		final String variableName = getFirstOption();
+		if (variableName != null) {
+			value = EnvironmentValueCache.register("env:" + variableName, () -> System.getenv(variableName));
+		}
+		if (value != null && getContext() != null) {
+			getContext().register(this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (isStarted() && value != null) {
+			EnvironmentValueCache.release();
+		}
+		super.stop();
 	}
 
 	@Override
 	public String convert(ILoggingEvent event) {
-		if (variableName == null) {
+		if (value == null) {
 			return "null";
 		}
-		String value = System.getenv(variableName);
-		if (value == null) {
+		String result = value.getValue();
+		if (result == null) {
 			return "null";
 		} else {
-			return value;
+			return result;
 		}
 	}
 }
@@ -1,29 +1,47 @@
 package com.j256.cloudwatchlogbackappender;
 
+import com.j256.cloudwatchlogbackappender.EnvironmentValueCache.CachedValue;
+
 import ch.qos.logback.classic.pattern.ClassicConverter;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 
 /**
- * Get the value of a system environment variable, the name of which is the {option}.
+ * Get the value of a system environment variable, the name of which is the {option}. The value is cached and
+ * refreshed in the background by the {@link EnvironmentValueCache}.
  * 
  * @author graywatson
  */
-public class SystemPropertyConverter extends ClassicConverter {
+public class SystemPropertyConverter extends ClassicConverter implements ConstantConverter {
 
-	private String propertyName;
+	private CachedValue value;
 
 	@Override
 	public void start() {
 		super.start();
-		propertyName = getFirstOption();
+		final String propertyName = getFirstOption();
+		if (propertyName != null) {
+			value = EnvironmentValueCache.register("prop:" + propertyName,
+					() -> System.getProperty(propertyName, "null"));
+		}
+		if (value != null && getContext() != null) {
+			getContext().register(this);
+		}
+	}
+
+	@Override
+	public void stop() {
+		if (isStarted() && value != null) {
+			EnvironmentValueCache.release();
+		}
+		super.stop();
 	}
 
 	@Override
 	public String convert(ILoggingEvent event) {
-		if (propertyName == null) {
+		if (value == null) {
 			return "null";
 		} else {
-			return System.getProperty(propertyName, "null");
+			return value.getValue();
 		}
 	}
 }
@@ -0,0 +1,165 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ch.qos.logback.classic.pattern.ExtendedThrowableProxyConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.core.CoreConstants;
+
+/**
+ * Converter which renders the throwable of an event like "%xThrowable" but only writes out the full trace of a
+ * particular exception once per window. The trace is prefixed with "[trace &lt;fingerprint&gt;]" and repeats of the
+ * same exception, message, and stack inside of the window are written as the first line of the trace followed by a
+ * "[trace &lt;fingerprint&gt; repeat &lt;count&gt;]" reference instead. The rendered traces are kept in a bounded LRU
+ * cache so a repeat after the window has expired doesn't have to be laid out again.
+ *
+ * The window and the size of the cache can be set on the {@link Ec2PatternLayout}.
+ *
+ * @author graywatson
+ */
+public class ThrowableFingerprintConverter extends ExtendedThrowableProxyConverter {
+
+	public static final long DEFAULT_WINDOW_MILLIS = 60000;
+	public static final int DEFAULT_MAX_CACHE_SIZE = 1000;
+
+	private static final String TRACE_PREFIX = "[trace ";
+
+	private long windowMillis = DEFAULT_WINDOW_MILLIS;
+	private int maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+	private final Map<Long, Fingerprint> cache = new LinkedHashMap<Long, Fingerprint>(16, 0.75F, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Fingerprint> eldest) {
+			return size() > maxCacheSize;
+		}
+	};
+
+	@Override
+	public void stop() {
+		synchronized (cache) {
+			cache.clear();
+		}
+		super.stop();
+	}
+
+	@Override
+	public String convert(ILoggingEvent event) {
+		IThrowableProxy throwableProxy = event.getThrowableProxy();
+		if (throwableProxy == null) {
+			return CoreConstants.EMPTY_STRING;
+		}
+		long fingerprint = fingerprint(throwableProxy);
+		long now = event.getTimeStamp();
+		synchronized (cache) {
+			Fingerprint entry = cache.get(fingerprint);
+			if (entry != null) {
+				if (now - entry.windowStartMillis < windowMillis) {
+					entry.repeatCount++;
+					return reference(throwableProxy, fingerprint, entry.repeatCount);
+				}
+				// new window so the full trace goes out again but we don't have to lay it out
+				entry.windowStartMillis = now;
+				entry.repeatCount = 0;
+				return entry.rendered;
+			}
+		}
+
+		String trace = super.convert(event);
+		if (trace.isEmpty()) {
+			// an evaluator said to skip it
+			return trace;
+		}
+		String rendered = TRACE_PREFIX + hexString(fingerprint) + "] " + trace;
+		synchronized (cache) {
+			cache.put(fingerprint, new Fingerprint(rendered, now));
+		}
+		return rendered;
+	}
+
+	// not required, default is DEFAULT_WINDOW_MILLIS
+	public void setWindowMillis(long windowMillis) {
+		this.windowMillis = windowMillis;
+	}
+
+	// not required, default is DEFAULT_MAX_CACHE_SIZE
+	public void setMaxCacheSize(int maxCacheSize) {
+		this.maxCacheSize = maxCacheSize;
+	}
+
+	/**
+	 * Hash the class names, messages, and stack frames of the throwable and its causes and suppressed throwables.
+	 */
+	static long fingerprint(IThrowableProxy throwableProxy) {
+		long hash = 1125899906842597L;
+		hash = hashThrowable(hash, throwableProxy, 0);
+		// murmur3 finalizer to spread the bits out
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+
+	private static long hashThrowable(long hash, IThrowableProxy throwableProxy, int depth) {
+		if (throwableProxy == null || depth > 20) {
+			// the depth protects us from cycles
+			return 31 * hash;
+		}
+		hash = 31 * hash + throwableProxy.getClassName().hashCode();
+		String message = throwableProxy.getMessage();
+		hash = 31 * hash + (message == null ? 0 : message.hashCode());
+		StackTraceElementProxy[] steps = throwableProxy.getStackTraceElementProxyArray();
+		if (steps != null) {
+			for (StackTraceElementProxy step : steps) {
+				hash = 31 * hash + step.getStackTraceElement().hashCode();
+			}
+		}
+		IThrowableProxy[] suppressed = throwableProxy.getSuppressed();
+		if (suppressed != null) {
+			for (IThrowableProxy suppressedProxy : suppressed) {
+				hash = hashThrowable(hash, suppressedProxy, depth + 1);
+			}
+		}
+		return hashThrowable(hash, throwableProxy.getCause(), depth + 1);
+	}
+
+	private static String reference(IThrowableProxy throwableProxy, long fingerprint, int repeatCount) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append(TRACE_PREFIX).append(hexString(fingerprint)).append(" repeat ").append(repeatCount).append("] ");
+		sb.append(throwableProxy.getClassName());
+		String message = throwableProxy.getMessage();
+		if (message != null) {
+			sb.append(": ").append(message);
+		}
+		sb.append(CoreConstants.LINE_SEPARATOR);
+		return sb.toString();
+	}
+
+	private static String hexString(long fingerprint) {
+		String hex = Long.toHexString(fingerprint);
+		StringBuilder sb = new StringBuilder(16);
+		for (int i = hex.length(); i < 16; i++) {
+			sb.append('0');
+		}
+		return sb.append(hex).toString();
+	}
+
+	/**
+	 * Rendered trace and the repeats in the current window.
+	 */
+	private static class Fingerprint {
+		final String rendered;
+		long windowStartMillis;
+		int repeatCount;
+
+		public Fingerprint(String rendered, long windowStartMillis) {
+			this.rendered = rendered;
+			this.windowStartMillis = windowStartMillis;
+		}
+	}
+}
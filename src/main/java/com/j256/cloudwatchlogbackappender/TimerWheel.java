@@ -0,0 +1,135 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timer wheel used to fire the batch linger deadlines of many appenders from a single thread. Scheduling is a
+ * lock-free enqueue and the ticker thread moves new timeouts into the wheel buckets itself so the buckets are only
+ * touched from one thread. Timeouts fire within one tick of their deadline.
+ *
+ * @author graywatson
+ */
+class TimerWheel {
+
+	private final long tickNanos;
+	private final List<Timeout>[] buckets;
+	private final int mask;
+	private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<Timeout>();
+	private final long startNanos;
+	private final Thread tickerThread;
+	/** only accessed by the ticker thread */
+	private long tick;
+	private volatile boolean stopped;
+
+	/**
+	 * @param tickMillis
+	 *            Resolution of the wheel.
+	 * @param wheelSize
+	 *            Number of buckets, rounded up to a power of two.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public TimerWheel(String name, long tickMillis, int wheelSize) {
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+		int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+		this.buckets = new List[size];
+		for (int i = 0; i < size; i++) {
+			buckets[i] = new ArrayList<Timeout>();
+		}
+		this.mask = size - 1;
+		this.startNanos = System.nanoTime();
+		this.tickerThread = new Thread(this::runTicker, name);
+		tickerThread.setDaemon(true);
+		tickerThread.start();
+	}
+
+	/**
+	 * Run the task from the ticker thread after the delay. The task should be quick, typically handing off to an
+	 * executor.
+	 */
+	public Timeout schedule(Runnable task, long delayMillis) {
+		long deadlineNanos = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+		Timeout timeout = new Timeout(task, deadlineNanos);
+		newTimeouts.add(timeout);
+		return timeout;
+	}
+
+	public void stop() {
+		stopped = true;
+		tickerThread.interrupt();
+	}
+
+	private void runTicker() {
+		while (!stopped) {
+			long nextTickNanos = (tick + 1) * tickNanos;
+			long sleepNanos = nextTickNanos - (System.nanoTime() - startNanos);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					// stop() will have set the flag
+					continue;
+				}
+			}
+			transferNewTimeouts();
+			expireBucket(buckets[(int) (tick & mask)]);
+			tick++;
+		}
+	}
+
+	private void transferNewTimeouts() {
+		Timeout timeout;
+		while ((timeout = newTimeouts.poll()) != null) {
+			if (timeout.cancelled) {
+				continue;
+			}
+			// never put it in a bucket we have already passed
+			long expireTick = Math.max(tick, timeout.deadlineNanos / tickNanos);
+			timeout.remainingRounds = (expireTick - tick) / buckets.length;
+			buckets[(int) (expireTick & mask)].add(timeout);
+		}
+	}
+
+	private void expireBucket(List<Timeout> bucket) {
+		for (Iterator<Timeout> iterator = bucket.iterator(); iterator.hasNext();) {
+			Timeout timeout = iterator.next();
+			if (timeout.cancelled) {
+				iterator.remove();
+			} else if (timeout.remainingRounds > 0) {
+				timeout.remainingRounds--;
+			} else {
+				iterator.remove();
+				try {
+					timeout.task.run();
+				} catch (RuntimeException e) {
+					// we can't log from here so the best we can do is to keep the wheel turning
+					System.err.println(getClass().getSimpleName() + ": timeout task threw: " + e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Handle to a scheduled task.
+	 */
+	public static class Timeout {
+		private final Runnable task;
+		private final long deadlineNanos;
+		/** only accessed by the ticker thread */
+		private long remainingRounds;
+		private volatile boolean cancelled;
+
+		private Timeout(Runnable task, long deadlineNanos) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+}
@@ -10,7 +10,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
  * 
  * @author graywatson
  */
-public class UuidConverter extends ClassicConverter {
+public class UuidConverter extends ClassicConverter implements ConstantConverter {
 
 	private static String UUID_STRING = UUID.randomUUID().toString();
 
@@ -24,5 +24,6 @@ public class UuidConverter extends ClassicConverter {
 	 */
 	static void setUuidString(String uuidString) {
 		UuidConverter.UUID_STRING = uuidString;
+		EnvironmentValueCache.bumpVersion();
 	}
 }
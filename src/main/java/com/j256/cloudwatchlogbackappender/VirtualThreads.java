@@ -0,0 +1,72 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates virtual threads on JVMs that have them. We build for Java 11 so the Thread.ofVirtual() builder is found with
+ * reflection and on older JVMs, or when it is a preview feature that isn't enabled, we return null so the caller can
+ * fall back to a platform thread.
+ *
+ * @author graywatson
+ */
+public class VirtualThreads {
+
+	private static final Method OF_VIRTUAL_METHOD;
+	private static final Method BUILDER_NAME_METHOD;
+	private static final Method BUILDER_UNSTARTED_METHOD;
+	private static final Method IS_VIRTUAL_METHOD;
+
+	static {
+		Method ofVirtual = null;
+		Method name = null;
+		Method unstarted = null;
+		Method isVirtual = null;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			name = builderClass.getMethod("name", String.class);
+			unstarted = builderClass.getMethod("unstarted", Runnable.class);
+			isVirtual = Thread.class.getMethod("isVirtual");
+		} catch (Exception e) {
+			// pre Java 19 so no virtual threads
+			ofVirtual = null;
+		}
+		OF_VIRTUAL_METHOD = ofVirtual;
+		BUILDER_NAME_METHOD = name;
+		BUILDER_UNSTARTED_METHOD = unstarted;
+		IS_VIRTUAL_METHOD = isVirtual;
+	}
+
+	/**
+	 * Create an unstarted virtual thread.
+	 *
+	 * @return The thread or null if virtual threads are not available in this JVM.
+	 */
+	public static Thread newThread(String name, Runnable runnable) {
+		if (OF_VIRTUAL_METHOD == null) {
+			return null;
+		}
+		try {
+			Object builder = OF_VIRTUAL_METHOD.invoke(null);
+			builder = BUILDER_NAME_METHOD.invoke(builder, name);
+			return (Thread) BUILDER_UNSTARTED_METHOD.invoke(builder, runnable);
+		} catch (Exception e) {
+			// probably the preview feature isn't enabled on Java 19 or 20
+			return null;
+		}
+	}
+
+	/**
+	 * Returns true if the thread is a virtual thread.
+	 */
+	public static boolean isVirtual(Thread thread) {
+		if (IS_VIRTUAL_METHOD == null) {
+			return false;
+		}
+		try {
+			return (Boolean) IS_VIRTUAL_METHOD.invoke(thread);
+		} catch (Exception e) {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class BackfillToolTest {
+
+	private static final Pattern EVENT_PATTERN =
+			Pattern.compile("\\{\"timestamp\":(\\d+),\"message\":\"((?:[^\"\\\\]|\\\\.)*)\"\\}");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+	private final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+	private final List<long[]> batchSpans = Collections.synchronizedList(new ArrayList<long[]>());
+	private final List<String> createTargets = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicInteger requestCount = new AtomicInteger();
+	/** requests after this many fail */
+	private volatile int failAfter = Integer.MAX_VALUE;
+	/** a request with this message fails after the others have had time to finish */
+	private volatile String failMessage;
+
+	@Before
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		// multiple threads so the puts can overlap
+		server.setExecutor(Executors.newFixedThreadPool(4));
+		server.start();
+	}
+
+	@After
+	public void after() {
+		server.stop(0);
+	}
+
+	@Test(timeout = 20000)
+	public void testBackfill() throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(BackfillTool.DEFAULT_TIMESTAMP_PATTERN);
+		long start = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(3);
+		List<String> lines = new ArrayList<String>();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 100; i++) {
+			// spread over 2 and a half days so the batches have to be split up
+			String line = format.format(start + i * TimeUnit.MINUTES.toMillis(36)) + " INFO message " + i;
+			lines.add(line);
+			if (i % 10 == 0) {
+				lines.add("java.lang.Exception: " + i);
+				lines.add("\tat Foo.bar(Foo.java:" + i + ")");
+				line += "\njava.lang.Exception: " + i + "\n\tat Foo.bar(Foo.java:" + i + ")";
+			}
+			expected.add(line);
+		}
+		File file = writeFile("emergency.log", lines);
+
+		BackfillTool tool = createTool(4);
+		assertTrue(tool.backfill(Arrays.asList(file)));
+		assertEquals(100, tool.getEventsWrittenCount());
+		List<String> sorted = new ArrayList<String>(messages);
+		Collections.sort(sorted);
+		Collections.sort(expected);
+		assertEquals(expected, sorted);
+		assertTrue(batchSpans.size() >= 3);
+		for (long[] span : batchSpans) {
+			assertTrue(span[1] - span[0] <= TimeUnit.HOURS.toMillis(24));
+		}
+	}
+
+	@Test(timeout = 20000)
+	public void testCheckpointRestart() throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(BackfillTool.DEFAULT_TIMESTAMP_PATTERN);
+		long start = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			lines.add(format.format(start + i) + " message " + i);
+		}
+		File file = writeFile("emergency.log", lines);
+		File checkpointFile = new File(folder.getRoot(), "checkpoint");
+
+		failAfter = 2;
+		BackfillTool tool = createTool(1);
+		tool.setCheckpointFile(checkpointFile);
+		assertFalse(tool.backfill(Arrays.asList(file)));
+		assertEquals(20, tool.getEventsWrittenCount());
+		assertTrue(checkpointFile.exists());
+
+		failAfter = Integer.MAX_VALUE;
+		tool = createTool(1);
+		tool.setCheckpointFile(checkpointFile);
+		assertTrue(tool.backfill(Arrays.asList(file)));
+		assertEquals(30, tool.getEventsWrittenCount());
+
+		// everything made it exactly once
+		assertEquals(lines, messages);
+	}
+
+	@Test(timeout = 20000)
+	public void testCheckpointLaterBatches() throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(BackfillTool.DEFAULT_TIMESTAMP_PATTERN);
+		long start = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1);
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			lines.add(format.format(start + i) + " message " + i);
+		}
+		File file = writeFile("emergency.log", lines);
+		File checkpointFile = new File(folder.getRoot(), "checkpoint");
+
+		// the second batch fails after the ones after it have finished
+		failMessage = " message 15";
+		BackfillTool tool = createTool(4);
+		tool.setCheckpointFile(checkpointFile);
+		assertFalse(tool.backfill(Arrays.asList(file)));
+		long firstCount = tool.getEventsWrittenCount();
+		assertTrue(firstCount > 10);
+
+		failMessage = null;
+		tool = createTool(4);
+		tool.setCheckpointFile(checkpointFile);
+		assertTrue(tool.backfill(Arrays.asList(file)));
+		assertEquals(50 - firstCount, tool.getEventsWrittenCount());
+
+		// the batches that finished after the failed one weren't sent again
+		List<String> sorted = new ArrayList<String>(messages);
+		Collections.sort(sorted);
+		List<String> expected = new ArrayList<String>(lines);
+		Collections.sort(expected);
+		assertEquals(expected, sorted);
+	}
+
+	@Test(timeout = 20000)
+	public void testCreateLogDests() throws IOException {
+		SimpleDateFormat format = new SimpleDateFormat(BackfillTool.DEFAULT_TIMESTAMP_PATTERN);
+		File file = writeFile("emergency.log",
+				Arrays.asList(format.format(System.currentTimeMillis()) + " message"));
+		BackfillTool tool = createTool(1);
+		assertTrue(tool.backfill(Arrays.asList(file)));
+		// the group already existed which is fine
+		assertEquals(Arrays.asList("Logs_20140328.CreateLogGroup", "Logs_20140328.CreateLogStream"), createTargets);
+		assertEquals(1, messages.size());
+
+		createTargets.clear();
+		tool = createTool(1);
+		tool.setCreateLogDests(false);
+		assertTrue(tool.backfill(Arrays.asList(file)));
+		assertEquals(Collections.emptyList(), createTargets);
+		assertEquals(2, messages.size());
+	}
+
+	private BackfillTool createTool(int threadCount) {
+		BackfillTool tool = new BackfillTool();
+		tool.setEndpoint("http://127.0.0.1:" + server.getAddress().getPort() + "/");
+		tool.setAccessKeyId("access");
+		tool.setSecretKey("secret");
+		tool.setRegion("us-east-1");
+		tool.setLogGroup("group");
+		tool.setLogStream("stream");
+		tool.setThreadCount(threadCount);
+		tool.setMaxBatchSize(10);
+		tool.setRetryCount(0);
+		return tool;
+	}
+
+	private File writeFile(String name, List<String> lines) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String body;
+		try (InputStream input = exchange.getRequestBody()) {
+			body = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+		}
+		int status;
+		String response;
+		String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+		if (target != null && target.contains(".Create")) {
+			createTargets.add(target);
+			if (target.endsWith("CreateLogGroup")) {
+				status = 400;
+				response = "{\"__type\":\"ResourceAlreadyExistsException\",\"message\":\"already exists\"}";
+			} else {
+				status = 200;
+				response = "{}";
+			}
+		} else if (requestCount.incrementAndGet() > failAfter) {
+			status = 500;
+			response = "{\"__type\":\"ServiceUnavailableException\",\"message\":\"down\"}";
+		} else if (failMessage != null && body.contains(failMessage + "\"")) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			status = 500;
+			response = "{\"__type\":\"ServiceUnavailableException\",\"message\":\"down\"}";
+		} else {
+			long min = Long.MAX_VALUE;
+			long max = Long.MIN_VALUE;
+			long last = Long.MIN_VALUE;
+			Matcher matcher = EVENT_PATTERN.matcher(body);
+			while (matcher.find()) {
+				long timestamp = Long.parseLong(matcher.group(1));
+				if (timestamp < last) {
+					throw new IllegalStateException("events out of order");
+				}
+				last = timestamp;
+				min = Math.min(min, timestamp);
+				max = Math.max(max, timestamp);
+				messages.add(matcher.group(2).replace("\\n", "\n").replace("\\t", "\t"));
+			}
+			batchSpans.add(new long[] { min, max });
+			status = 200;
+			response = "{}";
+		}
+		byte[] bytes = response.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,215 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.filter.Filter;
+import ch.qos.logback.core.spi.FilterReply;
+
+public class CloudWatchAppenderBulkTest {
+
+	@Test(timeout = 10000)
+	public void testAppendAll() throws Exception {
+		testAppendAll(false);
+	}
+
+	@Test(timeout = 10000)
+	public void testAppendAllSharedWriter() throws Exception {
+		testAppendAll(true);
+	}
+
+	private void testAppendAll(boolean sharedWriter) throws Exception {
+		LoggerContext loggerContext = new LoggerContext();
+		List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			batchSizes.add(request.getLogEvents().size());
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				messages.add(logEvent.getMessage());
+			}
+			return new PutLogEventsResult();
+		}).anyTimes();
+		replay(logsClient);
+
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(logsClient);
+		appender.setSharedWriter(sharedWriter);
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchTimeMillis(60000);
+		appender.setMaxEventMessageSize(20);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%level %msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+		long timestamp = System.currentTimeMillis();
+		for (int i = 0; i < 25; i++) {
+			events.add(new PreRenderedEvent(timestamp + i, "line " + i));
+		}
+		// pre-formed events still go through the layout
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.WARN);
+		event.setMessage("formed");
+		event.setTimeStamp(timestamp + 100);
+		event.setMDCPropertyMap(Collections.emptyMap());
+		events.add(event);
+		events.add(new PreRenderedEvent(timestamp + 101, "this line is too long to fit"));
+		assertEquals(27, appender.appendAll(events));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		appender.stop();
+
+		assertEquals(27, messages.size());
+		for (int i = 0; i < 25; i++) {
+			assertEquals("line " + i, messages.get(i));
+		}
+		assertEquals("WARN formed", messages.get(25));
+		assertEquals("this line is too lon", messages.get(26));
+		for (int size : batchSizes) {
+			assertTrue(size <= 10);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testFiltersAndThreadName() throws Exception {
+		List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		CloudWatchAppender appender = createAppender(messages, "%thread %msg");
+		appender.addFilter(new Filter<ILoggingEvent>() {
+			@Override
+			public FilterReply decide(ILoggingEvent event) {
+				return (event.getMessage().startsWith("secret") ? FilterReply.DENY : FilterReply.NEUTRAL);
+			}
+		});
+		appender.start();
+
+		List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+		events.add(createEvent("first"));
+		events.add(createEvent("secret stuff"));
+		events.add(createEvent("second"));
+		assertEquals(2, appender.appendAll(events));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		appender.stop();
+
+		// the thread is ours and not the writer's
+		String threadName = Thread.currentThread().getName();
+		assertEquals(Arrays.asList(threadName + " first", threadName + " second"), messages);
+	}
+
+	@Test(timeout = 10000)
+	public void testQueueCapacity() throws Exception {
+		List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		CloudWatchAppender appender = createAppender(messages, "%msg");
+		appender.setInternalQueueSize(5);
+		appender.setMaxQueueWaitTimeMillis(0);
+		// the writer doesn't take anything out of the queue while we are appending
+		appender.setInitialWaitTimeMillis(60000);
+		appender.setStopTimeoutMillis(100);
+		appender.start();
+
+		List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+		for (int i = 0; i < 20; i++) {
+			events.add(new PreRenderedEvent(System.currentTimeMillis(), "line " + i));
+		}
+		// each event counts against the queue size even though the chunks take one slot
+		assertEquals(5, appender.appendAll(events));
+		assertEquals(0, appender.appendAll(events));
+		appender.stop();
+	}
+
+	@Test(timeout = 10000)
+	public void testLimits() throws Exception {
+		List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		CloudWatchAppender appender = createAppender(messages, "%msg");
+		LogLimit limit = new LogLimit();
+		limit.setLogger("name");
+		limit.setSampleRate(0);
+		appender.addLimit(limit);
+		appender.start();
+
+		List<ILoggingEvent> events = new ArrayList<ILoggingEvent>();
+		events.add(createEvent("dropped"));
+		events.add(new PreRenderedEvent(System.currentTimeMillis(), "kept"));
+		assertEquals(1, appender.appendAll(events));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		appender.stop();
+
+		assertEquals(Collections.singletonList("kept"), messages);
+		assertEquals(1, limit.getDroppedCount());
+	}
+
+	@Test
+	public void testNotStarted() {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		assertEquals(0, appender.appendAll(Collections.singletonList(new PreRenderedEvent(1, "line"))));
+	}
+
+	private CloudWatchAppender createAppender(List<String> messages, String pattern) {
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				messages.add(logEvent.getMessage());
+			}
+			return new PutLogEventsResult();
+		}).anyTimes();
+		replay(logsClient);
+
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(logsClient);
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchTimeMillis(60000);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern(pattern);
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
@@ -0,0 +1,133 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class CloudWatchAppenderFlushTest {
+
+	@Test(timeout = 10000)
+	public void testFlush() throws Exception {
+		testFlush(false);
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushSharedWriter() throws Exception {
+		testFlush(true);
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushFailure() throws Exception {
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class)))
+				.andThrow(new AmazonServiceException("put failed"))
+				.anyTimes();
+		replay(logsClient);
+		CloudWatchAppender appender = createAppender(logsClient, false);
+		appender.start();
+		appender.append(createEvent("message"));
+		try {
+			appender.flush().get();
+			fail("should have thrown");
+		} catch (ExecutionException ee) {
+			assertTrue(ee.getCause() instanceof AmazonServiceException);
+		}
+		// the failure is only reported once
+		appender.flush().get();
+		appender.stop();
+	}
+
+	@Test(timeout = 10000)
+	public void testFlushNotStarted() throws Exception {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		CompletableFuture<Void> future = appender.flush();
+		assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test(timeout = 10000)
+	public void testStopDoesNotWaitForBatchTimeout() {
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult())
+				.anyTimes();
+		replay(logsClient);
+		CloudWatchAppender appender = createAppender(logsClient, false);
+		appender.setStopTimeoutMillis(5000);
+		appender.start();
+		for (int i = 0; i < 10; i++) {
+			appender.append(createEvent("message " + i));
+		}
+		long start = System.currentTimeMillis();
+		appender.stop();
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(10, appender.getEventsWrittenCount());
+	}
+
+	private void testFlush(boolean sharedWriter) throws Exception {
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult())
+				.anyTimes();
+		replay(logsClient);
+		CloudWatchAppender appender = createAppender(logsClient, sharedWriter);
+		appender.start();
+		for (int i = 0; i < 3; i++) {
+			appender.append(createEvent("message " + i));
+		}
+		// the batch timeout is a minute so only the flush gets these written
+		appender.flush().get(5, TimeUnit.SECONDS);
+		assertEquals(3, appender.getEventsWrittenCount());
+		appender.append(createEvent("another"));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		assertEquals(4, appender.getEventsWrittenCount());
+		appender.stop();
+	}
+
+	private CloudWatchAppender createAppender(AWSLogs logsClient, boolean sharedWriter) {
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(logsClient);
+		appender.setSharedWriter(sharedWriter);
+		appender.setMaxBatchSize(100);
+		appender.setMaxBatchTimeMillis(60000);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
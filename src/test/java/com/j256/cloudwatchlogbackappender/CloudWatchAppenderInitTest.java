@@ -0,0 +1,324 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.CreateLogGroupRequest;
+import com.amazonaws.services.logs.model.CreateLogStreamRequest;
+import com.amazonaws.services.logs.model.CreateLogStreamResult;
+import com.amazonaws.services.logs.model.DescribeLogGroupsRequest;
+import com.amazonaws.services.logs.model.DescribeLogGroupsResult;
+import com.amazonaws.services.logs.model.DescribeLogStreamsRequest;
+import com.amazonaws.services.logs.model.DescribeLogStreamsResult;
+import com.amazonaws.services.logs.model.LogGroup;
+import com.amazonaws.services.logs.model.LogStream;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+import com.amazonaws.services.logs.model.ResourceAlreadyExistsException;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+public class CloudWatchAppenderInitTest {
+
+	private final LoggerContext LOGGER_CONTEXT = new LoggerContext();
+
+	@Test(timeout = 10000)
+	public void testStreamDoesNotWaitForInstanceLookup() throws InterruptedException {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs logsClient = createMock(AWSLogs.class);
+		appender.setTestAwsLogsClient(logsClient);
+		// the lookup would hold things up for a long time if the log-stream waited for it
+		appender.setInstanceLookupTimeoutMillis(60000);
+
+		appender.setMaxBatchSize(1);
+		appender.setRegion("region");
+		String logGroup = "pfqoejpfqe";
+		appender.setLogGroup(logGroup);
+		String logStream = "pffqjfqjpoqoejpfqe";
+		appender.setLogStream(logStream);
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+
+		expect(logsClient.describeLogGroups(isA(DescribeLogGroupsRequest.class))).andReturn(
+				new DescribeLogGroupsResult().withLogGroups(new LogGroup().withLogGroupName(logGroup)));
+		expect(logsClient.describeLogStreams(isA(DescribeLogStreamsRequest.class))).andReturn(
+				new DescribeLogStreamsResult().withLogStreams(new LogStream().withLogStreamName(logStream)));
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult());
+		logsClient.shutdown();
+
+		// =====================================
+
+		replay(logsClient);
+		appender.start();
+		long start = System.currentTimeMillis();
+		appender.append(createEvent("message"));
+		while (appender.getEventsWrittenCount() < 1) {
+			Thread.sleep(10);
+		}
+		// nowhere near the lookup timeout
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		appender.stop();
+		assertEquals(1, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testInitStepTimeout() throws InterruptedException {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs logsClient = createMock(AWSLogs.class);
+		appender.setTestAwsLogsClient(logsClient);
+		appender.setInitStepTimeoutMillis(100);
+
+		appender.setRegion("region");
+		appender.setLogGroup("pfqoejpfqe");
+		appender.setLogStream("pffqjfqjpoqoejpfqe");
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		EmergencyAppender emergency = new EmergencyAppender();
+		appender.addAppender(emergency);
+
+		expect(logsClient.describeLogGroups(isA(DescribeLogGroupsRequest.class))).andAnswer(() -> {
+			Thread.sleep(5000);
+			return new DescribeLogGroupsResult();
+		});
+		// the client isn't going to be used so it is shut down
+		CountDownLatch shutdownLatch = new CountDownLatch(1);
+		logsClient.shutdown();
+		expectLastCall().andAnswer(() -> {
+			shutdownLatch.countDown();
+			return null;
+		});
+
+		// =====================================
+
+		replay(logsClient);
+		appender.start();
+		appender.append(createEvent("message"));
+		while (emergency.event == null) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+		shutdownLatch.await();
+		verify(logsClient);
+		assertEquals(0, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testSharedClientReleasedAfterTimeout() throws Exception {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setInitStepTimeoutMillis(100);
+		appender.setEndpoint("http://127.0.0.1:1");
+		appender.setAccessKeyId("access");
+		appender.setSecretKey("secret");
+		appender.setRegion("us-east-1");
+		appender.setLogGroup("pfqoejpfqe");
+		appender.setLogStream("pffqjfqjpoqoejpfqe");
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+
+		// another appender is already using the client
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		replay(logsClient);
+		String key = "us-east-1:http://127.0.0.1:1:access:secret";
+		assertSame(logsClient, LogsClientRegistry.acquire(key, () -> logsClient));
+
+		// init threads left by other tests aren't ours
+		Set<Thread> otherThreads = new HashSet<Thread>(Thread.getAllStackTraces().keySet());
+		Thread initThread = null;
+		synchronized (LogsClientRegistry.class) {
+			// the client step can't get the client until after it has timed out
+			appender.start();
+			while (initThread == null) {
+				for (Thread thread : Thread.getAllStackTraces().keySet()) {
+					if (thread.getName().contains("-init-") && thread.getState() == Thread.State.BLOCKED
+							&& !otherThreads.contains(thread)) {
+						initThread = thread;
+					}
+				}
+				Thread.sleep(10);
+			}
+			Thread.sleep(300);
+		}
+		// the init thread exits once it has released the client that it got too late
+		initThread.join();
+		appender.stop();
+		assertEquals(1, LogsClientRegistry.getRefCount(logsClient));
+		assertTrue(LogsClientRegistry.release(logsClient));
+	}
+
+	@Test(timeout = 10000)
+	public void testStopBeforeInitialized() throws Exception {
+		testStopBeforeInitialized(false);
+	}
+
+	@Test(timeout = 10000)
+	public void testStopBeforeInitializedSharedWriter() throws Exception {
+		testStopBeforeInitialized(true);
+	}
+
+	private void testStopBeforeInitialized(boolean sharedWriter) throws Exception {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		appender.setTestAwsLogsClient(logsClient);
+		appender.setSharedWriter(sharedWriter);
+		appender.setStopTimeoutMillis(100);
+
+		appender.setRegion("region");
+		appender.setLogGroup("pfqoejpfqe");
+		appender.setLogStream("pffqjfqjpoqoejpfqe");
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		EmergencyAppender emergency = new EmergencyAppender();
+		appender.addAppender(emergency);
+
+		expect(logsClient.describeLogGroups(isA(DescribeLogGroupsRequest.class))).andAnswer(() -> {
+			Thread.sleep(5000);
+			return new DescribeLogGroupsResult();
+		}).anyTimes();
+
+		// =====================================
+
+		replay(logsClient);
+		appender.start();
+		appender.append(createEvent("message"));
+		CompletableFuture<Void> flushFuture = appender.flush();
+		appender.stop();
+
+		// the event and the flush aren't left hanging
+		try {
+			flushFuture.get(5, TimeUnit.SECONDS);
+			fail("should have thrown");
+		} catch (ExecutionException e) {
+			// expected
+		}
+		while (emergency.event == null) {
+			Thread.sleep(10);
+		}
+		assertEquals("message", emergency.event.getMessage());
+		assertEquals(0, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testOptimisticLogDestsWithCache() throws Exception {
+		File cacheFile = File.createTempFile(getClass().getSimpleName(), ".txt");
+		cacheFile.delete();
+		try {
+			String logGroup = "pfqoejpfqe";
+			String logStream = "pffqjfqjpoqoejpfqe";
+
+			// first startup creates the destinations without describing them
+			AWSLogs logsClient = createMock(AWSLogs.class);
+			expect(logsClient.createLogGroup(isA(CreateLogGroupRequest.class)))
+					.andThrow(new ResourceAlreadyExistsException("already there"));
+			expect(logsClient.createLogStream(isA(CreateLogStreamRequest.class)))
+					.andReturn(new CreateLogStreamResult());
+			expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult());
+			logsClient.shutdown();
+			replay(logsClient);
+			CloudWatchAppender appender = createOptimisticAppender(logsClient, logGroup, logStream, cacheFile);
+			appender.start();
+			appender.append(createEvent("message"));
+			while (appender.getEventsWrittenCount() < 1) {
+				Thread.sleep(10);
+			}
+			appender.stop();
+			verify(logsClient);
+
+			// restart should make no control-plane calls
+			logsClient = createMock(AWSLogs.class);
+			expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult());
+			logsClient.shutdown();
+			replay(logsClient);
+			appender = createOptimisticAppender(logsClient, logGroup, logStream, cacheFile);
+			appender.start();
+			appender.append(createEvent("message"));
+			while (appender.getEventsWrittenCount() < 1) {
+				Thread.sleep(10);
+			}
+			appender.stop();
+			verify(logsClient);
+		} finally {
+			cacheFile.delete();
+		}
+	}
+
+	private CloudWatchAppender createOptimisticAppender(AWSLogs logsClient, String logGroup, String logStream,
+			File cacheFile) {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setTestAwsLogsClient(logsClient);
+		appender.setOptimisticLogDests(true);
+		appender.setDestinationCacheFile(cacheFile.getPath());
+		appender.setMaxBatchSize(1);
+		appender.setRegion("region");
+		appender.setLogGroup(logGroup);
+		appender.setLogStream(logStream);
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.DEBUG);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+
+	private static class EmergencyAppender extends AppenderBase<ILoggingEvent> {
+
+		volatile ILoggingEvent event;
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			this.event = event;
+		}
+	}
+}
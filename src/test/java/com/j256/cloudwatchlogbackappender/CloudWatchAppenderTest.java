@@ -290,8 +290,9 @@ public class CloudWatchAppenderTest {
 		appender.setMaxEventMessageSize(maxSize);
 
 		String threadName = Thread.currentThread().getName();
+		// the limit applies to the laid out line
 		final String fullMessage =
-				"[" + threadName + "] " + level + " " + loggerName + " - " + message.substring(0, maxSize) + "\n";
+				("[" + threadName + "] " + level + " " + loggerName + " - " + message + "\n").substring(0, maxSize);
 
 		final PutLogEventsResponse response = PutLogEventsResponse.builder().build();
 		expect(awsLogClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
@@ -0,0 +1,48 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class DestinationCacheTest {
+
+	@Test
+	public void testStuff() throws IOException {
+		File file = File.createTempFile(getClass().getSimpleName(), ".txt");
+		file.delete();
+		try {
+			DestinationCache cache = new DestinationCache(file.getPath());
+			cache.load();
+			assertFalse(cache.containsGroup("region", "group"));
+			cache.addGroup("region", "group");
+			cache.addStream("region", "group", "stream");
+			assertTrue(cache.containsGroup("region", "group"));
+			assertTrue(cache.containsStream("region", "group", "stream"));
+			assertFalse(cache.containsGroup("other-region", "group"));
+			assertFalse(cache.containsStream("region", "group", "other-stream"));
+
+			// make sure that it persists
+			cache = new DestinationCache(file.getPath());
+			cache.load();
+			assertTrue(cache.containsGroup("region", "group"));
+			assertTrue(cache.containsStream("region", "group", "stream"));
+
+			cache.addStream("region", "group2", "stream");
+			cache.removeGroup("region", "group");
+			assertFalse(cache.containsGroup("region", "group"));
+			assertFalse(cache.containsStream("region", "group", "stream"));
+			assertTrue(cache.containsStream("region", "group2", "stream"));
+
+			cache = new DestinationCache(file.getPath());
+			cache.load();
+			assertFalse(cache.containsStream("region", "group", "stream"));
+			assertTrue(cache.containsStream("region", "group2", "stream"));
+		} finally {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,336 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.DefaultRequest;
+import com.amazonaws.auth.AWS4Signer;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder.EndpointConfiguration;
+import com.amazonaws.http.HttpMethodName;
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.AWSLogsClientBuilder;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.InvalidSequenceTokenException;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class DirectLogsClientTest {
+
+	private static final String REGION = "us-east-1";
+	private static final BasicAWSCredentials CREDENTIALS = new BasicAWSCredentials("access", "secret");
+
+	private HttpServer server;
+	private DirectLogsClient directClient;
+	private final List<byte[]> bodies = new CopyOnWriteArrayList<byte[]>();
+	private final List<Map<String, String>> headers = new CopyOnWriteArrayList<Map<String, String>>();
+	private volatile int responseStatus = 200;
+	private volatile String responseBody = "{\"nextSequenceToken\":\"next-token\"}";
+	/** errors returned before the response above */
+	private final List<String[]> errorResponses = new CopyOnWriteArrayList<String[]>();
+
+	@Before
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		server.start();
+		directClient = new DirectLogsClient(endpoint(), REGION, new AWSStaticCredentialsProvider(CREDENTIALS));
+	}
+
+	@After
+	public void after() {
+		directClient.shutdown();
+		server.stop(0);
+	}
+
+	@Test
+	public void testSharedHttpClient() {
+		int refCount = LogsClientRegistry.getHttpClientRefCount();
+		DirectLogsClient otherClient =
+				new DirectLogsClient(endpoint(), REGION, new AWSStaticCredentialsProvider(CREDENTIALS));
+		assertEquals(refCount + 1, LogsClientRegistry.getHttpClientRefCount());
+		otherClient.shutdown();
+		// only released once
+		otherClient.shutdown();
+		assertEquals(refCount, LogsClientRegistry.getHttpClientRefCount());
+	}
+
+	@Test
+	public void testRegionEndpoint() {
+		assertEquals("logs.us-east-1.amazonaws.com", DirectLogsClient.regionEndpoint("us-east-1"));
+		assertEquals("logs.cn-north-1.amazonaws.com.cn", DirectLogsClient.regionEndpoint("cn-north-1"));
+		assertEquals("logs.us-gov-west-1.amazonaws.com", DirectLogsClient.regionEndpoint("us-gov-west-1"));
+	}
+
+	@Test
+	public void testSameBodyAsSdk() {
+		String[] messages = new String[] { "plain", "quote \" backslash \\ slash /", "ctrl \n\r\t\b\f\u0001\u001f",
+				"café €  ", "smile 😀", "" };
+		AWSLogs sdkClient = AWSLogsClientBuilder.standard()
+				.withCredentials(new AWSStaticCredentialsProvider(CREDENTIALS))
+				.withEndpointConfiguration(new EndpointConfiguration(endpoint(), REGION))
+				.build();
+		try {
+			InputLogEvent[] logEvents = new InputLogEvent[messages.length];
+			for (int i = 0; i < messages.length; i++) {
+				logEvents[i] = new InputLogEvent().withTimestamp(1000L + i).withMessage(messages[i]);
+			}
+			sdkClient.putLogEvents(
+					new PutLogEventsRequest("group", "stream", Arrays.asList(logEvents)).withSequenceToken("token"));
+		} finally {
+			sdkClient.shutdown();
+		}
+
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		for (int i = 0; i < messages.length; i++) {
+			encoder.addEvent(1000L + i, messages[i]);
+		}
+		encoder.finish("token");
+		assertEquals("next-token", directClient.putLogEvents(encoder));
+
+		// and from the bytes that the layout buffer encodes
+		LayoutBuffer layoutBuffer = new LayoutBuffer();
+		encoder.start("group", "stream");
+		for (int i = 0; i < messages.length; i++) {
+			layoutBuffer.reset().append(messages[i]);
+			layoutBuffer.encode();
+			encoder.addEvent(1000L + i, layoutBuffer.getBytes(), layoutBuffer.getByteLength());
+		}
+		encoder.finish("token");
+		assertEquals("next-token", directClient.putLogEvents(encoder));
+
+		assertEquals(3, bodies.size());
+		assertEquals(new String(bodies.get(0), StandardCharsets.UTF_8),
+				new String(bodies.get(1), StandardCharsets.UTF_8));
+		assertArrayEquals(bodies.get(0), bodies.get(1));
+		assertArrayEquals(bodies.get(0), bodies.get(2));
+		Map<String, String> directHeaders = headers.get(1);
+		assertEquals("Logs_20140328.PutLogEvents", directHeaders.get("x-amz-target"));
+		assertEquals("application/x-amz-json-1.1", directHeaders.get("content-type"));
+		assertTrue(directHeaders.get("authorization").startsWith("AWS4-HMAC-SHA256 Credential=access/"));
+	}
+
+	@Test
+	public void testSignatureMatchesSdk() {
+		byte[] body = "{\"some\":\"body\"}".getBytes(StandardCharsets.UTF_8);
+		ZonedDateTime now = ZonedDateTime.now();
+		String amzDate = AwsV4Signer.formatAmzDate(now);
+
+		DefaultRequest<Void> request = new DefaultRequest<Void>("logs");
+		request.setHttpMethod(HttpMethodName.POST);
+		request.setEndpoint(URI.create("https://logs.us-east-1.amazonaws.com"));
+		request.setResourcePath("/");
+		request.addHeader("Content-Type", "application/x-amz-json-1.1");
+		request.addHeader("X-Amz-Target", "Logs_20140328.PutLogEvents");
+		request.setContent(new ByteArrayInputStream(body));
+		AWS4Signer sdkSigner = new AWS4Signer();
+		sdkSigner.setServiceName("logs");
+		sdkSigner.setRegionName(REGION);
+		sdkSigner.setOverrideDate(Date.from(now.toInstant()));
+		sdkSigner.sign(request, CREDENTIALS);
+
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		encoder.finish(null);
+		Map<String, String> ourHeaders = new HashMap<String, String>();
+		ourHeaders.put("content-type", "application/x-amz-json-1.1");
+		ourHeaders.put("host", "logs.us-east-1.amazonaws.com");
+		ourHeaders.put("x-amz-date", amzDate);
+		ourHeaders.put("x-amz-target", "Logs_20140328.PutLogEvents");
+		String payloadHash = PutLogEventsEncoder.toHex(sha256(body));
+		String authorization = new AwsV4Signer(REGION, "logs").sign("POST", "/", ourHeaders, payloadHash, amzDate,
+				CREDENTIALS.getAWSAccessKeyId(), CREDENTIALS.getAWSSecretKey());
+		assertEquals(request.getHeaders().get("Authorization"), authorization);
+	}
+
+	@Test
+	public void testInvalidSequenceToken() {
+		responseStatus = 400;
+		responseBody = "{\"__type\":\"InvalidSequenceTokenException\",\"expectedSequenceToken\":\"expected\","
+				+ "\"message\":\"The given sequenceToken is invalid\"}";
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		encoder.addEvent(1, "message");
+		encoder.finish("bad");
+		try {
+			directClient.putLogEvents(encoder);
+			fail("should have thrown");
+		} catch (InvalidSequenceTokenException iste) {
+			assertEquals("expected", iste.getExpectedSequenceToken());
+			assertEquals(400, iste.getStatusCode());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testRetries() {
+		errorResponses.add(new String[] { "503", "{\"message\":\"Service Unavailable\"}" });
+		errorResponses
+				.add(new String[] { "400", "{\"__type\":\"ThrottlingException\",\"message\":\"Rate exceeded\"}" });
+		errorResponses.add(new String[] { "429", "{\"message\":\"Too Many Requests\"}" });
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		encoder.addEvent(1, "message");
+		encoder.finish("token");
+		assertEquals("next-token", directClient.putLogEvents(encoder));
+
+		// the same body was sent each time
+		assertEquals(4, bodies.size());
+		for (byte[] body : bodies) {
+			assertArrayEquals(bodies.get(0), body);
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testRetriesGiveUp() {
+		for (int i = 0; i < 10; i++) {
+			errorResponses.add(new String[] { "500", "{\"message\":\"Internal Failure\"}" });
+		}
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		encoder.addEvent(1, "message");
+		encoder.finish(null);
+		try {
+			directClient.putLogEvents(encoder);
+			fail("should have thrown");
+		} catch (AmazonServiceException ase) {
+			assertEquals(500, ase.getStatusCode());
+		}
+		// the first attempt and 3 retries
+		assertEquals(4, bodies.size());
+	}
+
+	@Test
+	public void testClientErrorsNotRetried() {
+		errorResponses.add(new String[] { "400",
+				"{\"__type\":\"InvalidParameterException\",\"message\":\"Log events are too old\"}" });
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+		encoder.start("group", "stream");
+		encoder.addEvent(1, "message");
+		encoder.finish(null);
+		try {
+			directClient.putLogEvents(encoder);
+			fail("should have thrown");
+		} catch (AmazonServiceException ase) {
+			assertEquals("InvalidParameterException", ase.getErrorCode());
+		}
+		assertEquals(1, bodies.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testAppender() throws InterruptedException {
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs awsLogClient = createNiceMock(AWSLogs.class);
+		replay(awsLogClient);
+		appender.setAwsLogsClient(awsLogClient);
+		appender.setDirectPutLogEvents(true);
+		appender.setEndpoint(endpoint());
+		appender.setAccessKeyId(CREDENTIALS.getAWSAccessKeyId());
+		appender.setSecretKey(CREDENTIALS.getAWSSecretKey());
+		appender.setMaxBatchSize(2);
+		appender.setRegion(REGION);
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%level %msg");
+		layout.start();
+		appender.setLayout(layout);
+		int refCount = LogsClientRegistry.getHttpClientRefCount();
+		appender.start();
+
+		appender.append(createEvent("second", 200));
+		appender.append(createEvent("first", 100));
+		while (appender.getEventsWrittenCount() < 2) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+		// the appender let go of the http-client
+		assertEquals(refCount, LogsClientRegistry.getHttpClientRefCount());
+
+		assertEquals(1, bodies.size());
+		assertEquals("{\"logGroupName\":\"group\",\"logStreamName\":\"stream\",\"logEvents\":["
+				+ "{\"timestamp\":100,\"message\":\"INFO first\"},{\"timestamp\":200,\"message\":\"INFO second\"}]}",
+				new String(bodies.get(0), StandardCharsets.UTF_8));
+		assertNotNull(headers.get(0).get("authorization"));
+	}
+
+	private LoggingEvent createEvent(String message, long timestamp) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(timestamp);
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+
+	private String endpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		bodies.add(exchange.getRequestBody().readAllBytes());
+		Map<String, String> requestHeaders = new HashMap<String, String>();
+		for (Map.Entry<String, List<String>> entry : exchange.getRequestHeaders().entrySet()) {
+			requestHeaders.put(entry.getKey().toLowerCase(), entry.getValue().get(0));
+		}
+		headers.add(requestHeaders);
+		int status = responseStatus;
+		String body = responseBody;
+		if (!errorResponses.isEmpty()) {
+			String[] errorResponse = errorResponses.remove(0);
+			status = Integer.parseInt(errorResponse[0]);
+			body = errorResponse[1];
+		}
+		byte[] response = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/x-amz-json-1.1");
+		exchange.sendResponseHeaders(status, response.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(response);
+		}
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
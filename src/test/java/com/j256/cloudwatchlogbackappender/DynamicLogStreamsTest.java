@@ -0,0 +1,129 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.CreateLogStreamRequest;
+import com.amazonaws.services.logs.model.CreateLogStreamResult;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class DynamicLogStreamsTest {
+
+	private final List<String> createdStreams = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> writtenStreams = Collections.synchronizedList(new ArrayList<String>());
+
+	@Test(timeout = 10000)
+	public void testLazyStreamsWithEviction() throws InterruptedException {
+		CloudWatchAppender appender = createAppender("tenant-%X{tenant}");
+		appender.setMaxActiveLogStreams(2);
+		appender.start();
+
+		appender.append(createEvent("a", "1"));
+		appender.append(createEvent("b", "2"));
+		// this evicts a which is written first
+		appender.append(createEvent("c", "3"));
+		// a is active again but isn't created again
+		appender.append(createEvent("a", "4"));
+		while (appender.getEventsWrittenCount() < 4) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+
+		assertEquals(Arrays.asList("tenant-a", "tenant-b", "tenant-c"), createdStreams);
+		List<String> sorted = new ArrayList<String>(writtenStreams);
+		Collections.sort(sorted);
+		assertEquals(Arrays.asList("tenant-a:1", "tenant-a:4", "tenant-b:2", "tenant-c:3"), sorted);
+	}
+
+	@Test(timeout = 20000)
+	public void testCreateLimit() throws InterruptedException {
+		// so the creates are all counted in the same minute
+		while (System.currentTimeMillis() % 60000 > 50000) {
+			Thread.sleep(100);
+		}
+		CloudWatchAppender appender = createAppender("tenant-%X{tenant:-default}");
+		appender.setMaxLogStreamCreatesPerMinute(2);
+		appender.start();
+
+		appender.append(createEvent("a", "1"));
+		appender.append(createEvent("b", "2"));
+		// over the limit so these go to the default stream
+		appender.append(createEvent("c", "3"));
+		appender.append(createEvent("d", "4"));
+		// a already exists
+		appender.append(createEvent("a", "5"));
+		while (appender.getEventsWrittenCount() < 5) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+
+		assertEquals(Arrays.asList("tenant-a", "tenant-b", "tenant-default"), createdStreams);
+		List<String> sorted = new ArrayList<String>(writtenStreams);
+		Collections.sort(sorted);
+		assertEquals(Arrays.asList("tenant-a:1", "tenant-a:5", "tenant-b:2", "tenant-default:3", "tenant-default:4"),
+				sorted);
+	}
+
+	private CloudWatchAppender createAppender(String logStream) {
+		LoggerContext loggerContext = new LoggerContext();
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.createLogStream(isA(CreateLogStreamRequest.class))).andAnswer(() -> {
+			createdStreams.add(((CreateLogStreamRequest) getCurrentArguments()[0]).getLogStreamName());
+			return new CreateLogStreamResult();
+		}).anyTimes();
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				writtenStreams.add(request.getLogStreamName() + ":" + logEvent.getMessage());
+			}
+			return new PutLogEventsResult();
+		}).anyTimes();
+		replay(logsClient);
+
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(logsClient);
+		appender.setOptimisticLogDests(true);
+		appender.setDynamicLogStreams(true);
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchTimeMillis(100);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream(logStream);
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String tenant, String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.singletonMap("tenant", tenant));
+		return event;
+	}
+}
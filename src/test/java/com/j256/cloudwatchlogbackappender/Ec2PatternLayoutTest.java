@@ -0,0 +1,55 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class Ec2PatternLayoutTest {
+
+	@After
+	public void after() {
+		Ec2InstanceNameConverter.setInstanceName(null);
+	}
+
+	@Test
+	public void testFolding() {
+		Ec2InstanceNameConverter.setInstanceName("before");
+		String uuid = "uuid-here";
+		UuidConverter.setUuidString(uuid);
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("[%instance] [%-10uuid] %level - %msg [%iid]%n");
+		layout.start();
+
+		LoggingEvent event = new LoggingEvent();
+		event.setLevel(Level.INFO);
+		event.setMessage("hello");
+		assertEquals("[before] [uuid-here ] INFO - hello [unknown]\n", layout.doLayout(event));
+		event = new LoggingEvent();
+		event.setLevel(Level.WARN);
+		event.setMessage("there");
+		assertEquals("[before] [uuid-here ] WARN - there [unknown]\n", layout.doLayout(event));
+
+		// this happens when the instance lookup finishes after we started
+		Ec2InstanceNameConverter.setInstanceName("after");
+		assertEquals("[after] [uuid-here ] WARN - there [unknown]\n", layout.doLayout(event));
+	}
+
+	@Test
+	public void testNoConstants() {
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("%level %msg%n");
+		layout.start();
+
+		LoggingEvent event = new LoggingEvent();
+		event.setLevel(Level.INFO);
+		event.setMessage("hello");
+		assertEquals("INFO hello\n", layout.doLayout(event));
+	}
+}
@@ -0,0 +1,102 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.j256.cloudwatchlogbackappender.EnvironmentValueCache.CachedValue;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class EnvironmentValueCacheTest {
+
+	@After
+	public void after() {
+		EnvironmentValueCache.setRefreshMillis(EnvironmentValueCache.DEFAULT_REFRESH_MILLIS);
+		EnvironmentValueCache.clear();
+	}
+
+	@Test
+	public void testResolvedOnceAndRefreshed() {
+		AtomicInteger count = new AtomicInteger();
+		CachedValue value = EnvironmentValueCache.register("test", () -> "value" + count.incrementAndGet());
+		assertEquals("value1", value.getValue());
+		assertEquals("value1", value.getValue());
+		// registering again shares the same value
+		assertSame(value, EnvironmentValueCache.register("test", () -> "other"));
+		assertEquals(1, count.get());
+		EnvironmentValueCache.refreshAll();
+		assertEquals("value2", value.getValue());
+	}
+
+	@Test(timeout = 5000)
+	public void testBackgroundRefresh() throws InterruptedException {
+		EnvironmentValueCache.setRefreshMillis(10);
+		AtomicInteger count = new AtomicInteger();
+		CachedValue value = EnvironmentValueCache.register("background", () -> "value" + count.incrementAndGet());
+		while ("value1".equals(value.getValue())) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void testPropertyConverter() {
+		String propName = getClass().getSimpleName() + ".prop";
+		System.setProperty(propName, "before");
+		SystemPropertyConverter converter = new SystemPropertyConverter();
+		converter.setContext(new LoggerContext());
+		converter.setOptionList(Collections.singletonList(propName));
+		converter.start();
+		LoggingEvent event = new LoggingEvent();
+		event.setLevel(Level.INFO);
+		assertEquals("before", converter.convert(event));
+		System.setProperty(propName, "after");
+		// still cached
+		assertEquals("before", converter.convert(event));
+		EnvironmentValueCache.refreshAll();
+		assertEquals("after", converter.convert(event));
+		System.clearProperty(propName);
+	}
+
+	@Test
+	public void testRefreshStoppedWithLastConverter() {
+		// other tests may have left converters started
+		EnvironmentValueCache.clear();
+		assertFalse(EnvironmentValueCache.isRefreshRunning());
+		LoggerContext context = new LoggerContext();
+		HostNameConverter hostConverter = new HostNameConverter();
+		hostConverter.setContext(context);
+		hostConverter.start();
+		SystemPropertyConverter propConverter = new SystemPropertyConverter();
+		propConverter.setContext(context);
+		propConverter.setOptionList(Collections.singletonList("java.version"));
+		propConverter.start();
+		assertTrue(EnvironmentValueCache.isRefreshRunning());
+
+		hostConverter.stop();
+		assertTrue(EnvironmentValueCache.isRefreshRunning());
+		// stopping again doesn't release twice
+		hostConverter.stop();
+		assertTrue(EnvironmentValueCache.isRefreshRunning());
+
+		// the context stops the rest
+		context.reset();
+		assertFalse(propConverter.isStarted());
+		assertFalse(EnvironmentValueCache.isRefreshRunning());
+
+		// and starting again brings it back
+		hostConverter.start();
+		assertTrue(EnvironmentValueCache.isRefreshRunning());
+		hostConverter.stop();
+		assertFalse(EnvironmentValueCache.isRefreshRunning());
+	}
+}
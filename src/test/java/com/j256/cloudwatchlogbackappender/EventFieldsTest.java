@@ -0,0 +1,126 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.html.HTMLLayout;
+import ch.qos.logback.classic.pattern.ClassicConverter;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.encoder.EchoEncoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+
+public class EventFieldsTest {
+
+	private final LoggerContext loggerContext = new LoggerContext();
+
+	@Test
+	public void testPlainPattern() {
+		EventFields fields = fieldsForPattern("%d %level [%thread] %logger{20} - %msg%n");
+		assertTrue(fields.arguments);
+		assertFalse(fields.markers);
+		assertFalse(fields.mdc);
+		assertFalse(fields.contextVO);
+		// the layout adds one to the end
+		assertTrue(fields.throwable);
+
+		fields = fieldsForPattern("%level %msg%nopex");
+		assertFalse(fields.throwable);
+		fields = fieldsForPattern("%level %msg %xThrowable");
+		assertTrue(fields.throwable);
+		assertFalse(fields.mdc);
+		fields = fieldsForPattern("%level %msg %fpThrowable");
+		assertTrue(fields.throwable);
+		assertFalse(fields.mdc);
+
+		fields = fieldsForPattern("%instance %uuid %env{HOME} %level%nopex");
+		assertFalse(fields.arguments);
+		assertFalse(fields.mdc);
+		assertFalse(fields.markers);
+		assertFalse(fields.throwable);
+	}
+
+	@Test
+	public void testFieldConverters() {
+		EventFields fields = fieldsForPattern("%X{tenant} %msg");
+		assertTrue(fields.mdc);
+		assertFalse(fields.markers);
+
+		fields = fieldsForPattern("%marker %msg");
+		assertTrue(fields.markers);
+		assertFalse(fields.mdc);
+
+		// inside of a composite
+		fields = fieldsForPattern("%highlight(%level %X{tenant}) %msg");
+		assertTrue(fields.mdc);
+		fields = fieldsForPattern("%replace(%msg%ex){'\\n', ' '}%nopex");
+		assertTrue(fields.throwable);
+
+		fields = fieldsForPattern("%contextName %msg");
+		assertTrue(fields.contextVO);
+		assertFalse(fields.mdc);
+	}
+
+	@Test
+	public void testUnknown() {
+		// a custom converter that we don't know anything about
+		PatternLayout layout = createLayout("%custom %msg");
+		layout.getInstanceConverterMap().put("custom", SomeConverter.class.getName());
+		assertAll(fieldsForLayout(layout));
+
+		HTMLLayout htmlLayout = new HTMLLayout();
+		htmlLayout.setContext(loggerContext);
+		assertAll(fieldsForLayout(htmlLayout));
+
+		ConsoleAppender<ILoggingEvent> appender = new ConsoleAppender<ILoggingEvent>();
+		appender.setEncoder(new EchoEncoder<ILoggingEvent>());
+		EventFields fields = new EventFields();
+		fields.addAppender(appender);
+		assertAll(fields);
+
+		LayoutWrappingEncoder<ILoggingEvent> encoder = new LayoutWrappingEncoder<ILoggingEvent>();
+		encoder.setLayout(createLayout("%msg%nopex"));
+		appender.setEncoder(encoder);
+		fields = new EventFields();
+		fields.addAppender(appender);
+		assertFalse(fields.mdc);
+		assertFalse(fields.throwable);
+	}
+
+	private void assertAll(EventFields fields) {
+		assertTrue(fields.arguments);
+		assertTrue(fields.markers);
+		assertTrue(fields.mdc);
+		assertTrue(fields.throwable);
+		assertTrue(fields.contextVO);
+	}
+
+	private EventFields fieldsForPattern(String pattern) {
+		return fieldsForLayout(createLayout(pattern));
+	}
+
+	private EventFields fieldsForLayout(Layout<ILoggingEvent> layout) {
+		EventFields fields = new EventFields();
+		fields.addLayout(layout);
+		return fields;
+	}
+
+	private PatternLayout createLayout(String pattern) {
+		PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern(pattern);
+		return layout;
+	}
+
+	public static class SomeConverter extends ClassicConverter {
+		@Override
+		public String convert(ILoggingEvent event) {
+			return event.getMDCPropertyMap().toString();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class LayoutBufferTest {
+
+	@Test
+	public void testEncode() {
+		LayoutBuffer buffer = new LayoutBuffer();
+		for (String str : new String[] { "", "hello", "café", "€100", "smile 😀!", "bad \ud83d" }) {
+			buffer.reset().append(str);
+			int length = buffer.encode();
+			assertEquals(length, buffer.getByteLength());
+			assertEquals(MiscUtils.utf8Length(str), length);
+			assertArrayEquals(str, str.getBytes(StandardCharsets.UTF_8), Arrays.copyOf(buffer.getBytes(), length));
+		}
+	}
+
+	@Test
+	public void testTruncate() {
+		LayoutBuffer buffer = new LayoutBuffer();
+		buffer.reset().append("short");
+		assertFalse(buffer.truncate(5, "..."));
+		assertEquals("short", buffer.getChars().toString());
+
+		buffer.reset().append("café au lait");
+		assertTrue(buffer.truncate(7, "..."));
+		// the é would have been split so it is cut before it
+		assertEquals("caf...", buffer.getChars().toString());
+
+		buffer.reset().append("ab😀cd");
+		assertTrue(buffer.truncate(5, ""));
+		assertEquals("ab", buffer.getChars().toString());
+
+		// marker doesn't fit by itself
+		buffer.reset().append("abcdef");
+		assertTrue(buffer.truncate(2, "[truncated]"));
+		assertEquals("ab", buffer.getChars().toString());
+	}
+
+	@Test
+	public void testRender() {
+		Ec2InstanceNameConverter.setInstanceName("inst");
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("[%instance] %level - %msg");
+		layout.start();
+		LoggingEvent event = new LoggingEvent();
+		event.setLevel(Level.INFO);
+		event.setMessage("hello");
+		LayoutBuffer buffer = new LayoutBuffer();
+		assertEquals("[inst] INFO - hello", buffer.render(layout, event).toString());
+		// reused
+		assertEquals("[inst] INFO - hello", buffer.render(layout, event).toString());
+		Ec2InstanceNameConverter.setInstanceName(null);
+	}
+
+	@Test
+	public void testSteadyStateAllocation() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("[%instance] %level %logger - %msg%n");
+		layout.start();
+		LoggingEvent event = new LoggingEvent();
+		event.setLevel(Level.INFO);
+		event.setLoggerName("name");
+		event.setMessage("some message here");
+		LayoutBuffer buffer = new LayoutBuffer();
+		// rendered into the request body like the writer does
+		PutLogEventsEncoder encoder = new PutLogEventsEncoder();
+
+		// warm up
+		renderEvents(layout, event, buffer, encoder, 100000);
+		long threadId = Thread.currentThread().getId();
+		int count = 100000;
+		long allocated = Long.MAX_VALUE;
+		// the JIT and the measurement itself can allocate a bit so we take the best of a few tries
+		for (int i = 0; i < 3; i++) {
+			long before = threadBean.getThreadAllocatedBytes(threadId);
+			renderEvents(layout, event, buffer, encoder, count);
+			allocated = Math.min(allocated, threadBean.getThreadAllocatedBytes(threadId) - before);
+		}
+		assertTrue("allocated " + allocated + " bytes for " + count + " events", allocated < count / 10);
+	}
+
+	private void renderEvents(Ec2PatternLayout layout, LoggingEvent event, LayoutBuffer buffer,
+			PutLogEventsEncoder encoder, int count) {
+		for (int i = 0; i < count; i++) {
+			if (i % 1000 == 0) {
+				encoder.start("group", "stream");
+			}
+			buffer.render(layout, event);
+			buffer.encode();
+			encoder.addEvent(event.getTimeStamp(), buffer.getBytes(), buffer.getByteLength());
+		}
+	}
+}
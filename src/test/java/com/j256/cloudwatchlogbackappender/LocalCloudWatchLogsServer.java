@@ -0,0 +1,513 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for the CloudWatch Logs service which speaks the same JSON protocol as the real one for
+ * PutLogEvents, CreateLogGroup, CreateLogStream, DescribeLogGroups, and DescribeLogStreams. Point the appender at it
+ * with {@link CloudWatchAppender#setEndpoint(String)}. Requests aren't authenticated.
+ *
+ * Faults can be injected: latency on every request, throttling or 5xx errors on the next N requests, and rejecting
+ * events that are too old. The PutLogEvents payload limits are checked the same as the service does.
+ *
+ * @author graywatson
+ */
+public class LocalCloudWatchLogsServer {
+
+	private static final String TARGET_PREFIX = "Logs_20140328.";
+	private static final int MAX_BATCH_BYTES = 1024 * 1024;
+	private static final int MAX_BATCH_EVENTS = 10000;
+	private static final int EVENT_OVERHEAD_BYTES = 26;
+	private static final int MAX_EVENT_BYTES = 256 * 1024;
+	private static final long MAX_BATCH_SPAN_MILLIS = TimeUnit.HOURS.toMillis(24);
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	/** events by stream by group */
+	private final Map<String, Map<String, LogStream>> groups = new LinkedHashMap<String, Map<String, LogStream>>();
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private final AtomicInteger throttleCount = new AtomicInteger();
+	private final AtomicInteger errorCount = new AtomicInteger();
+	private volatile long latencyMillis;
+	private volatile int errorStatus = 500;
+	private volatile long maxEventAgeMillis;
+	private volatile Consumer<String> acceptListener;
+	private volatile boolean retainMessages = true;
+
+	public LocalCloudWatchLogsServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", this::handle);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public String getEndpoint() {
+		return "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Delay every response by this much.
+	 */
+	public void setLatencyMillis(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * Throttle the next N requests.
+	 */
+	public void throttleNext(int count) {
+		throttleCount.set(count);
+	}
+
+	/**
+	 * Fail the next N requests with a 5xx status.
+	 */
+	public void failNext(int count, int status) {
+		errorStatus = status;
+		errorCount.set(count);
+	}
+
+	/**
+	 * Reject put events older than this, like the service does with events more than 14 days old. 0 to accept all.
+	 */
+	public void setMaxEventAgeMillis(long maxEventAgeMillis) {
+		this.maxEventAgeMillis = maxEventAgeMillis;
+	}
+
+	/**
+	 * Called with each message as it is accepted.
+	 */
+	public void setAcceptListener(Consumer<String> acceptListener) {
+		this.acceptListener = acceptListener;
+	}
+
+	/**
+	 * Set to false to not keep the accepted messages, for long runs.
+	 */
+	public void setRetainMessages(boolean retainMessages) {
+		this.retainMessages = retainMessages;
+	}
+
+	public int getRequestCount() {
+		return requestCount.get();
+	}
+
+	public synchronized void createLogGroup(String groupName) {
+		groups.computeIfAbsent(groupName, name -> new LinkedHashMap<String, LogStream>());
+	}
+
+	public synchronized List<String> getLogGroupNames() {
+		return new ArrayList<String>(groups.keySet());
+	}
+
+	public synchronized List<String> getLogStreamNames(String groupName) {
+		Map<String, LogStream> streams = groups.get(groupName);
+		return (streams == null ? Collections.<String> emptyList() : new ArrayList<String>(streams.keySet()));
+	}
+
+	/**
+	 * @return The messages that were accepted into the stream, in the order they were put.
+	 */
+	public synchronized List<String> getMessages(String groupName, String streamName) {
+		LogStream stream = findStream(groupName, streamName);
+		return (stream == null ? Collections.<String> emptyList() : new ArrayList<String>(stream.messages));
+	}
+
+	/**
+	 * @return The number of events that were rejected from the stream.
+	 */
+	public synchronized int getRejectedCount(String groupName, String streamName) {
+		LogStream stream = findStream(groupName, streamName);
+		return (stream == null ? 0 : stream.rejectedCount);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requestCount.incrementAndGet();
+		byte[] body;
+		try (InputStream input = exchange.getRequestBody()) {
+			body = input.readAllBytes();
+		}
+		if (latencyMillis > 0) {
+			try {
+				Thread.sleep(latencyMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+		String target = exchange.getRequestHeaders().getFirst("X-Amz-Target");
+		Response response;
+		if (throttleCount.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+			response = Response.error(400, "ThrottlingException", "Rate exceeded");
+		} else if (errorCount.getAndUpdate(count -> Math.max(0, count - 1)) > 0) {
+			response = Response.error(errorStatus, "ServiceUnavailableException", "Injected failure");
+		} else if (target == null || !target.startsWith(TARGET_PREFIX)) {
+			response = Response.error(400, "UnknownOperationException", "Unknown target: " + target);
+		} else {
+			try {
+				@SuppressWarnings("unchecked")
+				Map<String, Object> request =
+						(Map<String, Object>) new JsonParser(new String(body, StandardCharsets.UTF_8)).parse();
+				response = dispatch(target.substring(TARGET_PREFIX.length()), request, body.length);
+			} catch (RuntimeException e) {
+				response = Response.error(400, "SerializationException", String.valueOf(e.getMessage()));
+			}
+		}
+		byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/x-amz-json-1.1");
+		exchange.sendResponseHeaders(response.status, bytes.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(bytes);
+		}
+	}
+
+	private synchronized Response dispatch(String operation, Map<String, Object> request, int bodyLength) {
+		String groupName = (String) request.get("logGroupName");
+		String streamName = (String) request.get("logStreamName");
+		switch (operation) {
+			case "CreateLogGroup":
+				if (groups.containsKey(groupName)) {
+					return Response.error(400, "ResourceAlreadyExistsException", "The specified log group already exists");
+				}
+				createLogGroup(groupName);
+				return Response.ok("{}");
+			case "CreateLogStream": {
+				Map<String, LogStream> streams = groups.get(groupName);
+				if (streams == null) {
+					return Response.error(400, "ResourceNotFoundException", "The specified log group does not exist.");
+				}
+				if (streams.containsKey(streamName)) {
+					return Response.error(400, "ResourceAlreadyExistsException",
+							"The specified log stream already exists");
+				}
+				streams.put(streamName, new LogStream());
+				return Response.ok("{}");
+			}
+			case "DescribeLogGroups": {
+				String prefix = (String) request.get("logGroupNamePrefix");
+				StringBuilder sb = new StringBuilder("{\"logGroups\":[");
+				boolean first = true;
+				for (String name : groups.keySet()) {
+					if (prefix == null || name.startsWith(prefix)) {
+						if (!first) {
+							sb.append(',');
+						}
+						first = false;
+						sb.append("{\"logGroupName\":").append(quote(name)).append('}');
+					}
+				}
+				return Response.ok(sb.append("]}").toString());
+			}
+			case "DescribeLogStreams": {
+				Map<String, LogStream> streams = groups.get(groupName);
+				if (streams == null) {
+					return Response.error(400, "ResourceNotFoundException", "The specified log group does not exist.");
+				}
+				String prefix = (String) request.get("logStreamNamePrefix");
+				StringBuilder sb = new StringBuilder("{\"logStreams\":[");
+				boolean first = true;
+				for (Map.Entry<String, LogStream> entry : streams.entrySet()) {
+					if (prefix == null || entry.getKey().startsWith(prefix)) {
+						if (!first) {
+							sb.append(',');
+						}
+						first = false;
+						sb.append("{\"logStreamName\":").append(quote(entry.getKey()));
+						sb.append(",\"uploadSequenceToken\":").append(quote(entry.getValue().sequenceToken()));
+						sb.append('}');
+					}
+				}
+				return Response.ok(sb.append("]}").toString());
+			}
+			case "PutLogEvents":
+				return putLogEvents(groupName, streamName, request, bodyLength);
+			default:
+				return Response.error(400, "UnknownOperationException", "Unsupported operation: " + operation);
+		}
+	}
+
+	private Response putLogEvents(String groupName, String streamName, Map<String, Object> request, int bodyLength) {
+		LogStream stream = findStream(groupName, streamName);
+		if (stream == null) {
+			return Response.error(400, "ResourceNotFoundException", "The specified log stream does not exist.");
+		}
+		String sequenceToken = (String) request.get("sequenceToken");
+		if (sequenceToken != null && !sequenceToken.equals(stream.sequenceToken())) {
+			return Response.error(400, "InvalidSequenceTokenException",
+					"The given sequenceToken is invalid. The next expected sequenceToken is: "
+							+ stream.sequenceToken(),
+					"\"expectedSequenceToken\":" + quote(stream.sequenceToken()));
+		}
+		@SuppressWarnings("unchecked")
+		List<Map<String, Object>> events = (List<Map<String, Object>>) request.get("logEvents");
+		if (events == null || events.isEmpty()) {
+			return Response.error(400, "InvalidParameterException", "logEvents is empty");
+		}
+		if (events.size() > MAX_BATCH_EVENTS) {
+			return Response.error(400, "InvalidParameterException", "Too many log events in the batch");
+		}
+		if (bodyLength > MAX_BATCH_BYTES + 64 * 1024) {
+			return Response.error(413, "RequestEntityTooLargeException", "Request entity too large");
+		}
+		int batchBytes = 0;
+		long previous = Long.MIN_VALUE;
+		long first = ((Number) events.get(0).get("timestamp")).longValue();
+		for (Map<String, Object> event : events) {
+			long timestamp = ((Number) event.get("timestamp")).longValue();
+			int eventBytes = ((String) event.get("message")).getBytes(StandardCharsets.UTF_8).length;
+			if (eventBytes + EVENT_OVERHEAD_BYTES > MAX_EVENT_BYTES) {
+				return Response.error(400, "InvalidParameterException", "Log event too large");
+			}
+			if (timestamp < previous) {
+				return Response.error(400, "InvalidParameterException",
+						"Log events in a single PutLogEvents request must be in chronological order.");
+			}
+			if (timestamp - first > MAX_BATCH_SPAN_MILLIS) {
+				return Response.error(400, "InvalidParameterException",
+						"The batch of log events in a single PutLogEvents request cannot span more than 24 hours.");
+			}
+			previous = timestamp;
+			batchBytes += eventBytes + EVENT_OVERHEAD_BYTES;
+		}
+		if (batchBytes > MAX_BATCH_BYTES) {
+			return Response.error(400, "InvalidParameterException", "Upload too large: " + batchBytes + " bytes");
+		}
+		// events are sorted so the too-old ones are at the front
+		int tooOldEnd = 0;
+		if (maxEventAgeMillis > 0) {
+			long oldest = System.currentTimeMillis() - maxEventAgeMillis;
+			while (tooOldEnd < events.size() && ((Number) events.get(tooOldEnd).get("timestamp")).longValue() < oldest) {
+				tooOldEnd++;
+			}
+		}
+		Consumer<String> listener = acceptListener;
+		for (int i = tooOldEnd; i < events.size(); i++) {
+			String message = (String) events.get(i).get("message");
+			if (retainMessages) {
+				stream.messages.add(message);
+			}
+			if (listener != null) {
+				listener.accept(message);
+			}
+		}
+		stream.rejectedCount += tooOldEnd;
+		stream.tokenCount++;
+		StringBuilder sb = new StringBuilder("{\"nextSequenceToken\":").append(quote(stream.sequenceToken()));
+		if (tooOldEnd > 0) {
+			sb.append(",\"rejectedLogEventsInfo\":{\"tooOldLogEventEndIndex\":").append(tooOldEnd).append('}');
+		}
+		return Response.ok(sb.append('}').toString());
+	}
+
+	private LogStream findStream(String groupName, String streamName) {
+		Map<String, LogStream> streams = groups.get(groupName);
+		return (streams == null ? null : streams.get(streamName));
+	}
+
+	private static String quote(String value) {
+		StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char ch = value.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				sb.append('\\').append(ch);
+			} else if (ch < 0x20) {
+				sb.append(String.format("\\u%04x", (int) ch));
+			} else {
+				sb.append(ch);
+			}
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * Events that have been accepted into a stream.
+	 */
+	private static class LogStream {
+		final List<String> messages = new ArrayList<String>();
+		int rejectedCount;
+		int tokenCount;
+
+		String sequenceToken() {
+			return Integer.toString(tokenCount);
+		}
+	}
+
+	private static class Response {
+		final int status;
+		final String body;
+
+		private Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+
+		static Response ok(String body) {
+			return new Response(200, body);
+		}
+
+		static Response error(int status, String type, String message) {
+			return error(status, type, message, null);
+		}
+
+		static Response error(int status, String type, String message, String extraFields) {
+			String body = "{\"__type\":" + quote(type) + ",\"message\":" + quote(message)
+					+ (extraFields == null ? "" : "," + extraFields) + "}";
+			return new Response(status, body);
+		}
+	}
+
+	/**
+	 * Just enough JSON parsing for the request bodies.
+	 */
+	private static class JsonParser {
+		private final String json;
+		private int pos;
+
+		public JsonParser(String json) {
+			this.json = json;
+		}
+
+		Object parse() {
+			skipWhitespace();
+			char ch = json.charAt(pos);
+			switch (ch) {
+				case '{': {
+					pos++;
+					Map<String, Object> map = new LinkedHashMap<String, Object>();
+					skipWhitespace();
+					if (json.charAt(pos) == '}') {
+						pos++;
+						return map;
+					}
+					while (true) {
+						skipWhitespace();
+						String key = parseString();
+						skipWhitespace();
+						expect(':');
+						map.put(key, parse());
+						skipWhitespace();
+						if (json.charAt(pos++) == '}') {
+							return map;
+						}
+					}
+				}
+				case '[': {
+					pos++;
+					List<Object> list = new ArrayList<Object>();
+					skipWhitespace();
+					if (json.charAt(pos) == ']') {
+						pos++;
+						return list;
+					}
+					while (true) {
+						list.add(parse());
+						skipWhitespace();
+						if (json.charAt(pos++) == ']') {
+							return list;
+						}
+					}
+				}
+				case '"':
+					return parseString();
+				case 't':
+					pos += 4;
+					return Boolean.TRUE;
+				case 'f':
+					pos += 5;
+					return Boolean.FALSE;
+				case 'n':
+					pos += 4;
+					return null;
+				default:
+					int start = pos;
+					while (pos < json.length() && "+-0123456789.eE".indexOf(json.charAt(pos)) >= 0) {
+						pos++;
+					}
+					String number = json.substring(start, pos);
+					if (number.indexOf('.') >= 0 || number.indexOf('e') >= 0 || number.indexOf('E') >= 0) {
+						return Double.parseDouble(number);
+					} else {
+						return Long.parseLong(number);
+					}
+			}
+		}
+
+		private String parseString() {
+			expect('"');
+			StringBuilder sb = new StringBuilder();
+			while (true) {
+				char ch = json.charAt(pos++);
+				if (ch == '"') {
+					return sb.toString();
+				} else if (ch != '\\') {
+					sb.append(ch);
+					continue;
+				}
+				ch = json.charAt(pos++);
+				switch (ch) {
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'n':
+						sb.append('\n');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'u':
+						sb.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+						pos += 4;
+						break;
+					default:
+						sb.append(ch);
+						break;
+				}
+			}
+		}
+
+		private void expect(char expected) {
+			if (json.charAt(pos) != expected) {
+				throw new IllegalArgumentException("Expected '" + expected + "' at position " + pos);
+			}
+			pos++;
+		}
+
+		private void skipWhitespace() {
+			while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+				pos++;
+			}
+		}
+	}
+}
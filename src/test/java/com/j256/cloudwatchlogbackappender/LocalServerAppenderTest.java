@@ -0,0 +1,338 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+/**
+ * Runs the appender end to end against the {@link LocalCloudWatchLogsServer}.
+ */
+public class LocalServerAppenderTest {
+
+	private LocalCloudWatchLogsServer server;
+
+	@Before
+	public void before() throws IOException {
+		server = new LocalCloudWatchLogsServer();
+		server.start();
+	}
+
+	@After
+	public void after() {
+		server.stop();
+	}
+
+	@Test(timeout = 20000)
+	public void testSdkClient() throws Exception {
+		testEndToEnd(false);
+	}
+
+	@Test(timeout = 20000)
+	public void testDirectPutLogEvents() throws Exception {
+		testEndToEnd(true);
+	}
+
+	@Test(timeout = 20000)
+	public void testThrottlingAndErrors() throws Exception {
+		CloudWatchAppender appender = createAppender(false);
+		appender.start();
+		appender.append(createEvent("first", System.currentTimeMillis()));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		// the SDK retries these itself
+		server.throttleNext(1);
+		server.failNext(1, 503);
+		appender.append(createEvent("second", System.currentTimeMillis()));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+		assertEquals(Arrays.asList("first", "second"), server.getMessages("group", "stream"));
+	}
+
+	@Test(timeout = 20000)
+	public void testRejectedEvents() throws Exception {
+		server.setMaxEventAgeMillis(TimeUnit.MINUTES.toMillis(1));
+		CloudWatchAppender appender = createAppender(false);
+		appender.start();
+		long now = System.currentTimeMillis();
+		appender.append(createEvent("too old", now - TimeUnit.MINUTES.toMillis(2)));
+		appender.append(createEvent("recent", now));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+		assertEquals(Collections.singletonList("recent"), server.getMessages("group", "stream"));
+		assertEquals(1, server.getRejectedCount("group", "stream"));
+	}
+
+	@Test(timeout = 20000)
+	public void testMultiByteTruncation() throws Exception {
+		testMultiByteTruncation(false);
+	}
+
+	@Test(timeout = 20000)
+	public void testMultiByteTruncationDirect() throws Exception {
+		testMultiByteTruncation(true);
+	}
+
+	private void testMultiByteTruncation(boolean direct) throws Exception {
+		CloudWatchAppender appender = createAppender(direct);
+		appender.setTruncationMarker(" [truncated]");
+		appender.start();
+		// fewer chars than the max but twice as many bytes
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 200 * 1024; i++) {
+			sb.append('é');
+		}
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			appender.append(createEvent(sb.toString(), now + i));
+		}
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		// the server rejects events or requests over the limits so these had to be cut and split up
+		List<String> messages = server.getMessages("group", "stream");
+		assertEquals(6, messages.size());
+		for (String message : messages) {
+			assertTrue(message.endsWith("é [truncated]"));
+			int bytes = message.getBytes(StandardCharsets.UTF_8).length;
+			assertTrue(bytes <= CloudWatchAppender.DEFAULT_MAX_EVENT_MESSAGE_SIZE);
+		}
+		assertEquals(6, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 20000)
+	public void testChunking() throws Exception {
+		testChunking(false);
+	}
+
+	@Test(timeout = 20000)
+	public void testChunkingDirect() throws Exception {
+		testChunking(true);
+	}
+
+	@Test(timeout = 20000)
+	public void testChunkingLimit() throws Exception {
+		CloudWatchAppender appender = createAppender(false);
+		appender.setChunkEventMessages(true);
+		appender.setMaxEventMessageSize(100);
+		appender.setMaxEventChunks(3);
+		appender.setTruncationMarker("...");
+		appender.start();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		appender.append(createEvent(sb.toString(), System.currentTimeMillis()));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		List<String> messages = server.getMessages("group", "stream");
+		assertEquals(3, messages.size());
+		for (String message : messages) {
+			assertTrue(message, message.length() <= 100);
+		}
+		assertTrue(messages.get(2).matches("\\[chunk [0-9a-f]{8} 3/3\\] [a-z]+\\.\\.\\."));
+	}
+
+	@Test(timeout = 20000)
+	public void testBatchSpan() throws Exception {
+		testBatchSpan(false);
+	}
+
+	@Test(timeout = 20000)
+	public void testBatchSpanDirect() throws Exception {
+		testBatchSpan(true);
+	}
+
+	private void testBatchSpan(boolean direct) throws Exception {
+		CloudWatchAppender appender = createAppender(direct);
+		appender.start();
+		// the server rejects requests that span more than 24 hours
+		long now = System.currentTimeMillis();
+		appender.append(createEvent("yesterday", now - TimeUnit.HOURS.toMillis(25)));
+		appender.append(createEvent("today", now));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+		assertEquals(Arrays.asList("yesterday", "today"), server.getMessages("group", "stream"));
+		assertEquals(2, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 20000)
+	public void testRepeatSuppression() throws Exception {
+		CloudWatchAppender appender = createAppender(false);
+		appender.setMaxRepeatsPerWindow(2);
+		appender.setRepeatWindowMillis(60000);
+		appender.start();
+		long window = System.currentTimeMillis() / 60000 * 60000;
+		for (int i = 0; i < 10; i++) {
+			appender.append(createEvent("loop", window + i));
+		}
+		appender.append(createEvent("other", window + 10));
+		appender.append(createEvent("loop", window + 60000));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		assertEquals(Arrays.asList("loop", "loop", "other", "Suppressed 8 repeats of: loop", "loop"),
+				server.getMessages("group", "stream"));
+	}
+
+	@Test(timeout = 20000)
+	public void testRepeatBurstEnds() throws Exception {
+		testRepeatBurstEnds(false);
+	}
+
+	@Test(timeout = 20000)
+	public void testRepeatBurstEndsSharedWriter() throws Exception {
+		testRepeatBurstEnds(true);
+	}
+
+	@Test(timeout = 20000)
+	public void testCopiedFields() throws Exception {
+		CloudWatchAppender appender = createAppender(false);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("%X{tenant} %msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage("message {}");
+		event.setArgumentArray(new Object[] { "arg" });
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.singletonMap("tenant", "abc"));
+		appender.append(event);
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+		assertEquals(Collections.singletonList("abc message arg"), server.getMessages("group", "stream"));
+	}
+
+	private void testRepeatBurstEnds(boolean sharedWriter) throws Exception {
+		CloudWatchAppender appender = createAppender(false);
+		appender.setSharedWriter(sharedWriter);
+		appender.setMaxBatchTimeMillis(100);
+		appender.setMaxRepeatsPerWindow(2);
+		appender.setRepeatWindowMillis(1000);
+		appender.start();
+		long window = System.currentTimeMillis() / 1000 * 1000;
+		for (int i = 0; i < 10; i++) {
+			appender.append(createEvent("loop", window + i));
+		}
+
+		// nothing else is logged but the summary is written once the window closes
+		List<String> expected = Arrays.asList("loop", "loop", "Suppressed 8 repeats of: loop");
+		while (!expected.equals(server.getMessages("group", "stream"))) {
+			Thread.sleep(50);
+		}
+		appender.stop();
+	}
+
+	private void testChunking(boolean direct) throws Exception {
+		CloudWatchAppender appender = createAppender(direct);
+		appender.setChunkEventMessages(true);
+		appender.start();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 600 * 1024; i++) {
+			sb.append((char) ('a' + i % 26));
+		}
+		String big = sb.toString();
+		long now = System.currentTimeMillis();
+		appender.append(createEvent("before", now));
+		appender.append(createEvent(big, now + 1));
+		appender.append(createEvent("after", now + 1));
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		List<String> messages = server.getMessages("group", "stream");
+		assertEquals(5, messages.size());
+		assertEquals("before", messages.get(0));
+		Pattern headerPattern = Pattern.compile("\\[chunk ([0-9a-f]{8}) (\\d+)/(\\d+)\\] ");
+		StringBuilder reassembled = new StringBuilder();
+		String chunkId = null;
+		for (int i = 1; i <= 3; i++) {
+			Matcher matcher = headerPattern.matcher(messages.get(i));
+			assertTrue(matcher.lookingAt());
+			if (chunkId == null) {
+				chunkId = matcher.group(1);
+			} else {
+				assertEquals(chunkId, matcher.group(1));
+			}
+			assertEquals(Integer.toString(i), matcher.group(2));
+			assertEquals("3", matcher.group(3));
+			reassembled.append(messages.get(i).substring(matcher.end()));
+		}
+		assertEquals(big, reassembled.toString());
+		assertEquals("after", messages.get(4));
+		assertEquals(3, appender.getEventsWrittenCount());
+	}
+
+	private void testEndToEnd(boolean direct) throws Exception {
+		server.setLatencyMillis(5);
+		CloudWatchAppender appender = createAppender(direct);
+		appender.start();
+		List<String> expected = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 50; i++) {
+			String message = "message " + i + " \"quoted\" café";
+			expected.add(message);
+			appender.append(createEvent(message, now + i));
+		}
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		// the appender created the group and stream itself
+		assertEquals(Collections.singletonList("group"), server.getLogGroupNames());
+		assertEquals(Collections.singletonList("stream"), server.getLogStreamNames("group"));
+		assertEquals(expected, server.getMessages("group", "stream"));
+		assertEquals(50, appender.getEventsWrittenCount());
+		assertTrue(server.getRequestCount() > 0);
+	}
+
+	private CloudWatchAppender createAppender(boolean direct) {
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setEndpoint(server.getEndpoint());
+		appender.setDirectPutLogEvents(direct);
+		appender.setAccessKeyId("access");
+		appender.setSecretKey("secret");
+		appender.setRegion("us-east-1");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchTimeMillis(60000);
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String message, long timestamp) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(timestamp);
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
@@ -0,0 +1,86 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class LogLimitTest {
+
+	@Test
+	public void testHierarchy() {
+		LogLimit parent = new LogLimit();
+		parent.setLogger("com.foo");
+		parent.setSampleRate(0);
+		LogLimit child = new LogLimit();
+		child.setLogger("com.foo.bar");
+		child.setMaxLevel("INFO");
+		child.setSampleRate(1);
+		LogLimiter limiter = new LogLimiter(Arrays.asList(parent, child));
+
+		// closest logger wins
+		assertTrue(limiter.allow(createEvent("com.foo.bar.Baz", Level.INFO)));
+		assertTrue(limiter.allow(createEvent("com.foo.bar", Level.DEBUG)));
+		// child doesn't apply to warn so the parent does
+		assertFalse(limiter.allow(createEvent("com.foo.bar.Baz", Level.WARN)));
+		assertFalse(limiter.allow(createEvent("com.foo.Other", Level.INFO)));
+		assertFalse(limiter.allow(createEvent("com.foo", Level.INFO)));
+		// not a child just because of the prefix
+		assertTrue(limiter.allow(createEvent("com.foobar", Level.INFO)));
+		assertTrue(limiter.allow(createEvent("org.Other", Level.INFO)));
+		// cached lookup gives the same answer
+		assertFalse(limiter.allow(createEvent("com.foo.Other", Level.INFO)));
+
+		assertEquals(4, parent.getDroppedCount());
+		assertEquals(0, child.getDroppedCount());
+		assertEquals("com.foo", parent.getName());
+	}
+
+	@Test
+	public void testRate() throws InterruptedException {
+		LogLimit limit = new LogLimit();
+		limit.setEventsPerSecond(100);
+		limit.setBurstSize(5);
+		LogLimiter limiter = new LogLimiter(Arrays.asList(limit));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(limiter.allow(createEvent("name", Level.INFO)));
+		}
+		assertFalse(limiter.allow(createEvent("name", Level.INFO)));
+		assertFalse(limiter.allow(createEvent("name", Level.INFO)));
+		assertEquals(2, limit.getDroppedCount());
+		// refilled lazily
+		Thread.sleep(30);
+		assertTrue(limiter.allow(createEvent("name", Level.INFO)));
+	}
+
+	@Test
+	public void testSampling() {
+		LogLimit limit = new LogLimit();
+		limit.setName("sampled");
+		limit.setSampleRate(0.5);
+		LogLimiter limiter = new LogLimiter(Arrays.asList(limit));
+		int allowed = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (limiter.allow(createEvent("name", Level.INFO))) {
+				allowed++;
+			}
+		}
+		assertTrue(Integer.toString(allowed), allowed > 4000 && allowed < 6000);
+		assertEquals(10000 - allowed, limit.getDroppedCount());
+		assertEquals("sampled", limit.getName());
+	}
+
+	private static LoggingEvent createEvent(String loggerName, Level level) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName(loggerName);
+		event.setLevel(level);
+		event.setMessage("msg");
+		return event;
+	}
+}
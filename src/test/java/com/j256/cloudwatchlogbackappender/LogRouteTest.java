@@ -0,0 +1,146 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class LogRouteTest {
+
+	@Test
+	public void testMatches() {
+		LogRoute route = new LogRoute();
+		// no conditions matches everything
+		assertTrue(route.matches(createEvent("com.foo.Bar", Level.DEBUG, "msg", Collections.emptyMap())));
+
+		route.setLoggerPrefix("com.foo.");
+		route.setLevel("WARN");
+		assertTrue(route.matches(createEvent("com.foo.Bar", Level.WARN, "msg", Collections.emptyMap())));
+		assertTrue(route.matches(createEvent("com.foo.Bar", Level.ERROR, "msg", Collections.emptyMap())));
+		assertFalse(route.matches(createEvent("com.foo.Bar", Level.INFO, "msg", Collections.emptyMap())));
+		assertFalse(route.matches(createEvent("com.other.Bar", Level.ERROR, "msg", Collections.emptyMap())));
+
+		route = new LogRoute();
+		route.setMdcKey("tenant");
+		assertTrue(route.matches(createEvent("name", Level.INFO, "msg", Collections.singletonMap("tenant", "a"))));
+		assertFalse(route.matches(createEvent("name", Level.INFO, "msg", Collections.emptyMap())));
+		route.setMdcValue("b");
+		assertFalse(route.matches(createEvent("name", Level.INFO, "msg", Collections.singletonMap("tenant", "a"))));
+		assertTrue(route.matches(createEvent("name", Level.INFO, "msg", Collections.singletonMap("tenant", "b"))));
+
+		route = new LogRoute();
+		route.setMarker("AUDIT");
+		LoggingEvent event = createEvent("name", Level.INFO, "msg", Collections.emptyMap());
+		assertFalse(route.matches(event));
+		event.addMarker(MarkerFactory.getMarker("AUDIT"));
+		assertTrue(route.matches(event));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBadLevel() {
+		new LogRoute().setLevel("LOUD");
+	}
+
+	@Test(timeout = 10000)
+	public void testAppenderRouting() throws InterruptedException {
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		List<PutLogEventsRequest> requests = Collections.synchronizedList(new ArrayList<PutLogEventsRequest>());
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			requests.add(request);
+			// each stream has its own tokens
+			return new PutLogEventsResult().withNextSequenceToken(
+					request.getLogStreamName() + "-" + request.getLogEvents().get(0).getMessage());
+		}).anyTimes();
+		replay(logsClient);
+		appender.setAwsLogsClient(logsClient);
+		appender.setMaxBatchSize(2);
+		appender.setMaxBatchTimeMillis(100);
+		appender.setRegion("region");
+		appender.setLogGroup("app");
+		appender.setLogStream("main");
+		LogRoute auditRoute = new LogRoute();
+		auditRoute.setMdcKey("audit");
+		auditRoute.setLogGroup("audit");
+		appender.addRoute(auditRoute);
+		LogRoute accessRoute = new LogRoute();
+		accessRoute.setLoggerPrefix("access");
+		accessRoute.setLogStream("access");
+		appender.addRoute(accessRoute);
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		Map<String, String> audit = Collections.singletonMap("audit", "true");
+		appender.append(createEvent("app.Foo", Level.INFO, "audit1", audit));
+		appender.append(createEvent("access.Log", Level.INFO, "access1", Collections.emptyMap()));
+		appender.append(createEvent("app.Foo", Level.INFO, "audit2", audit));
+		appender.append(createEvent("app.Foo", Level.INFO, "app1", Collections.emptyMap()));
+		appender.append(createEvent("access.Log", Level.INFO, "access2", audit));
+		appender.append(createEvent("app.Foo", Level.INFO, "audit3", audit));
+		appender.append(createEvent("access.Log", Level.INFO, "access3", Collections.emptyMap()));
+		appender.append(createEvent("access.Log", Level.INFO, "access4", Collections.emptyMap()));
+		while (appender.getEventsWrittenCount() < 8) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+
+		Map<String, String> lastTokens = new HashMap<String, String>();
+		Map<String, List<String>> messages = new HashMap<String, List<String>>();
+		for (PutLogEventsRequest request : requests) {
+			String destination = request.getLogGroupName() + "/" + request.getLogStreamName();
+			// each destination has its own sequencing
+			assertEquals(lastTokens.get(destination), request.getSequenceToken());
+			lastTokens.put(destination,
+					request.getLogStreamName() + "-" + request.getLogEvents().get(0).getMessage());
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				messages.computeIfAbsent(destination, key -> new ArrayList<String>()).add(logEvent.getMessage());
+			}
+		}
+		// the first route wins so access2 went to audit
+		assertEquals(Arrays.asList("audit1", "audit2", "access2", "audit3"), messages.get("audit/main"));
+		assertEquals(Arrays.asList("access1", "access3", "access4"), messages.get("app/access"));
+		assertEquals(Arrays.asList("app1"), messages.get("app/main"));
+		assertEquals(3, messages.size());
+	}
+
+	private LoggingEvent createEvent(String loggerName, Level level, String message, Map<String, String> mdc) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName(loggerName);
+		event.setLevel(level);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(mdc);
+		return event;
+	}
+}
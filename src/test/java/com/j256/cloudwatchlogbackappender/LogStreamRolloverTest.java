@@ -0,0 +1,118 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.CreateLogStreamRequest;
+import com.amazonaws.services.logs.model.CreateLogStreamResult;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class LogStreamRolloverTest {
+
+	@Test(timeout = 20000)
+	public void testRollover() throws InterruptedException {
+		LoggerContext loggerContext = new LoggerContext();
+		// in call order, create:<stream> or put:<stream>
+		List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+		List<String> mismatches = Collections.synchronizedList(new ArrayList<String>());
+		SimpleDateFormat format = new SimpleDateFormat("yyyyMMddHHmmss");
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.createLogStream(isA(CreateLogStreamRequest.class))).andAnswer(() -> {
+			calls.add("create:" + ((CreateLogStreamRequest) getCurrentArguments()[0]).getLogStreamName());
+			return new CreateLogStreamResult();
+		}).anyTimes();
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			calls.add("put:" + request.getLogStreamName());
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				String expected = "stream-" + format.format(new Date(logEvent.getTimestamp()));
+				if (!expected.equals(request.getLogStreamName())) {
+					mismatches.add(logEvent.getTimestamp() + " went to " + request.getLogStreamName());
+				}
+			}
+			return new PutLogEventsResult();
+		}).anyTimes();
+		replay(logsClient);
+
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setAwsLogsClient(logsClient);
+		appender.setOptimisticLogDests(true);
+		appender.setRollLogStreams(true);
+		appender.setLogStreamRollLeadMillis(1000);
+		appender.setMaxBatchSize(3);
+		appender.setMaxBatchTimeMillis(100);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		// new stream every second
+		appender.setLogStream("stream-%date{yyyyMMddHHmmss}");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		int count = 0;
+		long end = System.currentTimeMillis() + 3500;
+		while (System.currentTimeMillis() < end) {
+			appender.append(createEvent("message " + count++));
+			Thread.sleep(20);
+		}
+		while (appender.getEventsWrittenCount() < count) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+
+		assertEquals(Collections.emptyList(), mismatches);
+		// the streams after the first were all created before anything was put to them
+		Set<String> created = new HashSet<String>();
+		Set<String> rolledTo = new HashSet<String>();
+		String firstStream = null;
+		for (String call : calls) {
+			String stream = call.substring(call.indexOf(':') + 1);
+			if (call.startsWith("create:")) {
+				created.add(stream);
+			} else if (firstStream == null) {
+				firstStream = stream;
+			} else if (!stream.equals(firstStream)) {
+				assertTrue(call, created.contains(stream));
+				rolledTo.add(stream);
+			}
+		}
+		assertTrue(rolledTo.toString(), rolledTo.size() >= 2);
+	}
+
+	private LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
@@ -0,0 +1,49 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+
+public class LogsClientRegistryTest {
+
+	@Test
+	public void testSharing() {
+		AWSLogs client = createMock(AWSLogs.class);
+		AWSLogs otherClient = createMock(AWSLogs.class);
+		client.shutdown();
+		otherClient.shutdown();
+		replay(client, otherClient);
+
+		assertSame(client, LogsClientRegistry.acquire("key", () -> client));
+		// second acquire shares the first client
+		assertSame(client, LogsClientRegistry.acquire("key", () -> otherClient));
+		assertSame(otherClient, LogsClientRegistry.acquire("other-key", () -> otherClient));
+		assertNotSame(client, otherClient);
+		assertEquals(2, LogsClientRegistry.getRefCount(client));
+
+		assertTrue(LogsClientRegistry.release(client));
+		assertEquals(1, LogsClientRegistry.getRefCount(client));
+		// last release shuts it down
+		assertTrue(LogsClientRegistry.release(client));
+		assertEquals(0, LogsClientRegistry.getRefCount(client));
+		assertTrue(LogsClientRegistry.release(otherClient));
+		verify(client, otherClient);
+	}
+
+	@Test
+	public void testNotRegistered() {
+		AWSLogs client = createMock(AWSLogs.class);
+		replay(client);
+		assertFalse(LogsClientRegistry.release(client));
+		verify(client);
+	}
+}
@@ -2,6 +2,8 @@ package com.j256.cloudwatchlogbackappender;
 
 import static org.junit.Assert.*;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Test;
 
 public class MiscUtilsTest {
@@ -13,4 +15,27 @@ public class MiscUtilsTest {
 		assertTrue(MiscUtils.isBlank(" "));
 		assertFalse(MiscUtils.isBlank("s"));
 	}
+
+	@Test
+	public void testUtf8Length() {
+		for (String str : new String[] { "", "hello", "café", "€100", "smile 😀!", "bad \ud83d", "\ude00 low" }) {
+			assertEquals(str, str.getBytes(StandardCharsets.UTF_8).length, MiscUtils.utf8Length(str));
+		}
+	}
+
+	@Test
+	public void testUtf8PrefixLength() {
+		assertEquals(5, MiscUtils.utf8PrefixLength("hello", 10));
+		assertEquals(3, MiscUtils.utf8PrefixLength("hello", 3));
+		// é is 2 bytes so it doesn't fit in the 4th byte
+		assertEquals(3, MiscUtils.utf8PrefixLength("café", 4));
+		assertEquals(4, MiscUtils.utf8PrefixLength("café", 5));
+		// the pair is 4 bytes and isn't split
+		assertEquals(2, MiscUtils.utf8PrefixLength("a 😀", 5));
+		assertEquals(4, MiscUtils.utf8PrefixLength("a 😀", 6));
+		assertEquals(0, MiscUtils.utf8PrefixLength("€", 2));
+		// from an index
+		assertEquals(4, MiscUtils.utf8PrefixLength("café", 2, 3));
+		assertEquals(3, MiscUtils.utf8PrefixLength("café", 2, 2));
+	}
 }
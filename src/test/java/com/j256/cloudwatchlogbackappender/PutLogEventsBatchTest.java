@@ -0,0 +1,59 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PutLogEventsBatchTest {
+
+	@Test
+	public void testEventLimit() {
+		PutLogEventsBatch batch = new PutLogEventsBatch(3);
+		assertTrue(batch.isEmpty());
+		assertTrue(batch.add(1, 10, 1));
+		assertFalse(batch.isEmpty());
+		assertTrue(batch.add(2, 10, 2));
+		assertFalse(batch.add(3, 10, 1));
+		batch.reset();
+		assertTrue(batch.isEmpty());
+		assertTrue(batch.add(3, 10, 1));
+
+		// limited to the request maximum
+		batch = new PutLogEventsBatch(Integer.MAX_VALUE);
+		assertTrue(batch.add(1, 0, PutLogEventsBatch.MAX_BATCH_EVENTS));
+		assertFalse(batch.add(1, 0, 1));
+	}
+
+	@Test
+	public void testByteLimit() {
+		PutLogEventsBatch batch = new PutLogEventsBatch(100);
+		int half = PutLogEventsBatch.MAX_BATCH_BYTES / 2 - PutLogEventsBatch.EVENT_OVERHEAD_BYTES;
+		assertTrue(batch.add(1, half, 1));
+		assertTrue(batch.add(1, half, 1));
+		// even an empty message has the overhead
+		assertFalse(batch.add(1, 0, 1));
+
+		// an empty batch takes anything
+		batch.reset();
+		assertTrue(batch.add(1, PutLogEventsBatch.MAX_BATCH_BYTES * 2, 1));
+		assertFalse(batch.add(1, 0, 1));
+	}
+
+	@Test
+	public void testSpanLimit() {
+		PutLogEventsBatch batch = new PutLogEventsBatch(100);
+		long start = 1000000000000L;
+		assertTrue(batch.add(start, 10, 1));
+		assertTrue(batch.add(start + PutLogEventsBatch.MAX_BATCH_SPAN_MILLIS, 10, 1));
+		assertFalse(batch.add(start + PutLogEventsBatch.MAX_BATCH_SPAN_MILLIS + 1, 10, 1));
+		// out of order in either direction
+		assertFalse(batch.add(start - 1, 10, 1));
+		assertTrue(batch.add(start + 1, 10, 1));
+
+		// the span starts over after a reset
+		batch.reset();
+		assertTrue(batch.add(start + PutLogEventsBatch.MAX_BATCH_SPAN_MILLIS * 2, 10, 1));
+		assertFalse(batch.add(start, 10, 1));
+	}
+}
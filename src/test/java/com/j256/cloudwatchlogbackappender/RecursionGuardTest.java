@@ -0,0 +1,90 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class RecursionGuardTest {
+
+	@Test(timeout = 10000)
+	public void testWriterLogging() throws Exception {
+		testWriterLogging(false);
+	}
+
+	@Test(timeout = 10000)
+	public void testSharedWriterLogging() throws Exception {
+		testWriterLogging(true);
+	}
+
+	private void testWriterLogging(boolean sharedWriter) throws Exception {
+		final CloudWatchAppender appender = new CloudWatchAppender();
+		final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andAnswer(() -> {
+			PutLogEventsRequest request = (PutLogEventsRequest) getCurrentArguments()[0];
+			for (InputLogEvent logEvent : request.getLogEvents()) {
+				messages.add(logEvent.getMessage());
+			}
+			// like the SDK logging while we write
+			appender.append(createEvent("from the writer"));
+			return new PutLogEventsResult();
+		}).anyTimes();
+		replay(logsClient);
+
+		LoggerContext loggerContext = new LoggerContext();
+		appender.setAwsLogsClient(logsClient);
+		appender.setSharedWriter(sharedWriter);
+		appender.setMaxBatchSize(10);
+		appender.setMaxBatchTimeMillis(60000);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		appender.append(createEvent("first"));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		appender.append(createEvent("second"));
+		appender.flush().get(5, TimeUnit.SECONDS);
+		appender.stop();
+
+		// the events logged by the writer were dropped
+		assertEquals(Arrays.asList("first", "second"), messages);
+	}
+
+	private static LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
@@ -0,0 +1,121 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class RepeatSuppressorTest {
+
+	@Test
+	public void testWindows() {
+		RepeatSuppressor suppressor = new RepeatSuppressor(2, 1000, 64);
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "loop {}", 0)));
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "loop {}", 1)));
+		for (int i = 0; i < 5; i++) {
+			assertEquals(RepeatSuppressor.SUPPRESS, suppressor.check(createEvent("name", Level.INFO, "loop {}", 2)));
+		}
+		// different logger, level, or message are counted separately
+		assertEquals(0, suppressor.check(createEvent("other", Level.INFO, "loop {}", 3)));
+		assertEquals(0, suppressor.check(createEvent("name", Level.WARN, "loop {}", 3)));
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "other {}", 3)));
+
+		// the next window reports what was suppressed
+		assertEquals(5, suppressor.check(createEvent("name", Level.INFO, "loop {}", 1000)));
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "loop {}", 1001)));
+		assertEquals(RepeatSuppressor.SUPPRESS, suppressor.check(createEvent("name", Level.INFO, "loop {}", 1002)));
+		// skipping windows still reports the last one
+		assertEquals(1, suppressor.check(createEvent("name", Level.INFO, "loop {}", 5000)));
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "loop {}", 6000)));
+	}
+
+	@Test
+	public void testBurstEnds() {
+		RepeatSuppressor suppressor = new RepeatSuppressor(2, 1000, 64);
+		for (int i = 0; i < 10; i++) {
+			suppressor.check(createEvent("name", Level.INFO, "loop", i));
+		}
+		List<ILoggingEvent> summaries = new ArrayList<ILoggingEvent>();
+		// the window is still open
+		suppressor.addSummaries(500, summaries);
+		assertTrue(summaries.isEmpty());
+		assertEquals(1000, suppressor.nextSummaryMillis());
+
+		// nothing repeats but the window closes
+		suppressor.addSummaries(1000, summaries);
+		assertEquals(1, summaries.size());
+		assertEquals("Suppressed 8 repeats of: loop", summaries.get(0).getMessage());
+		assertEquals("name", summaries.get(0).getLoggerName());
+		assertEquals(999, summaries.get(0).getTimeStamp());
+		assertEquals(Long.MAX_VALUE, suppressor.nextSummaryMillis());
+
+		// reported once
+		summaries.clear();
+		suppressor.addSummaries(2000, summaries);
+		assertTrue(summaries.isEmpty());
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "loop", 1500)));
+	}
+
+	@Test
+	public void testCollisions() {
+		// one slot so the templates always collide
+		RepeatSuppressor suppressor = new RepeatSuppressor(1, 1000, 1);
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "first", 0)));
+		for (int i = 0; i < 3; i++) {
+			assertEquals(RepeatSuppressor.SUPPRESS, suppressor.check(createEvent("name", Level.INFO, "first", 1)));
+		}
+		// the other template isn't suppressed by the counts of the first
+		assertEquals(0, suppressor.check(createEvent("name", Level.INFO, "second", 2)));
+		assertEquals(RepeatSuppressor.SUPPRESS, suppressor.check(createEvent("name", Level.INFO, "second", 3)));
+
+		// the counts of the pushed out template are kept and reported with it
+		List<ILoggingEvent> summaries = new ArrayList<ILoggingEvent>();
+		suppressor.addSummaries(4, summaries);
+		assertEquals(1, summaries.size());
+		assertEquals("Suppressed 3 repeats of: first", summaries.get(0).getMessage());
+		summaries.clear();
+		suppressor.addSummaries(1000, summaries);
+		assertEquals(1, summaries.size());
+		assertEquals("Suppressed 1 repeats of: second", summaries.get(0).getMessage());
+	}
+
+	@Test(timeout = 10000)
+	public void testThreads() throws InterruptedException {
+		final RepeatSuppressor suppressor = new RepeatSuppressor(100, 1000, 64);
+		final AtomicInteger passedCount = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				for (int j = 0; j < 10000; j++) {
+					if (suppressor.check(createEvent("name", Level.INFO, "loop", 0)) != RepeatSuppressor.SUPPRESS) {
+						passedCount.incrementAndGet();
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(100, passedCount.get());
+		assertEquals(80000 - 100, suppressor.check(createEvent("name", Level.INFO, "loop", 1000)));
+	}
+
+	private static LoggingEvent createEvent(String loggerName, Level level, String message, long timestamp) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName(loggerName);
+		event.setLevel(level);
+		event.setMessage(message);
+		event.setTimeStamp(timestamp);
+		return event;
+	}
+}
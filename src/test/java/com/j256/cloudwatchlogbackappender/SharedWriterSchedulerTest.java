@@ -0,0 +1,172 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class SharedWriterSchedulerTest {
+
+	private final LoggerContext LOGGER_CONTEXT = new LoggerContext();
+
+	@Test(timeout = 10000)
+	public void testTimerWheel() throws InterruptedException {
+		TimerWheel timerWheel = new TimerWheel("test-timer", 5, 8);
+		try {
+			List<Integer> fired = new CopyOnWriteArrayList<Integer>();
+			CountDownLatch latch = new CountDownLatch(3);
+			long start = System.currentTimeMillis();
+			// 200 millis is more than one turn of the wheel
+			timerWheel.schedule(() -> {
+				fired.add(200);
+				latch.countDown();
+			}, 200);
+			timerWheel.schedule(() -> {
+				fired.add(20);
+				latch.countDown();
+			}, 20);
+			TimerWheel.Timeout cancelled = timerWheel.schedule(() -> fired.add(-1), 10);
+			cancelled.cancel();
+			timerWheel.schedule(() -> {
+				fired.add(100);
+				latch.countDown();
+			}, 100);
+			assertTrue(latch.await(5, TimeUnit.SECONDS));
+			assertTrue(System.currentTimeMillis() - start >= 200);
+			assertEquals(3, fired.size());
+			assertEquals(20, (int) fired.get(0));
+			assertEquals(100, (int) fired.get(1));
+			assertEquals(200, (int) fired.get(2));
+		} finally {
+			timerWheel.stop();
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testManyAppenders() throws InterruptedException {
+		List<CloudWatchAppender> appenders = new ArrayList<CloudWatchAppender>();
+		for (int i = 0; i < 20; i++) {
+			CloudWatchAppender appender = createAppender(100);
+			appender.start();
+			appenders.add(appender);
+		}
+		// one full batch each plus a couple that have to wait for the linger deadline
+		for (CloudWatchAppender appender : appenders) {
+			for (int i = 0; i < 7; i++) {
+				appender.append(createEvent("message " + i));
+			}
+		}
+		for (CloudWatchAppender appender : appenders) {
+			while (appender.getEventsWrittenCount() < 7) {
+				Thread.sleep(10);
+			}
+		}
+		for (CloudWatchAppender appender : appenders) {
+			appender.stop();
+			assertEquals(7, appender.getEventsWrittenCount());
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void testStopWritesRemaining() throws InterruptedException {
+		// the linger deadline would never come during the test
+		CloudWatchAppender appender = createAppender(60000);
+		appender.start();
+		for (int i = 0; i < 3; i++) {
+			appender.append(createEvent("message " + i));
+		}
+		appender.stop();
+		assertEquals(3, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 10000)
+	public void testReleasedWhenStopped() throws InterruptedException {
+		assertEquals(0, SharedWriterScheduler.getRefCount());
+		CloudWatchAppender appender1 = createAppender(100);
+		appender1.start();
+		CloudWatchAppender appender2 = createAppender(100);
+		appender2.start();
+		assertEquals(2, SharedWriterScheduler.getRefCount());
+		appender1.append(createEvent("message"));
+		appender1.stop();
+		assertEquals(1, SharedWriterScheduler.getRefCount());
+		appender2.stop();
+		assertEquals(0, SharedWriterScheduler.getRefCount());
+
+		// the pool and the ticker threads go away
+		while (schedulerThreadRunning()) {
+			Thread.sleep(10);
+		}
+
+		// and they come back for the next appender
+		CloudWatchAppender appender3 = createAppender(100);
+		appender3.start();
+		appender3.append(createEvent("message"));
+		while (appender3.getEventsWrittenCount() < 1) {
+			Thread.sleep(10);
+		}
+		appender3.stop();
+		assertEquals(0, SharedWriterScheduler.getRefCount());
+	}
+
+	private boolean schedulerThreadRunning() {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().startsWith(SharedWriterScheduler.class.getSimpleName())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private CloudWatchAppender createAppender(long maxBatchTimeMillis) {
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult())
+				.anyTimes();
+		replay(logsClient);
+		appender.setAwsLogsClient(logsClient);
+		appender.setSharedWriter(true);
+		appender.setMaxBatchSize(5);
+		appender.setMaxBatchTimeMillis(maxBatchTimeMillis);
+		appender.setRegion("region");
+		appender.setLogGroup("pfqoejpfqe");
+		appender.setLogStream("pffqjfqjpoqoejpfqe");
+		appender.setContext(LOGGER_CONTEXT);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(LOGGER_CONTEXT);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		return appender;
+	}
+
+	private LoggingEvent createEvent(String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.DEBUG);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}
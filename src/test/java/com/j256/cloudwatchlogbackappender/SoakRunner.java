@@ -0,0 +1,326 @@
+package com.j256.cloudwatchlogbackappender;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.AppenderBase;
+
+/**
+ * Soak test which has a number of producer threads logging at a fixed rate through a real {@link CloudWatchAppender}
+ * into the {@link LocalCloudWatchLogsServer} for a number of minutes. It writes a properties report of the sustained
+ * events per second, the 99th percentile append() latency, the dropped events, the heap high-water mark, and the 99th
+ * percentile lag from append() to the server accepting the event. If a baseline report is given, the run fails with a
+ * non-zero exit code if any of those is worse than the baseline by more than the tolerance.
+ *
+ * <pre>
+ * sbt "soak --duration 300 --producers 16"
+ * </pre>
+ *
+ * @author graywatson
+ */
+public class SoakRunner {
+
+	private static final String EVENTS_PER_SECOND = "eventsPerSecond";
+	private static final String APPEND_P99_MICROS = "appendP99Micros";
+	private static final String DROPPED_EVENTS = "droppedEvents";
+	private static final String HEAP_HIGH_WATER_MB = "heapHighWaterMb";
+	private static final String ACK_LAG_P99_MILLIS = "ackLagP99Millis";
+	private static final String MESSAGE_PREFIX = "soak ";
+
+	private int producerCount = 8;
+	private int eventsPerSecondPerProducer = 500;
+	private int maxBatchSize = 1000;
+	private int durationSeconds = 180;
+	private long serverLatencyMillis = 5;
+	private boolean directPutLogEvents;
+	private File reportFile = new File("target/soak-report.properties");
+	private File baselineFile;
+	private double tolerance = 0.25;
+
+	public static void main(String[] args) throws Exception {
+		SoakRunner runner = new SoakRunner();
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length) {
+				throw new IllegalArgumentException("Missing value for " + args[i]);
+			}
+			String value = args[i + 1];
+			switch (args[i]) {
+				case "--producers":
+					runner.producerCount = Integer.parseInt(value);
+					break;
+				case "--rate":
+					runner.eventsPerSecondPerProducer = Integer.parseInt(value);
+					break;
+				case "--duration":
+					runner.durationSeconds = Integer.parseInt(value);
+					break;
+				case "--batch-size":
+					runner.maxBatchSize = Integer.parseInt(value);
+					break;
+				case "--server-latency":
+					runner.serverLatencyMillis = Long.parseLong(value);
+					break;
+				case "--direct":
+					runner.directPutLogEvents = Boolean.parseBoolean(value);
+					break;
+				case "--report":
+					runner.reportFile = new File(value);
+					break;
+				case "--baseline":
+					runner.baselineFile = new File(value);
+					break;
+				case "--tolerance":
+					runner.tolerance = Double.parseDouble(value);
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument: " + args[i]);
+			}
+		}
+		Properties report = runner.run();
+		runner.writeReport(report);
+		List<String> regressions = runner.compareWithBaseline(report);
+		for (String regression : regressions) {
+			System.err.println("SoakRunner: regression: " + regression);
+		}
+		System.exit(regressions.isEmpty() ? 0 : 1);
+	}
+
+	private Properties run() throws Exception {
+		LocalCloudWatchLogsServer server = new LocalCloudWatchLogsServer();
+		Histogram ackLagNanos = new Histogram();
+		AtomicLong ackedCount = new AtomicLong();
+		server.setRetainMessages(false);
+		server.setLatencyMillis(serverLatencyMillis);
+		server.setAcceptListener(message -> {
+			if (message.startsWith(MESSAGE_PREFIX)) {
+				long appendNanos = Long.parseLong(message.substring(MESSAGE_PREFIX.length()));
+				ackLagNanos.record(System.nanoTime() - appendNanos);
+				ackedCount.incrementAndGet();
+			}
+		});
+		server.start();
+
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		appender.setEndpoint(server.getEndpoint());
+		appender.setDirectPutLogEvents(directPutLogEvents);
+		appender.setAccessKeyId("access");
+		appender.setSecretKey("secret");
+		appender.setRegion("us-east-1");
+		appender.setLogGroup("soak");
+		appender.setLogStream("soak");
+		appender.setMaxBatchSize(maxBatchSize);
+		appender.setStopTimeoutMillis(30000);
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		CountingAppender emergencyAppender = new CountingAppender();
+		emergencyAppender.setContext(loggerContext);
+		emergencyAppender.start();
+		appender.addAppender(emergencyAppender);
+		appender.start();
+
+		MemoryMXBean memoryBean = ManagementFactory.getMemoryMXBean();
+		AtomicLong heapHighWater = new AtomicLong();
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(() -> {
+			long used = memoryBean.getHeapMemoryUsage().getUsed();
+			heapHighWater.accumulateAndGet(used, Math::max);
+		}, 0, 50, TimeUnit.MILLISECONDS);
+
+		Histogram appendNanos = new Histogram();
+		AtomicLong appendedCount = new AtomicLong();
+		long periodNanos = TimeUnit.SECONDS.toNanos(1) / eventsPerSecondPerProducer;
+		long startNanos = System.nanoTime();
+		long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSeconds);
+		List<Thread> producers = new ArrayList<Thread>();
+		for (int i = 0; i < producerCount; i++) {
+			Thread thread = new Thread(() -> {
+				long next = System.nanoTime();
+				while (true) {
+					long now = System.nanoTime();
+					if (now >= endNanos) {
+						break;
+					}
+					if (now < next) {
+						LockSupport.parkNanos(next - now);
+						continue;
+					}
+					next += periodNanos;
+					LoggingEvent event = new LoggingEvent();
+					event.setLoggerName(SoakRunner.class.getName());
+					event.setLevel(Level.INFO);
+					event.setThreadName(Thread.currentThread().getName());
+					event.setMDCPropertyMap(Collections.emptyMap());
+					long before = System.nanoTime();
+					event.setTimeStamp(System.currentTimeMillis());
+					event.setMessage(MESSAGE_PREFIX + before);
+					appender.append(event);
+					appendNanos.record(System.nanoTime() - before);
+					appendedCount.incrementAndGet();
+				}
+			}, "soak-producer-" + i);
+			thread.start();
+			producers.add(thread);
+		}
+		for (Thread thread : producers) {
+			thread.join();
+		}
+		double elapsedSeconds = (System.nanoTime() - startNanos) / 1e9;
+		appender.stop();
+		sampler.shutdown();
+		server.stop();
+
+		Properties report = new Properties();
+		report.setProperty(EVENTS_PER_SECOND, Long.toString(Math.round(ackedCount.get() / elapsedSeconds)));
+		report.setProperty(APPEND_P99_MICROS, Long.toString(appendNanos.percentile(0.99) / 1000));
+		report.setProperty(DROPPED_EVENTS, Long.toString(appendedCount.get() - ackedCount.get()));
+		report.setProperty(HEAP_HIGH_WATER_MB, Long.toString(heapHighWater.get() / (1024 * 1024)));
+		report.setProperty(ACK_LAG_P99_MILLIS, Long.toString(ackLagNanos.percentile(0.99) / 1000000));
+		report.setProperty("appendedEvents", Long.toString(appendedCount.get()));
+		report.setProperty("emergencyEvents", Long.toString(emergencyAppender.count.get()));
+		report.setProperty("producers", Integer.toString(producerCount));
+		report.setProperty("durationSeconds", Integer.toString(durationSeconds));
+		return report;
+	}
+
+	private void writeReport(Properties report) throws IOException {
+		File dir = reportFile.getAbsoluteFile().getParentFile();
+		if (dir != null) {
+			dir.mkdirs();
+		}
+		try (Writer writer = new FileWriter(reportFile)) {
+			report.store(writer, "soak report");
+		}
+		System.out.println("SoakRunner: wrote " + reportFile + ": " + report);
+	}
+
+	/**
+	 * @return The descriptions of the values that are worse than the baseline.
+	 */
+	private List<String> compareWithBaseline(Properties report) throws IOException {
+		List<String> regressions = new ArrayList<String>();
+		if (baselineFile == null) {
+			return regressions;
+		}
+		Properties baseline = new Properties();
+		try (Reader reader = new FileReader(baselineFile)) {
+			baseline.load(reader);
+		}
+		checkMinimum(report, baseline, EVENTS_PER_SECOND, regressions);
+		checkMaximum(report, baseline, APPEND_P99_MICROS, regressions);
+		checkMaximum(report, baseline, DROPPED_EVENTS, regressions);
+		checkMaximum(report, baseline, HEAP_HIGH_WATER_MB, regressions);
+		checkMaximum(report, baseline, ACK_LAG_P99_MILLIS, regressions);
+		return regressions;
+	}
+
+	private void checkMinimum(Properties report, Properties baseline, String key, List<String> regressions) {
+		String expected = baseline.getProperty(key);
+		if (expected == null) {
+			return;
+		}
+		long actual = Long.parseLong(report.getProperty(key));
+		if (actual < Long.parseLong(expected) * (1 - tolerance)) {
+			regressions.add(key + " " + actual + " is below the baseline of " + expected);
+		}
+	}
+
+	private void checkMaximum(Properties report, Properties baseline, String key, List<String> regressions) {
+		String expected = baseline.getProperty(key);
+		if (expected == null) {
+			return;
+		}
+		long actual = Long.parseLong(report.getProperty(key));
+		if (actual > Long.parseLong(expected) * (1 + tolerance)) {
+			regressions.add(key + " " + actual + " is above the baseline of " + expected);
+		}
+	}
+
+	/**
+	 * Lock-free histogram with buckets that are within about 3% of each other so we don't have to keep every sample.
+	 */
+	private static class Histogram {
+
+		private static final int LINEAR_BUCKETS = 64;
+		private static final int SUB_BUCKET_BITS = 5;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+		private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + 58 * SUB_BUCKETS);
+		private final AtomicLong total = new AtomicLong();
+
+		void record(long value) {
+			counts.incrementAndGet(index(Math.max(0, value)));
+			total.incrementAndGet();
+		}
+
+		/**
+		 * @return The upper bound of the bucket that has the percentile.
+		 */
+		long percentile(double fraction) {
+			long target = (long) Math.ceil(total.get() * fraction);
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= target && seen > 0) {
+					return upperBound(i);
+				}
+			}
+			return 0;
+		}
+
+		private static int index(long value) {
+			if (value < LINEAR_BUCKETS) {
+				return (int) value;
+			}
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int mantissa = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+			return LINEAR_BUCKETS + (exponent - 6) * SUB_BUCKETS + mantissa;
+		}
+
+		private static long upperBound(int index) {
+			if (index < LINEAR_BUCKETS) {
+				return index;
+			}
+			int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 6;
+			int mantissa = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+			return ((long) (SUB_BUCKETS + mantissa + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+
+	/**
+	 * Emergency appender which just counts the events that couldn't be written.
+	 */
+	private static class CountingAppender extends AppenderBase<ILoggingEvent> {
+		final AtomicLong count = new AtomicLong();
+
+		@Override
+		protected void append(ILoggingEvent event) {
+			count.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.CoreConstants;
+
+public class ThrowableFingerprintConverterTest {
+
+	@Test
+	public void testRepeats() {
+		Ec2PatternLayout layout = createLayout(1000);
+		Exception exception = new IllegalStateException("bad state", new RuntimeException("cause"));
+
+		String first = layout.doLayout(createEvent(exception, 0));
+		assertTrue(first, first.startsWith("msg [trace "));
+		assertTrue(first.contains("java.lang.IllegalStateException: bad state"));
+		assertTrue(first.contains("Caused by: java.lang.RuntimeException: cause"));
+		String fingerprint = first.substring("msg [trace ".length(), first.indexOf(']'));
+		assertEquals(16, fingerprint.length());
+
+		// same exception inside of the window
+		assertEquals("msg [trace " + fingerprint + " repeat 1] java.lang.IllegalStateException: bad state"
+				+ CoreConstants.LINE_SEPARATOR, layout.doLayout(createEvent(exception, 100)));
+		assertEquals("msg [trace " + fingerprint + " repeat 2] java.lang.IllegalStateException: bad state"
+				+ CoreConstants.LINE_SEPARATOR, layout.doLayout(createEvent(exception, 999)));
+
+		// window expired so the full trace goes out again
+		assertEquals(first, layout.doLayout(createEvent(exception, 1000)));
+		assertTrue(layout.doLayout(createEvent(exception, 1001)).contains(" repeat 1] "));
+
+		// no throwable
+		assertEquals("msg ", layout.doLayout(createEvent(null, 2000)));
+		layout.stop();
+	}
+
+	@Test
+	public void testFingerprint() {
+		Exception exception1 = new IllegalStateException("bad state");
+		Exception exception2 = new IllegalStateException("bad state");
+		Exception exception3 = new IllegalStateException("other state");
+		// the same frames except for the lines that they were created on
+		assertNotEquals(fingerprint(exception1), fingerprint(exception2));
+		assertNotEquals(fingerprint(exception1), fingerprint(exception3));
+		assertEquals(fingerprint(exception1), fingerprint(exception1));
+
+		Exception[] exceptions = new Exception[2];
+		for (int i = 0; i < exceptions.length; i++) {
+			exceptions[i] = new IllegalStateException("bad state");
+		}
+		assertEquals(fingerprint(exceptions[0]), fingerprint(exceptions[1]));
+	}
+
+	@Test
+	public void testCacheSize() {
+		Ec2PatternLayout layout = createLayout(1000);
+		layout.setThrowableCacheSize(1);
+		layout.start();
+		Exception exception1 = new IllegalStateException("first");
+		Exception exception2 = new IllegalStateException("second");
+		layout.doLayout(createEvent(exception1, 0));
+		layout.doLayout(createEvent(exception2, 0));
+		// the first one was pushed out of the cache
+		String result = layout.doLayout(createEvent(exception1, 1));
+		assertTrue(result.contains("\tat "));
+		layout.stop();
+	}
+
+	private long fingerprint(Exception exception) {
+		return ThrowableFingerprintConverter.fingerprint(new ThrowableProxy(exception));
+	}
+
+	private Ec2PatternLayout createLayout(long windowMillis) {
+		Ec2PatternLayout layout = new Ec2PatternLayout();
+		layout.setContext(new LoggerContext());
+		layout.setPattern("%msg %fpThrowable");
+		layout.setThrowableWindowMillis(windowMillis);
+		layout.start();
+		return layout;
+	}
+
+	private LoggingEvent createEvent(Exception exception, long timestamp) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.ERROR);
+		event.setMessage("msg");
+		event.setTimeStamp(timestamp);
+		event.setMDCPropertyMap(Collections.emptyMap());
+		if (exception != null) {
+			event.setThrowableProxy(new ThrowableProxy(exception));
+		}
+		return event;
+	}
+}
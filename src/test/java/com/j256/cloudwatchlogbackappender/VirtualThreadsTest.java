@@ -0,0 +1,172 @@
+package com.j256.cloudwatchlogbackappender;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.isA;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.amazonaws.services.logs.AWSLogs;
+import com.amazonaws.services.logs.AbstractAWSLogs;
+import com.amazonaws.services.logs.model.InputLogEvent;
+import com.amazonaws.services.logs.model.PutLogEventsRequest;
+import com.amazonaws.services.logs.model.PutLogEventsResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class VirtualThreadsTest {
+
+	@Test(timeout = 10000)
+	public void testNewThread() throws InterruptedException {
+		AtomicBoolean ran = new AtomicBoolean();
+		Thread thread = VirtualThreads.newThread("virtual", () -> ran.set(true));
+		if (thread == null) {
+			// older JVM so nothing else to check
+			assertFalse(VirtualThreads.isVirtual(Thread.currentThread()));
+			return;
+		}
+		assertTrue(VirtualThreads.isVirtual(thread));
+		assertEquals("virtual", thread.getName());
+		thread.start();
+		thread.join();
+		assertTrue(ran.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testAppender() throws InterruptedException {
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		AWSLogs logsClient = createNiceMock(AWSLogs.class);
+		expect(logsClient.putLogEvents(isA(PutLogEventsRequest.class))).andReturn(new PutLogEventsResult())
+				.anyTimes();
+		replay(logsClient);
+		appender.setAwsLogsClient(logsClient);
+		// falls back to a platform thread if the JVM doesn't have virtual threads
+		appender.setVirtualThreads(true);
+		appender.setMaxBatchSize(1);
+		appender.setRegion("region");
+		appender.setLogGroup("pfqoejpfqe");
+		appender.setLogStream("pffqjfqjpoqoejpfqe");
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName("name");
+		event.setLevel(Level.DEBUG);
+		event.setMessage("message");
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		appender.append(event);
+		while (appender.getEventsWrittenCount() < 1) {
+			Thread.sleep(10);
+		}
+		appender.stop();
+		assertEquals(1, appender.getEventsWrittenCount());
+	}
+
+	@Test(timeout = 20000)
+	public void testConcurrentPuts() throws Exception {
+		CountDownLatch bothPutting = new CountDownLatch(2);
+		AtomicBoolean overlapped = new AtomicBoolean(true);
+		Map<String, AtomicInteger> inFlightCounts = new ConcurrentHashMap<String, AtomicInteger>();
+		Map<String, List<String>> streamMessages = new ConcurrentHashMap<String, List<String>>();
+		AtomicInteger maxInFlight = new AtomicInteger();
+		LoggerContext loggerContext = new LoggerContext();
+		CloudWatchAppender appender = new CloudWatchAppender();
+		// not a mock since they handle one call at a time
+		AWSLogs logsClient = new AbstractAWSLogs() {
+			@Override
+			public PutLogEventsResult putLogEvents(PutLogEventsRequest request) {
+				String stream = request.getLogStreamName();
+				AtomicInteger inFlight = inFlightCounts.computeIfAbsent(stream, key -> new AtomicInteger());
+				maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+				// the first put to each stream waits for the other one to be in flight at the same time
+				bothPutting.countDown();
+				try {
+					if (!bothPutting.await(5, TimeUnit.SECONDS)) {
+						overlapped.set(false);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				List<String> messages = streamMessages.computeIfAbsent(stream, key -> new ArrayList<String>());
+				for (InputLogEvent logEvent : request.getLogEvents()) {
+					messages.add(logEvent.getMessage());
+				}
+				inFlight.decrementAndGet();
+				return new PutLogEventsResult();
+			}
+
+			@Override
+			public void shutdown() {
+				// nothing to release
+			}
+		};
+		appender.setAwsLogsClient(logsClient);
+		appender.setVirtualThreads(true);
+		appender.setMaxBatchSize(1);
+		appender.setRegion("region");
+		appender.setLogGroup("group");
+		appender.setLogStream("stream");
+		LogRoute route = new LogRoute();
+		route.setLoggerPrefix("audit");
+		route.setLogStream("audit");
+		appender.addRoute(route);
+		appender.setContext(loggerContext);
+		PatternLayout layout = new PatternLayout();
+		layout.setContext(loggerContext);
+		layout.setPattern("%msg");
+		layout.start();
+		appender.setLayout(layout);
+		appender.start();
+
+		for (int i = 0; i < 5; i++) {
+			appender.append(createEvent("name", "message " + i));
+			appender.append(createEvent("audit", "audit " + i));
+		}
+		appender.flush().get(10, TimeUnit.SECONDS);
+		appender.stop();
+
+		assertTrue(overlapped.get());
+		// but only one at a time to each stream so they stay in order
+		assertEquals(1, maxInFlight.get());
+		assertEquals(Arrays.asList("message 0", "message 1", "message 2", "message 3", "message 4"),
+				streamMessages.get("stream"));
+		assertEquals(Arrays.asList("audit 0", "audit 1", "audit 2", "audit 3", "audit 4"),
+				streamMessages.get("audit"));
+		assertEquals(10, appender.getEventsWrittenCount());
+	}
+
+	private LoggingEvent createEvent(String loggerName, String message) {
+		LoggingEvent event = new LoggingEvent();
+		event.setLoggerName(loggerName);
+		event.setLevel(Level.INFO);
+		event.setMessage(message);
+		event.setTimeStamp(System.currentTimeMillis());
+		event.setMDCPropertyMap(Collections.emptyMap());
+		return event;
+	}
+}